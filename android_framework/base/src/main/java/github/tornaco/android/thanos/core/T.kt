@@ -130,6 +130,11 @@ object T {
         return File(baseServerDataDir(), "priv_meid.xml")
     }
 
+    @JvmStatic
+    fun privacyProfilesFile(): File {
+        return File(baseServerDataDir(), "priv_profiles.bin")
+    }
+
     @JvmStatic
     fun privacyInstalledPkgsReturnEmptyFile(): File {
         return File(baseServerDataDir(), "priv_installed_empty.xml")
@@ -155,11 +160,26 @@ object T {
         return File(baseServerDataDir(), "op_settings.xml")
     }
 
+    @JvmStatic
+    fun opModesFile(): File {
+        return File(baseServerDataDir(), "op_modes.bin")
+    }
+
     @JvmStatic
     fun screenOnNotificationPkgsFile(): File {
         return File(baseServerDataDir(), "screen_on_notification_pkgs.xml")
     }
 
+    @JvmStatic
+    fun pkgSnapshotFile(): File {
+        return File(baseServerDataDir(), "pkg_snapshot.bin")
+    }
+
+    @JvmStatic
+    fun startStatsDir(): File {
+        return File(baseServerDataDir(), "start_stats")
+    }
+
     @JvmStatic
     fun serviceInstallName(): String {
         return Context.TV_INPUT_SERVICE
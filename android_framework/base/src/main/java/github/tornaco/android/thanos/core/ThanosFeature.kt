@@ -1,3 +1,19 @@
 package github.tornaco.android.thanos.core
 
-class ThanosFeature<T>(var key: String, var defaultValue: T)
+class ThanosFeature<T>(var key: String, var defaultValue: T) {
+
+    /**
+     * Typed form of a value delivered as string, by IPrefValueChangeListener for example,
+     * parsed the way the typed getters of the pref manager do, default if absent or malformed.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun parse(value: String?): T {
+        if (value == null) return defaultValue
+        return when (defaultValue) {
+            is Boolean -> value.toBoolean()
+            is Int -> value.toIntOrNull() ?: defaultValue
+            is Long -> value.toLongOrNull() ?: defaultValue
+            else -> value
+        } as T
+    }
+}
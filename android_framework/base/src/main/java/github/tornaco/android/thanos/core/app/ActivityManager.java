@@ -123,6 +123,26 @@ public class ActivityManager {
         return server.getStartRecordsBlockedCount();
     }
 
+    /**
+     * Count of start decisions in [fromMills, toMills), including those before this boot.
+     *
+     * @param pkgName null for all packages.
+     * @param method  {@link github.tornaco.android.thanos.core.app.start.StartReason}, or -1 for all.
+     */
+    @SneakyThrows
+    public long getStartRecordCount(String pkgName, int method, boolean blocked, long fromMills, long toMills) {
+        return server.getStartRecordCount(pkgName, method, blocked, fromMills, toMills);
+    }
+
+    /**
+     * @param limit 0 for no limit.
+     * @return packages blocked since sinceMills, most blocked first.
+     */
+    @SneakyThrows
+    public String[] getTopBlockedPackages(int limit, long sinceMills) {
+        return server.getTopBlockedPackages(limit, sinceMills);
+    }
+
     @SneakyThrows
     public void setPkgStartBlockEnabled(String pkgName, boolean enable) {
         server.setPkgStartBlockEnabled(pkgName, enable);
@@ -303,6 +323,21 @@ public class ActivityManager {
         server.setBgTaskCleanUpSkipWhenHasRecentTaskEnabled(enable);
     }
 
+    /**
+     * @param appFlags {@link github.tornaco.android.thanos.core.pm.AppInfo#FLAGS_USER} etc.
+     */
+    public PkgPolicySnapshot getPkgPolicySnapshot(int appFlags) {
+        return getPkgPolicySnapshot(appFlags, 0);
+    }
+
+    /**
+     * @param optInFlags {@link PkgPolicySnapshot#FLAG_IDLE}, served from cached idle state only.
+     */
+    @SneakyThrows
+    public PkgPolicySnapshot getPkgPolicySnapshot(int appFlags, int optInFlags) {
+        return server.getPkgPolicySnapshot(appFlags, optInFlags);
+    }
+
     public IBinder asBinder() {
         return server.asBinder();
     }
@@ -235,6 +235,18 @@ public interface IActivityManager extends android.os.IInterface
     @Override public void setBgTaskCleanUpSkipWhenHasRecentTaskEnabled(boolean enable) throws android.os.RemoteException
     {
     }
+    @Override public github.tornaco.android.thanos.core.app.PkgPolicySnapshot getPkgPolicySnapshot(int appFlags, int optInFlags) throws android.os.RemoteException
+    {
+      return null;
+    }
+    @Override public long getStartRecordCount(java.lang.String pkgName, int method, boolean blocked, long fromMills, long toMills) throws android.os.RemoteException
+    {
+      return 0L;
+    }
+    @Override public java.lang.String[] getTopBlockedPackages(int limit, long sinceMills) throws android.os.RemoteException
+    {
+      return null;
+    }
     @Override
     public android.os.IBinder asBinder() {
       return null;
@@ -887,6 +899,54 @@ public interface IActivityManager extends android.os.IInterface
           reply.writeNoException();
           return true;
         }
+        case TRANSACTION_getPkgPolicySnapshot:
+        {
+          data.enforceInterface(descriptor);
+          int _arg0;
+          _arg0 = data.readInt();
+          int _arg1;
+          _arg1 = data.readInt();
+          github.tornaco.android.thanos.core.app.PkgPolicySnapshot _result = this.getPkgPolicySnapshot(_arg0, _arg1);
+          reply.writeNoException();
+          if ((_result!=null)) {
+            reply.writeInt(1);
+            _result.writeToParcel(reply, android.os.Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
+          }
+          else {
+            reply.writeInt(0);
+          }
+          return true;
+        }
+        case TRANSACTION_getStartRecordCount:
+        {
+          data.enforceInterface(descriptor);
+          java.lang.String _arg0;
+          _arg0 = data.readString();
+          int _arg1;
+          _arg1 = data.readInt();
+          boolean _arg2;
+          _arg2 = (0!=data.readInt());
+          long _arg3;
+          _arg3 = data.readLong();
+          long _arg4;
+          _arg4 = data.readLong();
+          long _result = this.getStartRecordCount(_arg0, _arg1, _arg2, _arg3, _arg4);
+          reply.writeNoException();
+          reply.writeLong(_result);
+          return true;
+        }
+        case TRANSACTION_getTopBlockedPackages:
+        {
+          data.enforceInterface(descriptor);
+          int _arg0;
+          _arg0 = data.readInt();
+          long _arg1;
+          _arg1 = data.readLong();
+          java.lang.String[] _result = this.getTopBlockedPackages(_arg0, _arg1);
+          reply.writeNoException();
+          reply.writeStringArray(_result);
+          return true;
+        }
         default:
         {
           return super.onTransact(code, data, reply, flags);
@@ -2160,6 +2220,80 @@ public interface IActivityManager extends android.os.IInterface
           _data.recycle();
         }
       }
+      @Override public github.tornaco.android.thanos.core.app.PkgPolicySnapshot getPkgPolicySnapshot(int appFlags, int optInFlags) throws android.os.RemoteException
+      {
+        android.os.Parcel _data = android.os.Parcel.obtain();
+        android.os.Parcel _reply = android.os.Parcel.obtain();
+        github.tornaco.android.thanos.core.app.PkgPolicySnapshot _result;
+        try {
+          _data.writeInterfaceToken(DESCRIPTOR);
+          _data.writeInt(appFlags);
+          _data.writeInt(optInFlags);
+          boolean _status = mRemote.transact(Stub.TRANSACTION_getPkgPolicySnapshot, _data, _reply, 0);
+          if (!_status && getDefaultImpl() != null) {
+            return getDefaultImpl().getPkgPolicySnapshot(appFlags, optInFlags);
+          }
+          _reply.readException();
+          if ((0!=_reply.readInt())) {
+            _result = github.tornaco.android.thanos.core.app.PkgPolicySnapshot.CREATOR.createFromParcel(_reply);
+          }
+          else {
+            _result = null;
+          }
+        }
+        finally {
+          _reply.recycle();
+          _data.recycle();
+        }
+        return _result;
+      }
+      @Override public long getStartRecordCount(java.lang.String pkgName, int method, boolean blocked, long fromMills, long toMills) throws android.os.RemoteException
+      {
+        android.os.Parcel _data = android.os.Parcel.obtain();
+        android.os.Parcel _reply = android.os.Parcel.obtain();
+        long _result;
+        try {
+          _data.writeInterfaceToken(DESCRIPTOR);
+          _data.writeString(pkgName);
+          _data.writeInt(method);
+          _data.writeInt(((blocked)?(1):(0)));
+          _data.writeLong(fromMills);
+          _data.writeLong(toMills);
+          boolean _status = mRemote.transact(Stub.TRANSACTION_getStartRecordCount, _data, _reply, 0);
+          if (!_status && getDefaultImpl() != null) {
+            return getDefaultImpl().getStartRecordCount(pkgName, method, blocked, fromMills, toMills);
+          }
+          _reply.readException();
+          _result = _reply.readLong();
+        }
+        finally {
+          _reply.recycle();
+          _data.recycle();
+        }
+        return _result;
+      }
+      @Override public java.lang.String[] getTopBlockedPackages(int limit, long sinceMills) throws android.os.RemoteException
+      {
+        android.os.Parcel _data = android.os.Parcel.obtain();
+        android.os.Parcel _reply = android.os.Parcel.obtain();
+        java.lang.String[] _result;
+        try {
+          _data.writeInterfaceToken(DESCRIPTOR);
+          _data.writeInt(limit);
+          _data.writeLong(sinceMills);
+          boolean _status = mRemote.transact(Stub.TRANSACTION_getTopBlockedPackages, _data, _reply, 0);
+          if (!_status && getDefaultImpl() != null) {
+            return getDefaultImpl().getTopBlockedPackages(limit, sinceMills);
+          }
+          _reply.readException();
+          _result = _reply.createStringArray();
+        }
+        finally {
+          _reply.recycle();
+          _data.recycle();
+        }
+        return _result;
+      }
       public static github.tornaco.android.thanos.core.app.IActivityManager sDefaultImpl;
     }
     static final int TRANSACTION_getCurrentFrontApp = (android.os.IBinder.FIRST_CALL_TRANSACTION + 0);
@@ -2220,6 +2354,9 @@ public interface IActivityManager extends android.os.IInterface
     static final int TRANSACTION_setRecentTaskExcludeSettingForPackage = (android.os.IBinder.FIRST_CALL_TRANSACTION + 55);
     static final int TRANSACTION_isBgTaskCleanUpSkipWhenHasRecentTaskEnabled = (android.os.IBinder.FIRST_CALL_TRANSACTION + 56);
     static final int TRANSACTION_setBgTaskCleanUpSkipWhenHasRecentTaskEnabled = (android.os.IBinder.FIRST_CALL_TRANSACTION + 57);
+    static final int TRANSACTION_getPkgPolicySnapshot = (android.os.IBinder.FIRST_CALL_TRANSACTION + 58);
+    static final int TRANSACTION_getStartRecordCount = (android.os.IBinder.FIRST_CALL_TRANSACTION + 59);
+    static final int TRANSACTION_getTopBlockedPackages = (android.os.IBinder.FIRST_CALL_TRANSACTION + 60);
     public static boolean setDefaultImpl(github.tornaco.android.thanos.core.app.IActivityManager impl) {
       if (Stub.Proxy.sDefaultImpl == null && impl != null) {
         Stub.Proxy.sDefaultImpl = impl;
@@ -2305,4 +2442,7 @@ public interface IActivityManager extends android.os.IInterface
 
   public boolean isBgTaskCleanUpSkipWhenHasRecentTaskEnabled() throws android.os.RemoteException;
   public void setBgTaskCleanUpSkipWhenHasRecentTaskEnabled(boolean enable) throws android.os.RemoteException;
+  public github.tornaco.android.thanos.core.app.PkgPolicySnapshot getPkgPolicySnapshot(int appFlags, int optInFlags) throws android.os.RemoteException;
+  public long getStartRecordCount(java.lang.String pkgName, int method, boolean blocked, long fromMills, long toMills) throws android.os.RemoteException;
+  public java.lang.String[] getTopBlockedPackages(int limit, long sinceMills) throws android.os.RemoteException;
 }
@@ -0,0 +1,94 @@
+package github.tornaco.android.thanos.core.app;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.ToString;
+
+/**
+ * Running state and per package policy of a category of packages,
+ * fetched in one transaction so app list loaders do not need to ask package by package.
+ */
+@ToString
+public class PkgPolicySnapshot implements Parcelable {
+
+    public static final int FLAG_RUNNING = 1;
+    public static final int FLAG_START_BLOCKING = 1 << 1;
+    public static final int FLAG_BG_RESTRICTED = 1 << 2;
+    public static final int FLAG_CLEAN_UP_ON_TASK_REMOVAL = 1 << 3;
+    public static final int FLAG_RECENT_TASK_BLUR = 1 << 4;
+    public static final int FLAG_SMART_STAND_BY = 1 << 5;
+    public static final int FLAG_PRIVACY_DATA_CHEAT = 1 << 6;
+    public static final int FLAG_IDLE = 1 << 7;
+
+    private final Map<String, Integer> pkgFlags;
+
+    public PkgPolicySnapshot(Map<String, Integer> pkgFlags) {
+        this.pkgFlags = pkgFlags;
+    }
+
+    protected PkgPolicySnapshot(Parcel in) {
+        String[] pkgs = in.createStringArray();
+        int[] flags = in.createIntArray();
+        pkgFlags = new HashMap<>(pkgs.length);
+        for (int i = 0; i < pkgs.length; i++) {
+            pkgFlags.put(pkgs[i], flags[i]);
+        }
+    }
+
+    public static final Creator<PkgPolicySnapshot> CREATOR = new Creator<PkgPolicySnapshot>() {
+        @Override
+        public PkgPolicySnapshot createFromParcel(Parcel in) {
+            return new PkgPolicySnapshot(in);
+        }
+
+        @Override
+        public PkgPolicySnapshot[] newArray(int size) {
+            return new PkgPolicySnapshot[size];
+        }
+    };
+
+    public int getFlags(String pkgName) {
+        Integer flags = pkgFlags.get(pkgName);
+        return flags == null ? 0 : flags;
+    }
+
+    public boolean hasFlag(String pkgName, int flag) {
+        return (getFlags(pkgName) & flag) != 0;
+    }
+
+    public boolean isRunning(String pkgName) {
+        return hasFlag(pkgName, FLAG_RUNNING);
+    }
+
+    public boolean isIdle(String pkgName) {
+        return hasFlag(pkgName, FLAG_IDLE);
+    }
+
+    public int size() {
+        return pkgFlags.size();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int i) {
+        // Parallel arrays, cheaper than a map of boxed values.
+        String[] pkgs = new String[pkgFlags.size()];
+        int[] flags = new int[pkgs.length];
+        int index = 0;
+        for (Map.Entry<String, Integer> e : pkgFlags.entrySet()) {
+            pkgs[index] = e.getKey();
+            flags[index] = e.getValue();
+            index++;
+        }
+        parcel.writeStringArray(pkgs);
+        parcel.writeIntArray(flags);
+    }
+}
@@ -0,0 +1,268 @@
+package github.tornaco.android.thanos.core.persist;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Versioned binary container for repo and settings snapshots, replacing the xml ones.
+ * <p>
+ * Layout, all ints big endian:
+ * <pre>
+ * magic(4) version(4) meta(4) columns(4)
+ * stringCount(4) [len(4) chars(len)]*stringCount
+ * rowCount(4) [stringIndex(4)]*columns*rowCount, -1 for null
+ * </pre>
+ * Every distinct string is stored once. Chars are in modified utf-8 like {@link DataOutputStream#writeUTF},
+ * without its 64k limit, so any java string, including unpaired surrogates, round trips.
+ * <p>
+ * Readers take the whole file as bytes and check {@link #isSnapshot(byte[])}; files that are
+ * not snapshots are still in xml, they are parsed as before and written back in this format,
+ * which migrates them.
+ */
+public final class BinarySnapshot {
+
+    private static final int MAGIC = 0x54584253; // TXBS
+    public static final int VERSION = 1;
+
+    private BinarySnapshot() {
+    }
+
+    public static final class Table {
+        public final int meta;
+        public final int columns;
+        public final List<String[]> rows;
+
+        Table(int meta, int columns, List<String[]> rows) {
+            this.meta = meta;
+            this.columns = columns;
+            this.rows = rows;
+        }
+    }
+
+    public static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(in.available(), 1024));
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bos.write(buffer, 0, n);
+        }
+        return bos.toByteArray();
+    }
+
+    public static boolean isSnapshot(byte[] data) {
+        return data.length >= 4 && readInt(data, 0) == MAGIC;
+    }
+
+    public static void writeSet(Collection<String> set, OutputStream out) throws IOException {
+        List<String[]> rows = new ArrayList<>(set.size());
+        for (String s : set) {
+            rows.add(new String[]{s});
+        }
+        writeTable(0, 1, rows, out);
+    }
+
+    public static Set<String> readSet(byte[] data) throws IOException {
+        Table table = readTable(data);
+        Set<String> set = new HashSet<>(table.rows.size());
+        for (String[] row : table.rows) {
+            set.add(row[0]);
+        }
+        return set;
+    }
+
+    public static void writeMap(Map<String, String> map, OutputStream out) throws IOException {
+        List<String[]> rows = new ArrayList<>(map.size());
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            rows.add(new String[]{e.getKey(), e.getValue()});
+        }
+        writeTable(0, 2, rows, out);
+    }
+
+    public static Map<String, String> readMap(byte[] data) throws IOException {
+        Table table = readTable(data);
+        Map<String, String> map = new HashMap<>(table.rows.size());
+        for (String[] row : table.rows) {
+            map.put(row[0], row[1]);
+        }
+        return map;
+    }
+
+    /**
+     * @param meta free for the owner, a settings version for example.
+     */
+    public static void writeTable(int meta, int columns, List<String[]> rows, OutputStream out) throws IOException {
+        Map<String, Integer> indexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] cells = new int[rows.size() * columns];
+        int cell = 0;
+        for (String[] row : rows) {
+            for (int c = 0; c < columns; c++) {
+                String s = row[c];
+                if (s == null) {
+                    cells[cell++] = -1;
+                    continue;
+                }
+                Integer index = indexes.get(s);
+                if (index == null) {
+                    index = strings.size();
+                    indexes.put(s, index);
+                    strings.add(s);
+                }
+                cells[cell++] = index;
+            }
+        }
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out, 8192));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(meta);
+        dos.writeInt(columns);
+        dos.writeInt(strings.size());
+        byte[] scratch = new byte[256];
+        for (String s : strings) {
+            int len = encodedLength(s);
+            if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+            encode(s, scratch);
+            dos.writeInt(len);
+            dos.write(scratch, 0, len);
+        }
+        dos.writeInt(rows.size());
+        for (int c : cells) {
+            dos.writeInt(c);
+        }
+        // Do not close, the owner finishes the write, AtomicFile#finishWrite for example.
+        dos.flush();
+    }
+
+    public static Table readTable(byte[] data) throws IOException {
+        try {
+            int pos = 0;
+            if (readInt(data, pos) != MAGIC) throw new IOException("Not a snapshot");
+            pos += 4;
+            int version = readInt(data, pos);
+            pos += 4;
+            if (version > VERSION) throw new IOException("Unknown snapshot version: " + version);
+            int meta = readInt(data, pos);
+            pos += 4;
+            int columns = readInt(data, pos);
+            pos += 4;
+
+            int stringCount = readInt(data, pos);
+            pos += 4;
+            String[] strings = new String[stringCount];
+            char[] chars = new char[256];
+            for (int i = 0; i < stringCount; i++) {
+                int len = readInt(data, pos);
+                pos += 4;
+                // Chars never outnumber bytes.
+                if (chars.length < len) chars = new char[Math.max(len, chars.length * 2)];
+                strings[i] = decode(data, pos, len, chars);
+                pos += len;
+            }
+
+            int rowCount = readInt(data, pos);
+            pos += 4;
+            List<String[]> rows = new ArrayList<>(rowCount);
+            for (int r = 0; r < rowCount; r++) {
+                String[] row = new String[columns];
+                for (int c = 0; c < columns; c++) {
+                    int index = readInt(data, pos);
+                    pos += 4;
+                    row[c] = index < 0 ? null : strings[index];
+                }
+                rows.add(row);
+            }
+            return new Table(meta, columns, rows);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated snapshot", e);
+        }
+    }
+
+    /**
+     * A single string in the snapshot encoding, for {@link RepoJournal}.
+     */
+    static byte[] encodeString(String s) {
+        byte[] bytes = new byte[encodedLength(s)];
+        encode(s, bytes);
+        return bytes;
+    }
+
+    static String decodeString(byte[] data) throws IOException {
+        try {
+            // Chars never outnumber bytes.
+            return decode(data, 0, data.length, new char[data.length]);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated string", e);
+        }
+    }
+
+    private static int readInt(byte[] data, int pos) {
+        if (pos + 4 > data.length) throw new IndexOutOfBoundsException("pos: " + pos);
+        return ((data[pos] & 0xff) << 24)
+                | ((data[pos + 1] & 0xff) << 16)
+                | ((data[pos + 2] & 0xff) << 8)
+                | (data[pos + 3] & 0xff);
+    }
+
+    private static int encodedLength(String s) {
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) len += 1;
+            else if (c <= 0x07FF) len += 2;
+            else len += 3;
+        }
+        return len;
+    }
+
+    private static void encode(String s, byte[] out) {
+        int pos = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                out[pos++] = (byte) c;
+            } else if (c <= 0x07FF) {
+                out[pos++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                out[pos++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static String decode(byte[] data, int offset, int len, char[] chars) throws IOException {
+        int end = offset + len;
+        if (end > data.length) throw new IOException("Truncated string");
+        int count = 0;
+        int pos = offset;
+        while (pos < end) {
+            int b = data[pos] & 0xff;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+                pos += 1;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (data[pos + 1] & 0x3F));
+                pos += 2;
+            } else if ((b & 0xF0) == 0xE0) {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((data[pos + 1] & 0x3F) << 6) | (data[pos + 2] & 0x3F));
+                pos += 3;
+            } else {
+                throw new IOException("Malformed string at: " + pos);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+}
@@ -1,6 +1,5 @@
 package github.tornaco.android.thanos.core.persist;
 
-import android.os.Handler;
 import android.util.AtomicFile;
 import android.util.Log;
 
@@ -8,19 +7,22 @@ import com.google.common.io.Files;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import github.tornaco.android.thanos.core.persist.i.SetRepo;
 import github.tornaco.android.thanos.core.util.FileUtils;
 import github.tornaco.android.thanos.core.util.Timber;
+import github.tornaco.android.thanos.core.util.function.Predicate;
 import github.tornaco.android.thanos.core.util.XmlUtils;
 import lombok.Cleanup;
 import util.CollectionUtils;
@@ -33,19 +35,19 @@ import util.CollectionUtils;
 public abstract class JsonObjectSetRepo<T> implements SetRepo<T> {
 
     private static final int FLUSH_DELAY = 5000;
-    private static final int FLUSH_DELAY_FAST = 100;
+    // Compact the journal into the snapshot file once it has more records than this, or than the set size.
+    private static final int COMPACT_MIN_RECORDS = 256;
 
     private final Gson gson = new Gson();
-    private static final ExecutorService IO = Executors.newSingleThreadExecutor();
-    private Handler mHandler;
-    private ExecutorService mExe;
+    private final RepoWriteScheduler mScheduler;
 
     private AtomicFile mFile;
+    // Records are the json of elements.
+    private final RepoJournal mJournal;
 
-    public JsonObjectSetRepo(File file, Handler handler, ExecutorService service) {
+    public JsonObjectSetRepo(File file, RepoWriteScheduler scheduler) {
         this.mFile = new AtomicFile(file);
-        this.mExe = service;
-        this.mHandler = handler;
+        this.mScheduler = scheduler;
 
         try {
             if (!this.mFile.getBaseFile().exists()) {
@@ -57,48 +59,78 @@ public abstract class JsonObjectSetRepo<T> implements SetRepo<T> {
 
         Timber.d("StringSetRepo: " + name() + ", comes up @%s", file);
 
+        this.mJournal = new RepoJournal(file, scheduler, this::flushAsync);
         reload();
     }
 
-    private final Set<T> mStorage = new HashSet<>();
+    // Immutable, replaced as a whole by writers so readers never lock nor copy.
+    private volatile Set<T> mStorage = Collections.emptySet();
 
+    // Guards file io.
     private final Object sync = new Object();
+    // Serializes writers of mStorage, never held across io.
+    private final Object writeLock = new Object();
 
     @Override
     public Set<T> getAll() {
-        return new HashSet<>(mStorage);
+        return mStorage;
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public void reload() {
         synchronized (sync) {
+            Set<String> h = new HashSet<>();
+            boolean migrate = false;
             try {
 
-                if (!mFile.getBaseFile().exists()) {
-                    Timber.w("getBaseFile not exists, skip load: " + name());
-                    return;
-                }
-
                 if (mFile.getBaseFile().isDirectory()) {
                     Timber.w("getBaseFile isDirectory, clean up: " + name());
                     FileUtils.deleteDirQuiet(mFile.getBaseFile());
                     mFile.delete();
                 }
 
-                @Cleanup
-                InputStream inputStream = mFile.openRead();
-                Set<String> h = new HashSet(XmlUtils.readSetXml(inputStream));
-                Set<T> t = new HashSet<>();
-                CollectionUtils.consumeRemaining(h, s -> {
-                    T box = gson.fromJson(s, onCreateTypeToken().getType());
-                    t.add(box);
-                });
-                mStorage.addAll(t);
+                if (mFile.getBaseFile().exists()) {
+                    @Cleanup
+                    InputStream inputStream = mFile.openRead();
+                    byte[] data = BinarySnapshot.readAll(inputStream);
+                    if (BinarySnapshot.isSnapshot(data)) {
+                        h.addAll(BinarySnapshot.readSet(data));
+                    } else {
+                        // Legacy xml, rewrite it as a snapshot below.
+                        h.addAll(XmlUtils.readSetXml(new ByteArrayInputStream(data)));
+                        migrate = true;
+                    }
+                } else {
+                    Timber.w("getBaseFile not exists, skip load: " + name());
+                }
 
             } catch (Throwable e) {
                 Timber.wtf("Fail reload@IOException: " + mFile + "\n" + Log.getStackTraceString(e));
             }
+
+            int replayed = mJournal.replay((op, args) -> {
+                if (op == RepoJournal.OP_ADD) h.add(args[0]);
+                else if (op == RepoJournal.OP_REMOVE) h.remove(args[0]);
+                else if (op == RepoJournal.OP_CLEAR) h.clear();
+            });
+            Timber.d("StringSetRepo: " + name() + ", replayed journal records: " + replayed);
+
+            Set<T> t = new HashSet<>();
+            CollectionUtils.consumeRemaining(h, s -> {
+                try {
+                    T box = gson.fromJson(s, onCreateTypeToken().getType());
+                    t.add(box);
+                } catch (Throwable e) {
+                    Timber.wtf("Fail parse: " + s + "\n" + Log.getStackTraceString(e));
+                }
+            });
+            synchronized (writeLock) {
+                mStorage = Collections.unmodifiableSet(t);
+            }
+            if (migrate || mJournal.exists()) {
+                flushAsync();
+            }
         }
     }
 
@@ -106,18 +138,14 @@ public abstract class JsonObjectSetRepo<T> implements SetRepo<T> {
 
     @Override
     public void reloadAsync() {
-        Runnable r = JsonObjectSetRepo.this::reload;
-        if (mExe == null) {
-            IO.execute(r);
-        } else {
-            mExe.execute(r);
-        }
+        mScheduler.execute(this::reload);
     }
 
     @Override
     public void flush() {
         Timber.i("flush");
         synchronized (sync) {
+            mJournal.lock();
             try {
                 Set<String> out = new HashSet<>();
                 Object[] arrLocal = mStorage.toArray();
@@ -127,26 +155,21 @@ public abstract class JsonObjectSetRepo<T> implements SetRepo<T> {
                 });
                 @Cleanup
                 FileOutputStream fos = mFile.startWrite();
-                XmlUtils.writeSetXml(out, fos);
+                BinarySnapshot.writeSet(out, fos);
                 mFile.finishWrite(fos);
+                mJournal.reset();
             } catch (Throwable e) {
                 Timber.wtf("Fail flush@IOException: " + mFile + "\n" + Log.getStackTraceString(e));
+            } finally {
+                mJournal.unlock();
             }
         }
     }
 
-    private Runnable mFlusher = JsonObjectSetRepo.this::flush;
-
-    private Runnable mFlushCaller = this::flushAsync;
-
     @Override
     public void flushAsync() {
         Timber.i("flush async");
-        if (mExe == null) {
-            IO.execute(mFlusher);
-        } else {
-            mExe.execute(mFlusher);
-        }
+        mScheduler.requestCompaction(this, mStorage.size(), 0, this::flush);
     }
 
     @Override
@@ -154,12 +177,7 @@ public abstract class JsonObjectSetRepo<T> implements SetRepo<T> {
         if (s == null) {
             return false;
         }
-        boolean added = mStorage.add(s);
-        if (added && mHandler != null) {
-            mHandler.removeCallbacks(mFlushCaller);
-            mHandler.postDelayed(mFlushCaller, FLUSH_DELAY);
-        }
-        return added;
+        return mutate(RepoJournal.OP_ADD, Collections.singleton(s), storage -> storage.add(s));
     }
 
     @Override
@@ -167,12 +185,7 @@ public abstract class JsonObjectSetRepo<T> implements SetRepo<T> {
         if (c == null) {
             return false;
         }
-        boolean added = mStorage.addAll(c);
-        if (added && mHandler != null) {
-            mHandler.removeCallbacks(mFlushCaller);
-            mHandler.postDelayed(mFlushCaller, FLUSH_DELAY);
-        }
-        return added;
+        return mutate(RepoJournal.OP_ADD, c, storage -> storage.addAll(c));
     }
 
     @Override
@@ -180,20 +193,42 @@ public abstract class JsonObjectSetRepo<T> implements SetRepo<T> {
         if (s == null) {
             return false;
         }
-        boolean removed = mStorage.remove(s);
-        if (removed && mHandler != null) {
-            mHandler.removeCallbacks(mFlushCaller);
-            mHandler.postDelayed(mFlushCaller, FLUSH_DELAY);
-        }
-        return removed;
+        return mutate(RepoJournal.OP_REMOVE, Collections.singleton(s), storage -> storage.remove(s));
     }
 
     @Override
     public void removeAll() {
-        mStorage.clear();
-        if (mHandler != null) {
-            mHandler.removeCallbacks(mFlushCaller);
-            mHandler.postDelayed(mFlushCaller, FLUSH_DELAY_FAST);
+        synchronized (writeLock) {
+            mStorage = Collections.emptySet();
+            mJournal.append(RepoJournal.OP_CLEAR);
+        }
+        onJournalAppended();
+    }
+
+    private boolean mutate(byte op, Collection<? extends T> elements, Predicate<Set<T>> mutation) {
+        boolean changed;
+        synchronized (writeLock) {
+            Set<T> copy = new HashSet<>(mStorage);
+            changed = mutation.test(copy);
+            if (changed) {
+                mStorage = Collections.unmodifiableSet(copy);
+                // Under the lock, records are in the same order as the mutations.
+                List<String> records = new ArrayList<>(elements.size());
+                for (T e : elements) {
+                    records.add(gson.toJson(e));
+                }
+                mJournal.appendEach(op, records);
+            }
+        }
+        if (changed) {
+            onJournalAppended();
+        }
+        return changed;
+    }
+
+    private void onJournalAppended() {
+        if (mJournal.getRecordCount() > Math.max(COMPACT_MIN_RECORDS, mStorage.size())) {
+            mScheduler.requestCompaction(this, mStorage.size(), FLUSH_DELAY, this::flush);
         }
     }
 
@@ -1,21 +1,14 @@
 package github.tornaco.android.thanos.core.persist;
 
-import android.os.Handler;
-import android.os.HandlerThread;
-
 import java.io.File;
 import java.lang.reflect.Constructor;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import util.Singleton;
 
 public final class RepoFactory {
 
-    private static final ExecutorService IO = Executors.newSingleThreadExecutor();
-
     private static final Singleton<RepoFactory> ME = new Singleton<RepoFactory>() {
         @Override
         protected RepoFactory create() {
@@ -26,24 +19,25 @@ public final class RepoFactory {
     private final Map<String, StringMapRepo> stringMapRepoCache = new ConcurrentHashMap<>();
     private final Map<String, StringSetRepo> stringSetRepoCache = new ConcurrentHashMap<>();
     private final Map<String, JsonObjectSetRepo> joSetRepoCache = new ConcurrentHashMap<>();
-    private final Handler repoHandler;
+    // All repos share the io threads of RepoWriteScheduler.
+    private final RepoWriteScheduler writeScheduler = new RepoWriteScheduler();
 
     private RepoFactory() {
-        // Sync in a new handler thread.
-        HandlerThread hr = new HandlerThread("RepoFactory");
-        hr.start();
-        this.repoHandler = new Handler(hr.getLooper());
     }
 
     public static RepoFactory get() {
         return ME.get();
     }
 
+    public RepoWriteScheduler getWriteScheduler() {
+        return writeScheduler;
+    }
+
     public StringMapRepo getOrCreateStringMapRepo(String path) {
         if (stringMapRepoCache.containsKey(path)) {
             return stringMapRepoCache.get(path);
         }
-        StringMapRepo repo = new StringMapRepo(new File(path), this.repoHandler, IO);
+        StringMapRepo repo = new StringMapRepo(new File(path), this.writeScheduler);
         stringMapRepoCache.put(path, repo);
         return repo;
     }
@@ -52,7 +46,7 @@ public final class RepoFactory {
         if (stringSetRepoCache.containsKey(path)) {
             return stringSetRepoCache.get(path);
         }
-        StringSetRepo repo = new StringSetRepo(new File(path), this.repoHandler, IO);
+        StringSetRepo repo = new StringSetRepo(new File(path), this.writeScheduler);
         stringSetRepoCache.put(path, repo);
         return repo;
     }
@@ -63,8 +57,8 @@ public final class RepoFactory {
             return joSetRepoCache.get(path);
         }
         try {
-            Constructor constructor = clazz.getConstructor(File.class, Handler.class, ExecutorService.class);
-            JsonObjectSetRepo<T> repo = (JsonObjectSetRepo<T>) constructor.newInstance(new File(path), this.repoHandler, IO);
+            Constructor constructor = clazz.getConstructor(File.class, RepoWriteScheduler.class);
+            JsonObjectSetRepo<T> repo = (JsonObjectSetRepo<T>) constructor.newInstance(new File(path), this.writeScheduler);
             joSetRepoCache.put(path, repo);
             return repo;
         } catch (Throwable e) {
@@ -0,0 +1,257 @@
+package github.tornaco.android.thanos.core.persist;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import github.tornaco.android.thanos.core.util.Timber;
+import util.IoUtils;
+
+/**
+ * Append only log of repo mutations, written next to the repo snapshot file.
+ * <p>
+ * Record: op(1) argc(1) [len(4) chars(len)]*argc, len -1 for null. Chars are in the modified
+ * utf-8 of {@link BinarySnapshot}, so a string round trips the same in the journal and the snapshot.
+ * Appends are queued by the writer and written by {@link RepoWriteScheduler} in its next batch,
+ * all pending records in one write. The owner compacts holding {@link #lock()} from before
+ * it reads its storage until {@link #reset()}, so no record of a mutation missing in the
+ * snapshot is written and then deleted with the file. A record still pending is written
+ * after that, it is a suffix of the mutations and replaying it on the snapshot is harmless.
+ */
+final class RepoJournal {
+
+    static final byte OP_ADD = 1;
+    static final byte OP_REMOVE = 2;
+    static final byte OP_PUT = 3;
+    static final byte OP_CLEAR = 4;
+
+    interface Replayer {
+        void onRecord(byte op, String[] args);
+    }
+
+    private final File file;
+    private final RepoWriteScheduler scheduler;
+    private final Runnable requestCompaction;
+
+    private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    // Records in the file and pending, since last reset.
+    private final AtomicInteger recordCount = new AtomicInteger(0);
+
+    // Held while the file is touched.
+    private final ReentrantLock ioLock = new ReentrantLock();
+    // Guarded by ioLock.
+    private FileOutputStream out;
+    // Guarded by ioLock. A write failed and the file may end in a torn record,
+    // nothing is written after it until the owner compacts.
+    private boolean broken = false;
+
+    /**
+     * @param requestCompaction called when the file can not take more records, on scheduler thread.
+     */
+    RepoJournal(File snapshotFile, RepoWriteScheduler scheduler, Runnable requestCompaction) {
+        this.file = new File(snapshotFile.getPath() + ".journal");
+        this.scheduler = scheduler;
+        this.requestCompaction = requestCompaction;
+    }
+
+    void append(byte op, String... args) {
+        pending.offer(encode(op, args));
+        recordCount.incrementAndGet();
+        scheduler.requestJournalWrite(this);
+    }
+
+    /**
+     * One record per element, written together.
+     */
+    void appendEach(byte op, Collection<? extends String> elements) {
+        if (elements.isEmpty()) return;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (String e : elements) {
+            byte[] record = encode(op, e);
+            bos.write(record, 0, record.length);
+        }
+        pending.offer(bos.toByteArray());
+        recordCount.addAndGet(elements.size());
+        scheduler.requestJournalWrite(this);
+    }
+
+    /**
+     * One put record per entry, written together.
+     */
+    void appendPuts(Map<? extends String, ? extends String> entries) {
+        if (entries.isEmpty()) return;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (Map.Entry<? extends String, ? extends String> e : entries.entrySet()) {
+            byte[] record = encode(OP_PUT, e.getKey(), e.getValue());
+            bos.write(record, 0, record.length);
+        }
+        pending.offer(bos.toByteArray());
+        recordCount.addAndGet(entries.size());
+        scheduler.requestJournalWrite(this);
+    }
+
+    int getRecordCount() {
+        return recordCount.get();
+    }
+
+    /**
+     * True if there is a journal file, owner should compact right after load,
+     * so appends never follow a torn tail.
+     */
+    boolean exists() {
+        return file.exists();
+    }
+
+    void lock() {
+        ioLock.lock();
+    }
+
+    /**
+     * @return false if the owner is compacting.
+     */
+    boolean tryLock() {
+        return ioLock.tryLock();
+    }
+
+    void unlock() {
+        ioLock.unlock();
+    }
+
+    /**
+     * Call holding the lock.
+     *
+     * @return true if anything was written, call {@link #sync()} then.
+     */
+    boolean writePending() {
+        byte[] record;
+        boolean wrote = false;
+        try {
+            if (broken || pending.isEmpty()) {
+                return false;
+            }
+            if (out == null) {
+                out = new FileOutputStream(file, true);
+            }
+            while ((record = pending.peek()) != null) {
+                out.write(record);
+                // Only this thread takes, under the lock, it is still the head.
+                pending.poll();
+                wrote = true;
+            }
+        } catch (IOException e) {
+            Timber.wtf("Fail append journal: " + file + "\n" + Log.getStackTraceString(e));
+            IoUtils.closeQuietly(out);
+            out = null;
+            // Records not written stay pending, the snapshot replaces the torn tail.
+            broken = true;
+            requestCompaction.run();
+        }
+        return wrote && out != null;
+    }
+
+    /**
+     * Call holding the lock.
+     */
+    void sync() {
+        try {
+            if (out != null) {
+                out.getFD().sync();
+            }
+        } catch (IOException e) {
+            Timber.wtf("Fail sync journal: " + file + "\n" + Log.getStackTraceString(e));
+        }
+    }
+
+    /**
+     * Call holding the lock, right after a snapshot containing all records so far is written.
+     */
+    void reset() {
+        IoUtils.closeQuietly(out);
+        out = null;
+        broken = false;
+        recordCount.set(pending.size());
+        if (file.exists() && !file.delete()) {
+            Timber.w("Fail delete journal: %s", file);
+        }
+    }
+
+    /**
+     * @return records replayed, a torn tail record is dropped.
+     */
+    int replay(Replayer replayer) {
+        if (!file.exists()) return 0;
+        int count = 0;
+        DataInputStream in = null;
+        ioLock.lock();
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException eof) {
+                    break;
+                }
+                int argc = in.readUnsignedByte();
+                String[] args = new String[argc];
+                for (int i = 0; i < argc; i++) {
+                    int len = in.readInt();
+                    if (len < 0) {
+                        args[i] = null;
+                        continue;
+                    }
+                    byte[] bytes = new byte[len];
+                    in.readFully(bytes);
+                    args[i] = BinarySnapshot.decodeString(bytes);
+                }
+                replayer.onRecord(op, args);
+                count++;
+            }
+        } catch (EOFException e) {
+            Timber.w("Journal tail is torn, drop it: %s", file);
+        } catch (IOException e) {
+            Timber.wtf("Fail replay journal: " + file + "\n" + Log.getStackTraceString(e));
+        } finally {
+            IoUtils.closeQuietly(in);
+            ioLock.unlock();
+        }
+        recordCount.set(count);
+        return count;
+    }
+
+    private static byte[] encode(byte op, String... args) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+            DataOutputStream dos = new DataOutputStream(bos);
+            dos.writeByte(op);
+            dos.writeByte(args.length);
+            for (String arg : args) {
+                if (arg == null) {
+                    dos.writeInt(-1);
+                    continue;
+                }
+                byte[] bytes = BinarySnapshot.encodeString(arg);
+                dos.writeInt(bytes.length);
+                dos.write(bytes);
+            }
+            return bos.toByteArray();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package github.tornaco.android.thanos.core.persist;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import github.tornaco.android.thanos.core.persist.i.Repo;
+import github.tornaco.android.thanos.core.util.Timber;
+import lombok.AllArgsConstructor;
+
+/**
+ * Two io threads shared by all repos, writes are coalesced into batches.
+ * <p>
+ * The journal lane writes the pending records of every dirty journal then syncs them,
+ * so a burst over many repos costs one fsync window. The compaction lane runs the due
+ * compactions, small repos first, and reloads, so a big snapshot never holds back the
+ * appends of other repos. A repo being compacted holds its journal lock, the journal lane
+ * skips it and retries in the next window instead of waiting.
+ * A repo is queued at most once per lane, however many times it is marked dirty.
+ */
+public final class RepoWriteScheduler {
+
+    // Gather journal appends of a burst, select all in the UI for example, into one batch.
+    private static final long JOURNAL_WINDOW_MILLS = 20;
+    private static final long SLOW_BATCH_MILLS = 200;
+
+    private final Set<RepoJournal> dirtyJournals = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Map<Repo, Compaction> compactions = new ConcurrentHashMap<>();
+
+    private final Lane journalLane = new Lane("RepoWriteScheduler-journal", this::runJournalBatch);
+    private final Lane compactionLane = new Lane("RepoWriteScheduler-compaction", this::runCompactionBatch);
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong totalBatchMills = new AtomicLong();
+    private final AtomicLong maxBatchMills = new AtomicLong();
+    private volatile long lastBatchMills;
+
+    RepoWriteScheduler() {
+    }
+
+    /**
+     * Run on the compaction lane, for reloads.
+     */
+    void execute(Runnable r) {
+        compactionLane.io.execute(r);
+    }
+
+    void requestJournalWrite(RepoJournal journal) {
+        if (dirtyJournals.add(journal)) {
+            journalLane.schedule(JOURNAL_WINDOW_MILLS);
+        }
+    }
+
+    /**
+     * Debounced, a later request for the same repo pushes the deadline back.
+     *
+     * @param flush writes the snapshot, called on the compaction lane.
+     */
+    void requestCompaction(Repo repo, int size, long delayMills, Runnable flush) {
+        compactions.put(repo, new Compaction(SystemClock.uptimeMillis() + delayMills, size, flush));
+        compactionLane.schedule(delayMills);
+    }
+
+    private void runJournalBatch() {
+        journalLane.onBatchStart();
+        long start = SystemClock.uptimeMillis();
+
+        List<RepoJournal> written = new ArrayList<>(dirtyJournals.size());
+        List<RepoJournal> busy = new ArrayList<>();
+        Iterator<RepoJournal> journals = dirtyJournals.iterator();
+        while (journals.hasNext()) {
+            RepoJournal journal = journals.next();
+            journals.remove();
+            if (!journal.tryLock()) {
+                busy.add(journal);
+                continue;
+            }
+            try {
+                if (journal.writePending()) {
+                    written.add(journal);
+                }
+            } finally {
+                journal.unlock();
+            }
+        }
+        for (RepoJournal journal : written) {
+            // Compacting since written, the file is replaced by the snapshot anyway.
+            if (!journal.tryLock()) continue;
+            try {
+                journal.sync();
+            } finally {
+                journal.unlock();
+            }
+        }
+
+        onBatchFinished(start, written.size(), 0);
+
+        if (!busy.isEmpty()) {
+            dirtyJournals.addAll(busy);
+            journalLane.schedule(JOURNAL_WINDOW_MILLS);
+        }
+    }
+
+    private void runCompactionBatch() {
+        compactionLane.onBatchStart();
+        long start = SystemClock.uptimeMillis();
+
+        List<Compaction> due = new ArrayList<>();
+        long nextDue = Long.MAX_VALUE;
+        for (Map.Entry<Repo, Compaction> e : compactions.entrySet()) {
+            Compaction c = e.getValue();
+            if (c.dueAt <= start) {
+                // Only if not requested again in between.
+                if (compactions.remove(e.getKey(), c)) due.add(c);
+            } else {
+                nextDue = Math.min(nextDue, c.dueAt);
+            }
+        }
+        Collections.sort(due, (a, b) -> Integer.compare(a.size, b.size));
+        for (Compaction c : due) {
+            c.flush.run();
+        }
+
+        onBatchFinished(start, 0, due.size());
+
+        if (nextDue != Long.MAX_VALUE) {
+            compactionLane.schedule(Math.max(0, nextDue - SystemClock.uptimeMillis()));
+        }
+    }
+
+    private void onBatchFinished(long start, int journalCount, int compactionCount) {
+        if (journalCount == 0 && compactionCount == 0) {
+            return;
+        }
+        long cost = SystemClock.uptimeMillis() - start;
+        lastBatchMills = cost;
+        batchCount.incrementAndGet();
+        totalBatchMills.addAndGet(cost);
+        long max = maxBatchMills.get();
+        while (cost > max && !maxBatchMills.compareAndSet(max, cost)) {
+            max = maxBatchMills.get();
+        }
+        if (cost > SLOW_BATCH_MILLS) {
+            Timber.w("Slow repo write batch: %sms, journals: %s, compactions: %s", cost, journalCount, compactionCount);
+        }
+    }
+
+    /**
+     * Repos waiting to be written.
+     */
+    public int getQueueDepth() {
+        return dirtyJournals.size() + compactions.size();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getLastBatchMills() {
+        return lastBatchMills;
+    }
+
+    public long getMaxBatchMills() {
+        return maxBatchMills.get();
+    }
+
+    public long getAverageBatchMills() {
+        long count = batchCount.get();
+        return count == 0 ? 0 : totalBatchMills.get() / count;
+    }
+
+    private static final class Lane {
+        private final ScheduledExecutorService io;
+        private final Runnable batch;
+        // Uptime of the earliest scheduled batch, 0 if none, guarded by this.
+        private long nextBatchAt = 0;
+
+        Lane(String name, Runnable batch) {
+            this.io = new ScheduledThreadPoolExecutor(1, r -> new Thread(r, name));
+            this.batch = batch;
+        }
+
+        void schedule(long delayMills) {
+            long at = SystemClock.uptimeMillis() + delayMills;
+            synchronized (this) {
+                if (nextBatchAt != 0 && nextBatchAt <= at) {
+                    return;
+                }
+                nextBatchAt = at;
+            }
+            io.schedule(batch, delayMills, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized void onBatchStart() {
+            nextBatchAt = 0;
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Compaction {
+        private final long dueAt;
+        private final int size;
+        private final Runnable flush;
+    }
+}
@@ -1,24 +1,22 @@
 package github.tornaco.android.thanos.core.persist;
 
 import android.annotation.NonNull;
-import android.os.Handler;
 import android.util.AtomicFile;
 import android.util.Log;
 
 import com.google.common.io.Closer;
 import com.google.common.io.Files;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import github.tornaco.android.thanos.core.persist.i.MapRepo;
 import github.tornaco.android.thanos.core.util.FileUtils;
@@ -34,27 +32,30 @@ import util.IoUtils;
 public class StringMapRepo implements MapRepo<String, String> {
 
     private static final String NULL_INDICATOR = "NULL";
-    private static final ExecutorService IO = Executors.newSingleThreadExecutor();
 
-    private final Map<String, String> mStorage = new HashMap<>();
+    // Immutable, replaced as a whole by writers so readers never lock nor copy.
+    private volatile Map<String, String> mStorage = Collections.emptyMap();
 
     /**
      * Flush data too many times, may drain battery.
      */
     private static final int FLUSH_DELAY = 5000;
-    private static final int FLUSH_DELAY_FAST = 100;
+    // Compact the journal into the snapshot file once it has more records than this, or than the map size.
+    private static final int COMPACT_MIN_RECORDS = 256;
 
-    private Handler mHandler;
-    private ExecutorService mExe;
+    private final RepoWriteScheduler mScheduler;
 
     private AtomicFile mFile;
+    private final RepoJournal mJournal;
 
+    // Guards file io.
     private final Object sync = new Object();
+    // Serializes writers of mStorage, never held across io.
+    private final Object writeLock = new Object();
 
-    StringMapRepo(File file, Handler handler, ExecutorService service) {
+    StringMapRepo(File file, RepoWriteScheduler scheduler) {
         this.mFile = new AtomicFile(file);
-        this.mExe = service;
-        this.mHandler = handler;
+        this.mScheduler = scheduler;
 
         if (!this.mFile.getBaseFile().exists()) {
             try {
@@ -63,52 +64,64 @@ public class StringMapRepo implements MapRepo<String, String> {
                 Timber.wtf("Fail createParentDirs for: " + file + "\n" + Log.getStackTraceString(e));
             }
         }
+        this.mJournal = new RepoJournal(file, scheduler, this::flushAsync);
         reload();
     }
 
     @Override
     public void reload() {
         synchronized (sync) {
+            Map<String, String> loaded = new HashMap<>();
+            boolean migrate = false;
             com.google.common.io.Closer closer = com.google.common.io.Closer.create();
             try {
 
-                if (!mFile.getBaseFile().exists()) {
-                    Timber.wtf("getBaseFile not exists, skip load: " + name());
-                    return;
-                }
-
                 if (mFile.getBaseFile().isDirectory()) {
                     Timber.wtf("getBaseFile isDirectory, clean up: " + name());
                     FileUtils.deleteDirQuiet(mFile.getBaseFile());
                     mFile.delete();
                 }
 
-
-                InputStream is = closer.register(mFile.openRead());
-                @SuppressWarnings("unchecked") Map<String, String> m = (Map<String, String>) XmlUtils.readMapXml(is);
-                mStorage.putAll(m);
+                if (mFile.getBaseFile().exists()) {
+                    InputStream is = closer.register(mFile.openRead());
+                    byte[] data = BinarySnapshot.readAll(is);
+                    if (BinarySnapshot.isSnapshot(data)) {
+                        loaded.putAll(BinarySnapshot.readMap(data));
+                    } else {
+                        // Legacy xml, rewrite it as a snapshot below.
+                        @SuppressWarnings("unchecked") Map<String, String> m
+                                = (Map<String, String>) XmlUtils.readMapXml(new ByteArrayInputStream(data));
+                        loaded.putAll(m);
+                        migrate = true;
+                    }
+                } else {
+                    Timber.wtf("getBaseFile not exists, skip load: " + name());
+                }
 
             } catch (Throwable e) {
                 Timber.wtf("Fail reload@IOException: " + mFile + "\n" + Log.getStackTraceString(e));
             } finally {
                 IoUtils.closeQuietly(closer);
             }
+
+            int replayed = mJournal.replay((op, args) -> {
+                if (op == RepoJournal.OP_PUT) loaded.put(args[0], args[1]);
+                else if (op == RepoJournal.OP_REMOVE) loaded.remove(args[0]);
+                else if (op == RepoJournal.OP_CLEAR) loaded.clear();
+            });
+            Timber.d("StringMapRepo: " + name() + ", replayed journal records: " + replayed);
+            synchronized (writeLock) {
+                mStorage = Collections.unmodifiableMap(loaded);
+            }
+            if (migrate || mJournal.exists()) {
+                flushAsync();
+            }
         }
     }
 
     @Override
     public void reloadAsync() {
-        Runnable r = new Runnable() {
-            @Override
-            public void run() {
-                StringMapRepo.this.reload();
-            }
-        };
-        if (mExe == null) {
-            IO.execute(r);
-        } else {
-            mExe.execute(r);
-        }
+        mScheduler.execute(this::reload);
     }
 
     @Override
@@ -116,44 +129,29 @@ public class StringMapRepo implements MapRepo<String, String> {
         Timber.i("flush");
         Closer closer = Closer.create();
         synchronized (sync) {
+            mJournal.lock();
             try {
 
-                Map<String, String> m = new HashMap<>(mStorage);
+                Map<String, String> m = mStorage;
 
                 FileOutputStream fos = closer.register(mFile.startWrite());
-                XmlUtils.writeMapXml(m, fos);
+                BinarySnapshot.writeMap(m, fos);
                 mFile.finishWrite(fos);
+                mJournal.reset();
 
             } catch (Throwable e) {
                 Timber.wtf("Fail flush@IOException: " + mFile + "\n" + Log.getStackTraceString(e));
             } finally {
                 IoUtils.closeQuietly(closer);
+                mJournal.unlock();
             }
         }
     }
 
-    private Runnable mFlusher = new Runnable() {
-        @Override
-        public void run() {
-            StringMapRepo.this.flush();
-        }
-    };
-
-    private Runnable mFlushCaller = new Runnable() {
-        @Override
-        public void run() {
-            StringMapRepo.this.flushAsync();
-        }
-    };
-
     @Override
     public void flushAsync() {
         Timber.i("flush async");
-        if (mExe == null) {
-            IO.execute(mFlusher);
-        } else {
-            mExe.execute(mFlusher);
-        }
+        mScheduler.requestCompaction(this, mStorage.size(), 0, this::flush);
     }
 
     @Override
@@ -163,7 +161,7 @@ public class StringMapRepo implements MapRepo<String, String> {
 
     @Override
     public Map<String, String> snapshot() {
-        return new HashMap<>(mStorage);
+        return mStorage;
     }
 
     @Override
@@ -199,38 +197,64 @@ public class StringMapRepo implements MapRepo<String, String> {
 
     @Override
     public String put(String key, String value) {
-        String res = mStorage.put(key, value == null ? NULL_INDICATOR : value);
-        mHandler.removeCallbacks(mFlushCaller);
-        mHandler.postDelayed(mFlushCaller, FLUSH_DELAY);
+        String v = value == null ? NULL_INDICATOR : value;
+        String res;
+        synchronized (writeLock) {
+            Map<String, String> copy = new HashMap<>(mStorage);
+            res = copy.put(key, v);
+            mStorage = Collections.unmodifiableMap(copy);
+            mJournal.append(RepoJournal.OP_PUT, key, v);
+        }
+        onJournalAppended();
         return res;
     }
 
     @Override
     public String remove(Object key) {
-        String res = mStorage.remove(key);
-        mHandler.removeCallbacks(mFlushCaller);
-        mHandler.postDelayed(mFlushCaller, FLUSH_DELAY);
+        if (!(key instanceof String) || !mStorage.containsKey(key)) {
+            return null;
+        }
+        String res;
+        synchronized (writeLock) {
+            Map<String, String> copy = new HashMap<>(mStorage);
+            res = copy.remove(key);
+            mStorage = Collections.unmodifiableMap(copy);
+            mJournal.append(RepoJournal.OP_REMOVE, (String) key);
+        }
+        onJournalAppended();
         return res;
     }
 
     @Override
     public void putAll(@NonNull Map<? extends String, ? extends String> m) {
-        mStorage.putAll(m);
-        mHandler.removeCallbacks(mFlushCaller);
-        mHandler.postDelayed(mFlushCaller, FLUSH_DELAY);
+        synchronized (writeLock) {
+            Map<String, String> copy = new HashMap<>(mStorage);
+            copy.putAll(m);
+            mStorage = Collections.unmodifiableMap(copy);
+            mJournal.appendPuts(m);
+        }
+        onJournalAppended();
     }
 
     @Override
     public void clear() {
-        mStorage.clear();
-        mHandler.removeCallbacks(mFlushCaller);
-        mHandler.postDelayed(mFlushCaller, FLUSH_DELAY_FAST);
+        synchronized (writeLock) {
+            mStorage = Collections.emptyMap();
+            mJournal.append(RepoJournal.OP_CLEAR);
+        }
+        onJournalAppended();
+    }
+
+    private void onJournalAppended() {
+        if (mJournal.getRecordCount() > Math.max(COMPACT_MIN_RECORDS, mStorage.size())) {
+            mScheduler.requestCompaction(this, mStorage.size(), FLUSH_DELAY, this::flush);
+        }
     }
 
     @NonNull
     @Override
     public Set<String> keySet() {
-        return new HashSet<>(mStorage.keySet());
+        return mStorage.keySet();
     }
 
     @NonNull
@@ -242,6 +266,6 @@ public class StringMapRepo implements MapRepo<String, String> {
     @NonNull
     @Override
     public Set<Map.Entry<String, String>> entrySet() {
-        return new HashSet<>(mStorage.entrySet());
+        return mStorage.entrySet();
     }
 }
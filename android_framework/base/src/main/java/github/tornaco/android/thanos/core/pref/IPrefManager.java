@@ -39,6 +39,18 @@ public interface IPrefManager extends android.os.IInterface
     {
       return 0L;
     }
+    @Override public boolean registerSettingsValueChangeListener(java.lang.String[] keys, github.tornaco.android.thanos.core.pref.IPrefValueChangeListener listener) throws android.os.RemoteException
+    {
+      return false;
+    }
+    @Override public boolean unRegisterSettingsValueChangeListener(github.tornaco.android.thanos.core.pref.IPrefValueChangeListener listener) throws android.os.RemoteException
+    {
+      return false;
+    }
+    @Override public boolean putAll(java.lang.String[] keys, java.lang.String[] values) throws android.os.RemoteException
+    {
+      return false;
+    }
     @Override
     public android.os.IBinder asBinder() {
       return null;
@@ -178,6 +190,40 @@ public interface IPrefManager extends android.os.IInterface
           reply.writeLong(_result);
           return true;
         }
+        case TRANSACTION_registerSettingsValueChangeListener:
+        {
+          data.enforceInterface(descriptor);
+          java.lang.String[] _arg0;
+          _arg0 = data.createStringArray();
+          github.tornaco.android.thanos.core.pref.IPrefValueChangeListener _arg1;
+          _arg1 = github.tornaco.android.thanos.core.pref.IPrefValueChangeListener.Stub.asInterface(data.readStrongBinder());
+          boolean _result = this.registerSettingsValueChangeListener(_arg0, _arg1);
+          reply.writeNoException();
+          reply.writeInt(((_result)?(1):(0)));
+          return true;
+        }
+        case TRANSACTION_unRegisterSettingsValueChangeListener:
+        {
+          data.enforceInterface(descriptor);
+          github.tornaco.android.thanos.core.pref.IPrefValueChangeListener _arg0;
+          _arg0 = github.tornaco.android.thanos.core.pref.IPrefValueChangeListener.Stub.asInterface(data.readStrongBinder());
+          boolean _result = this.unRegisterSettingsValueChangeListener(_arg0);
+          reply.writeNoException();
+          reply.writeInt(((_result)?(1):(0)));
+          return true;
+        }
+        case TRANSACTION_putAll:
+        {
+          data.enforceInterface(descriptor);
+          java.lang.String[] _arg0;
+          _arg0 = data.createStringArray();
+          java.lang.String[] _arg1;
+          _arg1 = data.createStringArray();
+          boolean _result = this.putAll(_arg0, _arg1);
+          reply.writeNoException();
+          reply.writeInt(((_result)?(1):(0)));
+          return true;
+        }
         default:
         {
           return super.onTransact(code, data, reply, flags);
@@ -375,6 +421,71 @@ public interface IPrefManager extends android.os.IInterface
         }
         return _result;
       }
+      @Override public boolean registerSettingsValueChangeListener(java.lang.String[] keys, github.tornaco.android.thanos.core.pref.IPrefValueChangeListener listener) throws android.os.RemoteException
+      {
+        android.os.Parcel _data = android.os.Parcel.obtain();
+        android.os.Parcel _reply = android.os.Parcel.obtain();
+        boolean _result;
+        try {
+          _data.writeInterfaceToken(DESCRIPTOR);
+          _data.writeStringArray(keys);
+          _data.writeStrongBinder((((listener!=null))?(listener.asBinder()):(null)));
+          boolean _status = mRemote.transact(Stub.TRANSACTION_registerSettingsValueChangeListener, _data, _reply, 0);
+          if (!_status && getDefaultImpl() != null) {
+            return getDefaultImpl().registerSettingsValueChangeListener(keys, listener);
+          }
+          _reply.readException();
+          _result = (0!=_reply.readInt());
+        }
+        finally {
+          _reply.recycle();
+          _data.recycle();
+        }
+        return _result;
+      }
+      @Override public boolean unRegisterSettingsValueChangeListener(github.tornaco.android.thanos.core.pref.IPrefValueChangeListener listener) throws android.os.RemoteException
+      {
+        android.os.Parcel _data = android.os.Parcel.obtain();
+        android.os.Parcel _reply = android.os.Parcel.obtain();
+        boolean _result;
+        try {
+          _data.writeInterfaceToken(DESCRIPTOR);
+          _data.writeStrongBinder((((listener!=null))?(listener.asBinder()):(null)));
+          boolean _status = mRemote.transact(Stub.TRANSACTION_unRegisterSettingsValueChangeListener, _data, _reply, 0);
+          if (!_status && getDefaultImpl() != null) {
+            return getDefaultImpl().unRegisterSettingsValueChangeListener(listener);
+          }
+          _reply.readException();
+          _result = (0!=_reply.readInt());
+        }
+        finally {
+          _reply.recycle();
+          _data.recycle();
+        }
+        return _result;
+      }
+      @Override public boolean putAll(java.lang.String[] keys, java.lang.String[] values) throws android.os.RemoteException
+      {
+        android.os.Parcel _data = android.os.Parcel.obtain();
+        android.os.Parcel _reply = android.os.Parcel.obtain();
+        boolean _result;
+        try {
+          _data.writeInterfaceToken(DESCRIPTOR);
+          _data.writeStringArray(keys);
+          _data.writeStringArray(values);
+          boolean _status = mRemote.transact(Stub.TRANSACTION_putAll, _data, _reply, 0);
+          if (!_status && getDefaultImpl() != null) {
+            return getDefaultImpl().putAll(keys, values);
+          }
+          _reply.readException();
+          _result = (0!=_reply.readInt());
+        }
+        finally {
+          _reply.recycle();
+          _data.recycle();
+        }
+        return _result;
+      }
       public static github.tornaco.android.thanos.core.pref.IPrefManager sDefaultImpl;
     }
     static final int TRANSACTION_putInt = (android.os.IBinder.FIRST_CALL_TRANSACTION + 0);
@@ -385,6 +496,9 @@ public interface IPrefManager extends android.os.IInterface
     static final int TRANSACTION_getBoolean = (android.os.IBinder.FIRST_CALL_TRANSACTION + 5);
     static final int TRANSACTION_putLong = (android.os.IBinder.FIRST_CALL_TRANSACTION + 6);
     static final int TRANSACTION_getLong = (android.os.IBinder.FIRST_CALL_TRANSACTION + 7);
+    static final int TRANSACTION_registerSettingsValueChangeListener = (android.os.IBinder.FIRST_CALL_TRANSACTION + 8);
+    static final int TRANSACTION_unRegisterSettingsValueChangeListener = (android.os.IBinder.FIRST_CALL_TRANSACTION + 9);
+    static final int TRANSACTION_putAll = (android.os.IBinder.FIRST_CALL_TRANSACTION + 10);
     public static boolean setDefaultImpl(github.tornaco.android.thanos.core.pref.IPrefManager impl) {
       if (Stub.Proxy.sDefaultImpl == null && impl != null) {
         Stub.Proxy.sDefaultImpl = impl;
@@ -404,4 +518,7 @@ public interface IPrefManager extends android.os.IInterface
   public boolean getBoolean(java.lang.String key, boolean def) throws android.os.RemoteException;
   public boolean putLong(java.lang.String key, long value) throws android.os.RemoteException;
   public long getLong(java.lang.String key, long def) throws android.os.RemoteException;
+  public boolean registerSettingsValueChangeListener(java.lang.String[] keys, github.tornaco.android.thanos.core.pref.IPrefValueChangeListener listener) throws android.os.RemoteException;
+  public boolean unRegisterSettingsValueChangeListener(github.tornaco.android.thanos.core.pref.IPrefValueChangeListener listener) throws android.os.RemoteException;
+  public boolean putAll(java.lang.String[] keys, java.lang.String[] values) throws android.os.RemoteException;
 }
@@ -1,5 +1,8 @@
 package github.tornaco.android.thanos.core.pref;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import lombok.AllArgsConstructor;
 import lombok.SneakyThrows;
 
@@ -46,4 +49,61 @@ public class PrefManager {
     public long getLong(String key, long def) {
         return server.getLong(key, def);
     }
+
+    /**
+     * @param keys key, or key prefix ending with *.
+     */
+    @SneakyThrows
+    public boolean registerSettingsValueChangeListener(String[] keys, IPrefValueChangeListener listener) {
+        return server.registerSettingsValueChangeListener(keys, listener);
+    }
+
+    @SneakyThrows
+    public boolean unRegisterSettingsValueChangeListener(IPrefValueChangeListener listener) {
+        return server.unRegisterSettingsValueChangeListener(listener);
+    }
+
+    @SneakyThrows
+    public boolean putAll(String[] keys, String[] values) {
+        return server.putAll(keys, values);
+    }
+
+    /**
+     * Collect puts and {@link Transaction#commit()} them as one {@link #putAll(String[], String[])},
+     * one binder call, one write and one change notification.
+     */
+    public Transaction edit() {
+        return new Transaction();
+    }
+
+    public class Transaction {
+        private final List<String> keys = new ArrayList<>();
+        private final List<String> values = new ArrayList<>();
+
+        private Transaction() {
+        }
+
+        public Transaction putInt(String key, int value) {
+            return putString(key, String.valueOf(value));
+        }
+
+        public Transaction putBoolean(String key, boolean value) {
+            return putString(key, String.valueOf(value));
+        }
+
+        public Transaction putLong(String key, long value) {
+            return putString(key, String.valueOf(value));
+        }
+
+        public Transaction putString(String key, String value) {
+            keys.add(key);
+            values.add(value);
+            return this;
+        }
+
+        public boolean commit() {
+            if (keys.isEmpty()) return true;
+            return putAll(keys.toArray(new String[0]), values.toArray(new String[0]));
+        }
+    }
 }
@@ -118,6 +118,16 @@ public interface IPrivacyManager extends android.os.IInterface
     {
       return null;
     }
+    @Override public github.tornaco.android.thanos.core.secure.PrivacyProfile getPrivacyProfileForPkg(java.lang.String pkg) throws android.os.RemoteException
+    {
+      return null;
+    }
+    @Override public void registerPrivacyProfileObserver(github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver observer) throws android.os.RemoteException
+    {
+    }
+    @Override public void unRegisterPrivacyProfileObserver(github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver observer) throws android.os.RemoteException
+    {
+    }
     @Override
     public android.os.IBinder asBinder() {
       return null;
@@ -467,6 +477,40 @@ public interface IPrivacyManager extends android.os.IInterface
           reply.writeTypedArray(_result, android.os.Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
           return true;
         }
+        case TRANSACTION_getPrivacyProfileForPkg:
+        {
+          data.enforceInterface(descriptor);
+          java.lang.String _arg0;
+          _arg0 = data.readString();
+          github.tornaco.android.thanos.core.secure.PrivacyProfile _result = this.getPrivacyProfileForPkg(_arg0);
+          reply.writeNoException();
+          if ((_result!=null)) {
+            reply.writeInt(1);
+            _result.writeToParcel(reply, android.os.Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
+          }
+          else {
+            reply.writeInt(0);
+          }
+          return true;
+        }
+        case TRANSACTION_registerPrivacyProfileObserver:
+        {
+          data.enforceInterface(descriptor);
+          github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver _arg0;
+          _arg0 = github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver.Stub.asInterface(data.readStrongBinder());
+          this.registerPrivacyProfileObserver(_arg0);
+          reply.writeNoException();
+          return true;
+        }
+        case TRANSACTION_unRegisterPrivacyProfileObserver:
+        {
+          data.enforceInterface(descriptor);
+          github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver _arg0;
+          _arg0 = github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver.Stub.asInterface(data.readStrongBinder());
+          this.unRegisterPrivacyProfileObserver(_arg0);
+          reply.writeNoException();
+          return true;
+        }
         default:
         {
           return super.onTransact(code, data, reply, flags);
@@ -1113,6 +1157,70 @@ public interface IPrivacyManager extends android.os.IInterface
         }
         return _result;
       }
+      @Override public github.tornaco.android.thanos.core.secure.PrivacyProfile getPrivacyProfileForPkg(java.lang.String pkg) throws android.os.RemoteException
+      {
+        android.os.Parcel _data = android.os.Parcel.obtain();
+        android.os.Parcel _reply = android.os.Parcel.obtain();
+        github.tornaco.android.thanos.core.secure.PrivacyProfile _result;
+        try {
+          _data.writeInterfaceToken(DESCRIPTOR);
+          _data.writeString(pkg);
+          boolean _status = mRemote.transact(Stub.TRANSACTION_getPrivacyProfileForPkg, _data, _reply, 0);
+          if (!_status && getDefaultImpl() != null) {
+            return getDefaultImpl().getPrivacyProfileForPkg(pkg);
+          }
+          _reply.readException();
+          if ((0!=_reply.readInt())) {
+            _result = github.tornaco.android.thanos.core.secure.PrivacyProfile.CREATOR.createFromParcel(_reply);
+          }
+          else {
+            _result = null;
+          }
+        }
+        finally {
+          _reply.recycle();
+          _data.recycle();
+        }
+        return _result;
+      }
+      @Override public void registerPrivacyProfileObserver(github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver observer) throws android.os.RemoteException
+      {
+        android.os.Parcel _data = android.os.Parcel.obtain();
+        android.os.Parcel _reply = android.os.Parcel.obtain();
+        try {
+          _data.writeInterfaceToken(DESCRIPTOR);
+          _data.writeStrongBinder((((observer!=null))?(observer.asBinder()):(null)));
+          boolean _status = mRemote.transact(Stub.TRANSACTION_registerPrivacyProfileObserver, _data, _reply, 0);
+          if (!_status && getDefaultImpl() != null) {
+            getDefaultImpl().registerPrivacyProfileObserver(observer);
+            return;
+          }
+          _reply.readException();
+        }
+        finally {
+          _reply.recycle();
+          _data.recycle();
+        }
+      }
+      @Override public void unRegisterPrivacyProfileObserver(github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver observer) throws android.os.RemoteException
+      {
+        android.os.Parcel _data = android.os.Parcel.obtain();
+        android.os.Parcel _reply = android.os.Parcel.obtain();
+        try {
+          _data.writeInterfaceToken(DESCRIPTOR);
+          _data.writeStrongBinder((((observer!=null))?(observer.asBinder()):(null)));
+          boolean _status = mRemote.transact(Stub.TRANSACTION_unRegisterPrivacyProfileObserver, _data, _reply, 0);
+          if (!_status && getDefaultImpl() != null) {
+            getDefaultImpl().unRegisterPrivacyProfileObserver(observer);
+            return;
+          }
+          _reply.readException();
+        }
+        finally {
+          _reply.recycle();
+          _data.recycle();
+        }
+      }
       public static github.tornaco.android.thanos.core.secure.IPrivacyManager sDefaultImpl;
     }
     static final int TRANSACTION_isPrivacyEnabled = (android.os.IBinder.FIRST_CALL_TRANSACTION + 0);
@@ -1145,6 +1253,9 @@ public interface IPrivacyManager extends android.os.IInterface
     static final int TRANSACTION_setPrivacyNotificationEnabled = (android.os.IBinder.FIRST_CALL_TRANSACTION + 27);
     static final int TRANSACTION_getPhoneCount = (android.os.IBinder.FIRST_CALL_TRANSACTION + 28);
     static final int TRANSACTION_getAccessibleSubscriptionInfoList = (android.os.IBinder.FIRST_CALL_TRANSACTION + 29);
+    static final int TRANSACTION_getPrivacyProfileForPkg = (android.os.IBinder.FIRST_CALL_TRANSACTION + 30);
+    static final int TRANSACTION_registerPrivacyProfileObserver = (android.os.IBinder.FIRST_CALL_TRANSACTION + 31);
+    static final int TRANSACTION_unRegisterPrivacyProfileObserver = (android.os.IBinder.FIRST_CALL_TRANSACTION + 32);
     public static boolean setDefaultImpl(github.tornaco.android.thanos.core.secure.IPrivacyManager impl) {
       if (Stub.Proxy.sDefaultImpl == null && impl != null) {
         Stub.Proxy.sDefaultImpl = impl;
@@ -1186,4 +1297,7 @@ public interface IPrivacyManager extends android.os.IInterface
   public void setPrivacyNotificationEnabled(boolean enabled) throws android.os.RemoteException;
   public int getPhoneCount() throws android.os.RemoteException;
   public android.telephony.SubscriptionInfo[] getAccessibleSubscriptionInfoList() throws android.os.RemoteException;
+  public github.tornaco.android.thanos.core.secure.PrivacyProfile getPrivacyProfileForPkg(java.lang.String pkg) throws android.os.RemoteException;
+  public void registerPrivacyProfileObserver(github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver observer) throws android.os.RemoteException;
+  public void unRegisterPrivacyProfileObserver(github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver observer) throws android.os.RemoteException;
 }
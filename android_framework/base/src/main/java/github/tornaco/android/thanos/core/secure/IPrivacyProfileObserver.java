@@ -0,0 +1,116 @@
+/*
+ * This file is auto-generated.  DO NOT MODIFY.
+ */
+package github.tornaco.android.thanos.core.secure;
+public interface IPrivacyProfileObserver extends android.os.IInterface
+{
+  /** Default implementation for IPrivacyProfileObserver. */
+  public static class Default implements github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver
+  {
+    @Override public void onPrivacyProfileChanged(java.lang.String pkg) throws android.os.RemoteException
+    {
+    }
+    @Override
+    public android.os.IBinder asBinder() {
+      return null;
+    }
+  }
+  /** Local-side IPC implementation stub class. */
+  public static abstract class Stub extends android.os.Binder implements github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver
+  {
+    private static final java.lang.String DESCRIPTOR = "github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver";
+    /** Construct the stub at attach it to the interface. */
+    public Stub()
+    {
+      this.attachInterface(this, DESCRIPTOR);
+    }
+    /**
+     * Cast an IBinder object into an github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver interface,
+     * generating a proxy if needed.
+     */
+    public static github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver asInterface(android.os.IBinder obj)
+    {
+      if ((obj==null)) {
+        return null;
+      }
+      android.os.IInterface iin = obj.queryLocalInterface(DESCRIPTOR);
+      if (((iin!=null)&&(iin instanceof github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver))) {
+        return ((github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver)iin);
+      }
+      return new github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver.Stub.Proxy(obj);
+    }
+    @Override public android.os.IBinder asBinder()
+    {
+      return this;
+    }
+    @Override public boolean onTransact(int code, android.os.Parcel data, android.os.Parcel reply, int flags) throws android.os.RemoteException
+    {
+      java.lang.String descriptor = DESCRIPTOR;
+      switch (code)
+      {
+        case INTERFACE_TRANSACTION:
+        {
+          reply.writeString(descriptor);
+          return true;
+        }
+        case TRANSACTION_onPrivacyProfileChanged:
+        {
+          data.enforceInterface(descriptor);
+          java.lang.String _arg0;
+          _arg0 = data.readString();
+          this.onPrivacyProfileChanged(_arg0);
+          return true;
+        }
+        default:
+        {
+          return super.onTransact(code, data, reply, flags);
+        }
+      }
+    }
+    private static class Proxy implements github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver
+    {
+      private android.os.IBinder mRemote;
+      Proxy(android.os.IBinder remote)
+      {
+        mRemote = remote;
+      }
+      @Override public android.os.IBinder asBinder()
+      {
+        return mRemote;
+      }
+      public java.lang.String getInterfaceDescriptor()
+      {
+        return DESCRIPTOR;
+      }
+      @Override public void onPrivacyProfileChanged(java.lang.String pkg) throws android.os.RemoteException
+      {
+        android.os.Parcel _data = android.os.Parcel.obtain();
+        try {
+          _data.writeInterfaceToken(DESCRIPTOR);
+          _data.writeString(pkg);
+          boolean _status = mRemote.transact(Stub.TRANSACTION_onPrivacyProfileChanged, _data, null, android.os.IBinder.FLAG_ONEWAY);
+          if (!_status && getDefaultImpl() != null) {
+            getDefaultImpl().onPrivacyProfileChanged(pkg);
+            return;
+          }
+        }
+        finally {
+          _data.recycle();
+        }
+      }
+      public static github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver sDefaultImpl;
+    }
+    static final int TRANSACTION_onPrivacyProfileChanged = (android.os.IBinder.FIRST_CALL_TRANSACTION + 0);
+    public static boolean setDefaultImpl(github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver impl) {
+      if (Stub.Proxy.sDefaultImpl == null && impl != null) {
+        Stub.Proxy.sDefaultImpl = impl;
+        return true;
+      }
+      return false;
+    }
+    public static github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver getDefaultImpl() {
+      return Stub.Proxy.sDefaultImpl;
+    }
+  }
+  public void onPrivacyProfileChanged(java.lang.String pkg) throws android.os.RemoteException;
+}
@@ -159,4 +159,19 @@ public class PrivacyManager {
     public SubscriptionInfo[] getAccessibleSubscriptionInfoList() {
         return server.getAccessibleSubscriptionInfoList();
     }
+
+    @SneakyThrows
+    public PrivacyProfile getPrivacyProfileForPkg(String pkg) {
+        return server.getPrivacyProfileForPkg(pkg);
+    }
+
+    @SneakyThrows
+    public void registerPrivacyProfileObserver(IPrivacyProfileObserver observer) {
+        server.registerPrivacyProfileObserver(observer);
+    }
+
+    @SneakyThrows
+    public void unRegisterPrivacyProfileObserver(IPrivacyProfileObserver observer) {
+        server.unRegisterPrivacyProfileObserver(observer);
+    }
 }
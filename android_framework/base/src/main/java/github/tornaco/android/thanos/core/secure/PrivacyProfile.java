@@ -0,0 +1,85 @@
+package github.tornaco.android.thanos.core.secure;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Resolved privacy decision of one package, all a telephony hook needs in one parcel.
+ * Values are cheated ones, with the "*" fallback already applied, null if none set.
+ */
+@Getter
+@AllArgsConstructor
+@Builder
+@ToString
+public final class PrivacyProfile implements Parcelable {
+
+    /**
+     * Slots of a profile, a phone has no more than this.
+     */
+    public static final int MAX_SLOT_COUNT = 4;
+
+    // Privacy enabled and this package is cheated.
+    private boolean cheat;
+    private String deviceId;
+    private String line1Number;
+    private String simSerialNumber;
+    private String androidId;
+    // By slot index.
+    private String[] imei;
+    private String[] meid;
+
+    private PrivacyProfile(Parcel in) {
+        cheat = in.readInt() != 0;
+        deviceId = in.readString();
+        line1Number = in.readString();
+        simSerialNumber = in.readString();
+        androidId = in.readString();
+        imei = in.createStringArray();
+        meid = in.createStringArray();
+    }
+
+    public static final Creator<PrivacyProfile> CREATOR = new Creator<PrivacyProfile>() {
+        @Override
+        public PrivacyProfile createFromParcel(Parcel in) {
+            return new PrivacyProfile(in);
+        }
+
+        @Override
+        public PrivacyProfile[] newArray(int size) {
+            return new PrivacyProfile[size];
+        }
+    };
+
+    public String getImei(int slotIndex) {
+        return slotValue(imei, slotIndex);
+    }
+
+    public String getMeid(int slotIndex) {
+        return slotValue(meid, slotIndex);
+    }
+
+    private static String slotValue(String[] values, int slotIndex) {
+        return values == null || slotIndex < 0 || slotIndex >= values.length ? null : values[slotIndex];
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int i) {
+        parcel.writeInt(cheat ? 1 : 0);
+        parcel.writeString(deviceId);
+        parcel.writeString(line1Number);
+        parcel.writeString(simSerialNumber);
+        parcel.writeString(androidId);
+        parcel.writeStringArray(imei);
+        parcel.writeStringArray(meid);
+    }
+}
@@ -78,6 +78,16 @@ public class PkgUtils {
         }
     }
 
+    public static List<PackageInfo> getInstalledPackages(Context context) {
+        val pm = context.getPackageManager();
+        if (OsUtils.isNOrAbove()) {
+            return pm.getInstalledPackages(PackageManager.MATCH_UNINSTALLED_PACKAGES);
+
+        } else {
+            return pm.getInstalledPackages(PackageManager.GET_UNINSTALLED_PACKAGES);
+        }
+    }
+
     public static String getPathForPackage(Context context, String pkg) {
         PackageManager pm = context.getPackageManager();
         try {
@@ -85,16 +85,24 @@ public class AMSStartProcessLockedRegistryO implements IXposedHook {
                                     .checkStartProcess(info, hostType, hostName);
                             if (!res) {
                                 param.setResult(null);
-                            } else {
-                                ProcessRecord pr = ProcessRecordUtils.fromLegacy(processRecord);
-                                if (processRecord == null) {
-                                    return;
-                                }
-                                BootStrap.THANOS_X.getActivityManagerService().onStartProcessLocked(pr);
                             }
                         }
                     }
                 }
+
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    super.afterHookedMethod(param);
+                    // Returns nothing, a pid is assigned when the process is started.
+                    if (param.hasThrowable()) return;
+                    Object processRecord = param.args[0];
+                    if (processRecord == null || XposedHelpers.getIntField(processRecord, "pid") <= 0) return;
+                    ProcessRecord pr = ProcessRecordUtils.fromLegacy(processRecord);
+                    if (pr == null) {
+                        return;
+                    }
+                    BootStrap.THANOS_X.getActivityManagerService().onStartProcessLocked(pr);
+                }
             });
             Timber.i("hookStartProcessLocked OK:" + unHooks);
         } catch (Exception e) {
@@ -85,16 +85,23 @@ public class AMSStartProcessLockedRegistryP implements IXposedHook {
                                 // P require a boolean value
                                 // @return {@code true} if process start is successful, false otherwise.
                                 param.setResult(false);
-                            } else {
-                                ProcessRecord pr = ProcessRecordUtils.fromLegacy(processRecord);
-                                if (processRecord == null) {
-                                    return;
-                                }
-                                BootStrap.THANOS_X.getActivityManagerService().onStartProcessLocked(pr);
                             }
                         }
                     }
                 }
+
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    super.afterHookedMethod(param);
+                    // Blocked by us or failed to start, nothing to index.
+                    if (param.hasThrowable() || !Boolean.TRUE.equals(param.getResult())) return;
+                    Object processRecord = param.args[0];
+                    ProcessRecord pr = ProcessRecordUtils.fromLegacy(processRecord);
+                    if (pr == null) {
+                        return;
+                    }
+                    BootStrap.THANOS_X.getActivityManagerService().onStartProcessLocked(pr);
+                }
             });
             Timber.i("hookStartProcessLocked OK:" + unHooks);
         } catch (Exception e) {
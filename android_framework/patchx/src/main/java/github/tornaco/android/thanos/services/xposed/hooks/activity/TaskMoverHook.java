@@ -6,11 +6,13 @@ import android.content.Intent;
 import android.util.Log;
 import de.robv.android.xposed.*;
 import de.robv.android.xposed.callbacks.XC_LoadPackage;
+import github.tornaco.android.thanos.core.app.IActivityManager;
 import github.tornaco.android.thanos.core.app.activity.IActivityStackSupervisor;
 import github.tornaco.android.thanos.core.app.activity.IVerifyCallback;
 import github.tornaco.android.thanos.core.app.activity.VerifyResult;
 import github.tornaco.android.thanos.core.pm.PackageManager;
 import github.tornaco.android.thanos.core.util.Timber;
+import github.tornaco.android.thanos.services.BootStrap;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
@@ -27,6 +29,8 @@ class TaskMoverHook implements IXposedHookLoadPackage, IXposedHookZygoteInit {
     @Getter
     private IActivityStackSupervisor verifier;
 
+    private final IActivityManager activityManager = BootStrap.THANOS_X.getActivityManagerService();
+
     @Override
     public void handleLoadPackage(XC_LoadPackage.LoadPackageParam lpparam) throws Throwable {
         if (PackageManager.packageNameOfAndroid().equals(lpparam.packageName)) {
@@ -54,6 +58,10 @@ class TaskMoverHook implements IXposedHookLoadPackage, IXposedHookZygoteInit {
                         pkgName = componentName.getPackageName();
                         Timber.v("findTaskToMoveToFrontLocked:" + pkgName);
 
+                        // Re-entered from recents, no task created for it, restored at boot for example.
+                        int taskId = XposedHelpers.getIntField(param.args[0], "taskId");
+                        activityManager.notifyTaskCreated(taskId, componentName);
+
                         Intent intent = new Intent();
                         intent.setComponent(componentName);
                         intent.setPackage(pkgName);
@@ -0,0 +1,84 @@
+package github.tornaco.android.thanos.services.xposed.hooks.privacy;
+
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import github.tornaco.android.thanos.core.IThanos;
+import github.tornaco.android.thanos.core.app.ThanosManagerNative;
+import github.tornaco.android.thanos.core.secure.IPrivacyManager;
+import github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver;
+import github.tornaco.android.thanos.core.secure.PrivacyProfile;
+import github.tornaco.android.thanos.core.util.Timber;
+
+/**
+ * Privacy profiles of the packages running in this app process.
+ * <p>
+ * A miss costs one IPC for the whole profile, then every privacy hook answers locally
+ * until privacy service pushes a change for the package.
+ */
+class PrivacyProfileCache {
+
+    private static final Map<String, PrivacyProfile> profiles = new ConcurrentHashMap<>();
+    // Bumped on every change push, a profile fetched across a push is not kept.
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    private static volatile boolean observerRegistered = false;
+
+    private static final IPrivacyProfileObserver.Stub observer = new IPrivacyProfileObserver.Stub() {
+        @Override
+        public void onPrivacyProfileChanged(String pkg) {
+            generation.incrementAndGet();
+            if (pkg == null) {
+                profiles.clear();
+            } else {
+                profiles.remove(pkg);
+            }
+        }
+    };
+
+    /**
+     * @return null if thanox is not ready.
+     */
+    static PrivacyProfile get(String pkg) {
+        PrivacyProfile profile = profiles.get(pkg);
+        if (profile != null) {
+            return profile;
+        }
+        try {
+            IThanos thanos = ThanosManagerNative.getDefault();
+            if (thanos == null) return null;
+            IPrivacyManager priv = thanos.getPrivacyManager();
+            if (priv == null) return null;
+            if (!ensureObserverRegistered(priv)) {
+                // Can not be told about changes, do not cache.
+                return priv.getPrivacyProfileForPkg(pkg);
+            }
+            int gen = generation.get();
+            profile = priv.getPrivacyProfileForPkg(pkg);
+            if (profile != null && gen == generation.get()) {
+                profiles.put(pkg, profile);
+            }
+            return profile;
+        } catch (Throwable e) {
+            Timber.e("PrivacyProfileCache fail get profile: " + Log.getStackTraceString(e));
+            return null;
+        }
+    }
+
+    private static boolean ensureObserverRegistered(IPrivacyManager priv) {
+        if (observerRegistered) return true;
+        synchronized (PrivacyProfileCache.class) {
+            if (observerRegistered) return true;
+            try {
+                priv.registerPrivacyProfileObserver(observer);
+                observerRegistered = true;
+            } catch (Throwable e) {
+                Timber.e("PrivacyProfileCache fail register observer: " + Log.getStackTraceString(e));
+            }
+            return observerRegistered;
+        }
+    }
+}
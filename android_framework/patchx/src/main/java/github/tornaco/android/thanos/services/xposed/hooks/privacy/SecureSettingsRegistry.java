@@ -10,9 +10,8 @@ import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 import de.robv.android.xposed.callbacks.XC_LoadPackage;
-import github.tornaco.android.thanos.core.IThanos;
-import github.tornaco.android.thanos.core.app.ThanosManagerNative;
 import github.tornaco.android.thanos.core.pm.PackageManager;
+import github.tornaco.android.thanos.core.secure.PrivacyProfile;
 import github.tornaco.android.thanos.core.util.Timber;
 import github.tornaco.android.thanos.services.BootStrap;
 import github.tornaco.android.thanos.services.apihint.Beta;
@@ -54,10 +53,6 @@ public class SecureSettingsRegistry implements IXposedHook {
                             String name = String.valueOf(param.args[1]);
                             if (Settings.Secure.ANDROID_ID.equals(name)) {
                                 // Use of defined id.
-                                IThanos thanox = ThanosManagerNative.getDefault();
-                                if (thanox == null) return;
-                                if (!thanox.getPrivacyManager().isPrivacyEnabled()) return;
-
                                 String pkgName = AndroidAppHelper.currentPackageName();
                                 if (pkgName == null) return;
 
@@ -75,13 +70,14 @@ public class SecureSettingsRegistry implements IXposedHook {
                                     return;
                                 }
 
-                                if (!thanox.getPrivacyManager().isPkgPrivacyDataCheat(pkgName)) {
+                                PrivacyProfile profile = PrivacyProfileCache.get(pkgName);
+                                if (profile == null || !profile.isCheat()) {
                                     return;
                                 }
                                 if (!BootStrap.IS_RELEASE_BUILD) {
                                     Log.v(XposedLogger.LOG_PREFIX, "Will handle get ANDROID_ID, pkg:" + pkgName);
                                 }
-                                String androidId = thanox.getPrivacyManager().getCheatedAndroidIdForPkg(pkgName);
+                                String androidId = profile.getAndroidId();
                                 if (!BootStrap.IS_RELEASE_BUILD) {
                                     Log.w(XposedLogger.LOG_PREFIX, "Using user defined ANDROID_ID: " + pkgName + " for: " + pkgName);
                                 }
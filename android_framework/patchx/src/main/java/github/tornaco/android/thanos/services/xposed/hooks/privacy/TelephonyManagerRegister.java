@@ -11,9 +11,7 @@ import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 import de.robv.android.xposed.callbacks.XC_LoadPackage;
 import github.tornaco.android.thanos.BuildProp;
-import github.tornaco.android.thanos.core.IThanos;
-import github.tornaco.android.thanos.core.app.ThanosManagerNative;
-import github.tornaco.android.thanos.core.secure.IPrivacyManager;
+import github.tornaco.android.thanos.core.secure.PrivacyProfile;
 import github.tornaco.android.thanos.core.util.Timber;
 import github.tornaco.android.thanos.services.FeatureManager;
 import github.tornaco.android.thanos.services.apihint.Beta;
@@ -71,16 +69,10 @@ public class TelephonyManagerRegister implements IXposedHook {
 
                             if (callPackageName == null) return;
 
-                            IThanos thanos = ThanosManagerNative.getDefault();
-                            if (thanos == null) return;
-                            IPrivacyManager priv = thanos.getPrivacyManager();
-                            if (priv == null) return;
-                            if (!priv.isPrivacyEnabled()) return;
+                            PrivacyProfile profile = PrivacyProfileCache.get(callPackageName);
+                            if (profile == null || !profile.isCheat()) return;
 
-                            boolean enabledUid = priv.isPkgPrivacyDataCheat(callPackageName);
-                            if (!enabledUid) return;
-
-                            param.setResult(priv.getCheatedDeviceIdForPkg(callPackageName));
+                            param.setResult(profile.getDeviceId());
                         }
                     });
             Timber.d("TelephonyManagerRegister hookTelephonyManagerGetDeviceId OK:" + unHooks);
@@ -105,16 +97,10 @@ public class TelephonyManagerRegister implements IXposedHook {
 
                             if (callPackageName == null) return;
 
-                            IThanos thanos = ThanosManagerNative.getDefault();
-                            if (thanos == null) return;
-                            IPrivacyManager priv = thanos.getPrivacyManager();
-                            if (priv == null) return;
-                            if (!priv.isPrivacyEnabled()) return;
-
-                            boolean enabledUid = priv.isPkgPrivacyDataCheat(callPackageName);
-                            if (!enabledUid) return;
+                            PrivacyProfile profile = PrivacyProfileCache.get(callPackageName);
+                            if (profile == null || !profile.isCheat()) return;
 
-                            param.setResult(priv.getCheatedLine1NumberForPkg(callPackageName));
+                            param.setResult(profile.getLine1Number());
 
                         }
                     });
@@ -141,16 +127,10 @@ public class TelephonyManagerRegister implements IXposedHook {
 
                             if (callPackageName == null) return;
 
-                            IThanos thanos = ThanosManagerNative.getDefault();
-                            if (thanos == null) return;
-                            IPrivacyManager priv = thanos.getPrivacyManager();
-                            if (priv == null) return;
-                            if (!priv.isPrivacyEnabled()) return;
-
-                            boolean enabledUid = priv.isPkgPrivacyDataCheat(callPackageName);
-                            if (!enabledUid) return;
+                            PrivacyProfile profile = PrivacyProfileCache.get(callPackageName);
+                            if (profile == null || !profile.isCheat()) return;
 
-                            param.setResult(priv.getCheatedSimSerialNumberForPkg(callPackageName));
+                            param.setResult(profile.getSimSerialNumber());
                         }
                     });
             Timber.d("TelephonyManagerRegister hookTelephonyManagerGetSimSerial OK:" + unHooks);
@@ -177,16 +157,10 @@ public class TelephonyManagerRegister implements IXposedHook {
 
                     if (callPackageName == null) return;
 
-                    IThanos thanos = ThanosManagerNative.getDefault();
-                    if (thanos == null) return;
-                    IPrivacyManager priv = thanos.getPrivacyManager();
-                    if (priv == null) return;
-                    if (!priv.isPrivacyEnabled()) return;
+                    PrivacyProfile profile = PrivacyProfileCache.get(callPackageName);
+                    if (profile == null || !profile.isCheat()) return;
 
-                    boolean enabledUid = priv.isPkgPrivacyDataCheat(callPackageName);
-                    if (!enabledUid) return;
-
-                    String res = priv.getCheatedImeiForPkg(callPackageName, slotIndex);
+                    String res = profile.getImei(slotIndex);
                     Timber.w("getImei: %s, index: %s, using value: %s", callPackageName, slotIndex, res);
                     param.setResult(res);
 
@@ -216,16 +190,10 @@ public class TelephonyManagerRegister implements IXposedHook {
 
                     if (callPackageName == null) return;
 
-                    IThanos thanos = ThanosManagerNative.getDefault();
-                    if (thanos == null) return;
-                    IPrivacyManager priv = thanos.getPrivacyManager();
-                    if (priv == null) return;
-                    if (!priv.isPrivacyEnabled()) return;
-
-                    boolean enabledUid = priv.isPkgPrivacyDataCheat(callPackageName);
-                    if (!enabledUid) return;
+                    PrivacyProfile profile = PrivacyProfileCache.get(callPackageName);
+                    if (profile == null || !profile.isCheat()) return;
 
-                    String res = priv.getCheatedMeidForPkg(callPackageName, slotIndex);
+                    String res = profile.getMeid(slotIndex);
                     Timber.w("getMeid: %s, index: %s, using value: %s", callPackageName, slotIndex, res);
                     param.setResult(res);
 
@@ -146,7 +146,7 @@ internal class ThanosServiceStub(
 
     override fun dump(fd: FileDescriptor?, fout: PrintWriter?, args: Array<out String>?) {
         super.dump(fd, fout, args)
-        ThanosShellCommand(this).dump(fd, fout, args)
+        ThanosShellCommand(this, priv).dump(fd, fout, args)
     }
 
     override fun setLoggingEnabled(enable: Boolean) {
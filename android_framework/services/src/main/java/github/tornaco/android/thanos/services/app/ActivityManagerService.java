@@ -1,12 +1,10 @@
 package github.tornaco.android.thanos.services.app;
 
-import android.annotation.TargetApi;
 import android.app.ActivityManager;
 import android.app.ActivityManagerNative;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
-import android.app.usage.IUsageStatsManager;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
@@ -14,12 +12,10 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.os.Binder;
-import android.os.Build;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.Process;
 import android.os.RemoteException;
-import android.os.ServiceManager;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.text.TextUtils;
@@ -34,8 +30,8 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -50,18 +46,19 @@ import github.tornaco.android.thanos.core.annotation.NonNull;
 import github.tornaco.android.thanos.core.annotation.Nullable;
 import github.tornaco.android.thanos.core.app.AppResources;
 import github.tornaco.android.thanos.core.app.IActivityManager;
+import github.tornaco.android.thanos.core.app.PkgPolicySnapshot;
 import github.tornaco.android.thanos.core.app.event.IEventSubscriber;
 import github.tornaco.android.thanos.core.app.event.ThanosEvent;
 import github.tornaco.android.thanos.core.app.start.StartReason;
 import github.tornaco.android.thanos.core.app.start.StartRecord;
 import github.tornaco.android.thanos.core.app.start.StartResult;
-import github.tornaco.android.thanos.core.app.start.StartResultExt;
 import github.tornaco.android.thanos.core.compat.NotificationCompat;
 import github.tornaco.android.thanos.core.compat.NotificationManagerCompat;
 import github.tornaco.android.thanos.core.persist.RepoFactory;
 import github.tornaco.android.thanos.core.persist.i.MapRepo;
 import github.tornaco.android.thanos.core.persist.i.SetRepo;
-import github.tornaco.android.thanos.core.pref.IPrefChangeListener;
+import github.tornaco.android.thanos.core.pm.AppInfo;
+import github.tornaco.android.thanos.core.pref.IPrefValueChangeListener;
 import github.tornaco.android.thanos.core.process.ProcessRecord;
 import github.tornaco.android.thanos.core.util.ArrayUtils;
 import github.tornaco.android.thanos.core.util.DateUtils;
@@ -89,8 +86,6 @@ import github.tornaco.android.thanos.services.perf.PreferenceManagerService;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
-import io.reactivex.SingleOnSubscribe;
-import io.reactivex.SingleTransformer;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.functions.Predicate;
 import io.reactivex.schedulers.Schedulers;
@@ -113,6 +108,13 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
 
     private final ProcessStartCheckHelper processStartCheckHelper = new ProcessStartCheckHelper();
 
+    private final RunningProcessIndex runningProcessIndex = new RunningProcessIndex();
+
+    private final AppIdleStateCache appIdleStateCache = new AppIdleStateCache();
+
+    private final BgTaskCleanUpCandidates bgTaskCleanUpCandidates
+            = new BgTaskCleanUpCandidates(this::isBgTaskCleanUpCandidate);
+
     @Getter
     private final TaskMapping taskMapping;
     @Getter
@@ -143,8 +145,7 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
     private Set<String> startBlockCallerWhiteList = new HashSet<>();
     private Set<String> taskRemovalMultipleTaskCheckList = new HashSet<>();
 
-    // Last recent used 5 apps.
-    private final LinkedList<AppLaunchRecord> appLaunchRecords = new LinkedList<>();
+    private final AppLaunchHistory appLaunchHistory = new AppLaunchHistory();
 
     private final IEventSubscriber thanosEventsSubscriber = new IEventSubscriber.Stub() {
         @Override
@@ -206,6 +207,8 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
 
         initPrefs();
         registerReceivers();
+        executeInternal(this::reconcileRunningProcessIndex);
+        executeInternal(() -> taskMapping.seed(getContext()));
     }
 
     @Override
@@ -325,15 +328,58 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
 
     private void listenToPrefs() {
         PreferenceManagerService preferenceManagerService = s.getPreferenceManagerService();
-        preferenceManagerService.registerSettingsChangeListener(new IPrefChangeListener.Stub() {
+        String[] keys = new String[]{
+                T.Settings.PREF_START_BLOCKER_ENABLED.getKey(),
+                T.Settings.PREF_CLEAN_UP_ON_TASK_REMOVED.getKey(),
+                T.Settings.PREF_BG_RESTRICT_ENABLED.getKey(),
+                T.Settings.PREF_SHOW_BG_RESTRICT_APPS_NOTIFICATION_ENABLED.getKey(),
+                T.Settings.PREF_BG_TASK_CLEAN_UP_SKIP_AUDIO_FOCUSED.getKey(),
+                T.Settings.PREF_BG_TASK_CLEAN_UP_SKIP_NOTIFICATION.getKey(),
+                T.Settings.PREF_BG_TASK_CLEAN_UP_DELAY_MILLS.getKey(),
+                T.Settings.PREF_BG_TASK_CLEAN_UP_SKIP_WHEN_HAS_RECENT_TASK.getKey(),
+                T.Settings.PREF_RECENT_TASK_BLUR_ENABLED.getKey(),
+                T.Settings.PREF_SMART_STANDBY_ENABLED.getKey()
+        };
+        preferenceManagerService.registerSettingsValueChangeListener(keys, new IPrefValueChangeListener.Stub() {
             @Override
-            public void onPrefChanged(String key) {
-                Timber.i("Pref changed: %s, reload.", key);
-                readPrefs();
+            public void onPrefValueChanged(String key, String value) {
+                Timber.i("Pref changed: %s, value: %s", key, value);
+                applyPrefValue(key, value);
             }
         });
     }
 
+    private void applyPrefValue(String key, String value) {
+        if (T.Settings.PREF_START_BLOCKER_ENABLED.getKey().equals(key)) {
+            this.startBlockerEnabled = T.Settings.PREF_START_BLOCKER_ENABLED.parse(value);
+        } else if (T.Settings.PREF_CLEAN_UP_ON_TASK_REMOVED.getKey().equals(key)) {
+            this.cleanUpOnTaskRemovalEnabled = T.Settings.PREF_CLEAN_UP_ON_TASK_REMOVED.parse(value);
+        } else if (T.Settings.PREF_BG_RESTRICT_ENABLED.getKey().equals(key)) {
+            this.bgRestrictEnabled = T.Settings.PREF_BG_RESTRICT_ENABLED.parse(value);
+        } else if (T.Settings.PREF_SHOW_BG_RESTRICT_APPS_NOTIFICATION_ENABLED.getKey().equals(key)) {
+            this.bgRestrictNotificationEnabled = T.Settings.PREF_SHOW_BG_RESTRICT_APPS_NOTIFICATION_ENABLED.parse(value);
+        } else if (T.Settings.PREF_BG_TASK_CLEAN_UP_SKIP_AUDIO_FOCUSED.getKey().equals(key)) {
+            this.bgTaskCleanUpSkipAudioFocused = T.Settings.PREF_BG_TASK_CLEAN_UP_SKIP_AUDIO_FOCUSED.parse(value);
+            invalidateBgTaskCleanUpCandidates();
+        } else if (T.Settings.PREF_BG_TASK_CLEAN_UP_SKIP_NOTIFICATION.getKey().equals(key)) {
+            this.bgTaskCleanUpSkipNotificationFocused = T.Settings.PREF_BG_TASK_CLEAN_UP_SKIP_NOTIFICATION.parse(value);
+            invalidateBgTaskCleanUpCandidates();
+        } else if (T.Settings.PREF_BG_TASK_CLEAN_UP_DELAY_MILLS.getKey().equals(key)) {
+            this.bgTaskCleanUpDelayMills = T.Settings.PREF_BG_TASK_CLEAN_UP_DELAY_MILLS.parse(value);
+        } else if (T.Settings.PREF_BG_TASK_CLEAN_UP_SKIP_WHEN_HAS_RECENT_TASK.getKey().equals(key)) {
+            this.bgTaskCleanUpSkipWhenHasRecentTask = T.Settings.PREF_BG_TASK_CLEAN_UP_SKIP_WHEN_HAS_RECENT_TASK.parse(value);
+            invalidateBgTaskCleanUpCandidates();
+        } else if (T.Settings.PREF_RECENT_TASK_BLUR_ENABLED.getKey().equals(key)) {
+            this.recentTaskBlurEnabled = T.Settings.PREF_RECENT_TASK_BLUR_ENABLED.parse(value);
+        } else if (T.Settings.PREF_SMART_STANDBY_ENABLED.getKey().equals(key)) {
+            this.smartStandByEnabled = T.Settings.PREF_SMART_STANDBY_ENABLED.parse(value);
+        }
+    }
+
+    private void invalidateBgTaskCleanUpCandidates() {
+        executeInternal(() -> bgTaskCleanUpCandidates.invalidate(runningProcessIndex.getRunningPackages(null)));
+    }
+
     @Override
     public boolean checkBroadcastingIntent(Intent intent) {
         Completable.fromRunnable(() -> publishEventToSubscribersAsync(new ThanosEvent(intent)))
@@ -344,262 +390,283 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
 
     @Override
     public boolean checkService(final Intent intent, ComponentName service, int callerUid) {
+        if (service == null) return StartResult.BY_PASS_BAD_ARGS.res;
+        final String servicePkg = service.getPackageName();
         String[] callerPkgNameArr = s.getPkgManagerService().getPkgNameForUid(callerUid);
         String callerPkgName = ArrayUtils.isEmpty(callerPkgNameArr) ? null : callerPkgNameArr[0];
-        StartResult res = Single
-                .create((SingleOnSubscribe<StartResultExt>) emitter -> emitter.onSuccess(checkServiceInternal(service, callerPkgName)))
-                .doOnSuccess(startResult -> {
-                    if (startResult.getPackageName() != null) {
-                        Runnable recorder = () -> startRecorder.add(StartRecord.builder()
-                                .packageName(startResult.getPackageName())
-                                .result(startResult.getStartResult())
-                                .method(StartReason.SERVICE)
-                                .requestPayload(service.flattenToString())
-                                .starterPackageName(callerPkgName)
-                                .whenByMills(System.currentTimeMillis())
-                                .checker("checkService")
-                                .build());
-                        Completable.fromRunnable(recorder).subscribeOn(Schedulers.io()).subscribe();
-                    }
-                })
-                .compose(fallbackStartResult())
-                .blockingGet()
-                .getStartResult();
+
+        StartResult res;
+        try {
+            res = checkServiceInternal(servicePkg, callerPkgName);
+        } catch (Throwable e) {
+            Timber.e(e, "checkServiceInternal");
+            res = StartResult.BY_PASS_DEFAULT_THANOS_ERROR;
+        }
+
+        if (!TextUtils.isEmpty(servicePkg)) {
+            startRecorder.add(StartRecord.builder()
+                    .packageName(servicePkg)
+                    .result(res)
+                    .method(StartReason.SERVICE)
+                    .requestPayload(service.flattenToString())
+                    .starterPackageName(callerPkgName)
+                    .whenByMills(System.currentTimeMillis())
+                    .checker("checkService")
+                    .build());
+        }
         return res.res;
     }
 
-    private StartResultExt checkServiceInternal(ComponentName service, String callerPkg) {
-        if (service == null) return new StartResultExt(StartResult.BY_PASS_BAD_ARGS, null);
-
-        final String servicePkg = service.getPackageName();
-        if (TextUtils.isEmpty(servicePkg))
-            return new StartResultExt(StartResult.BY_PASS_BAD_ARGS, null);
+    // Resolved from in-memory tables only, no need to schedule.
+    private StartResult checkServiceInternal(String servicePkg, String callerPkg) {
+        if (TextUtils.isEmpty(servicePkg)) return StartResult.BY_PASS_BAD_ARGS;
 
         // Whitelist.
         if (s.getPkgManagerService().isPkgInWhiteList(servicePkg)) {
-            return new StartResultExt(StartResult.BY_PASS_WHITE_LISTED, servicePkg);
+            return StartResult.BY_PASS_WHITE_LISTED;
         }
 
         if (!TextUtils.isEmpty(callerPkg) && startBlockCallerWhiteList.contains(callerPkg)) {
-            return new StartResultExt(StartResult.BY_PASS_CALLER_WHITE_LISTED, servicePkg);
+            return StartResult.BY_PASS_CALLER_WHITE_LISTED;
         }
 
         // Enabled?
         if (!startBlockerEnabled) {
-            return new StartResultExt(StartResult.BY_PASS_START_BLOCKED_DISABLED, servicePkg);
+            return StartResult.BY_PASS_START_BLOCKED_DISABLED;
         }
 
         // IUI present?
         if (ObjectsUtils.equals(s.getActivityStackSupervisor().getCurrentFrontApp(), servicePkg)) {
-            return new StartResultExt(StartResult.BY_PASS_UI_PRESENT, servicePkg);
+            return StartResult.BY_PASS_UI_PRESENT;
         }
 
         // Has process?
         if (isPackageRunning(servicePkg)) {
-            return new StartResultExt(StartResult.BY_PASS_PROCESS_RUNNING, servicePkg);
+            return StartResult.BY_PASS_PROCESS_RUNNING;
         }
 
         // In list?
         if (startBlockingApps.has(servicePkg)) {
-            return new StartResultExt(StartResult.BLOCKED_IN_BLOCK_LIST, servicePkg);
+            return StartResult.BLOCKED_IN_BLOCK_LIST;
         }
 
-        return new StartResultExt(StartResult.BY_PASS_DEFAULT, servicePkg);
+        return StartResult.BY_PASS_DEFAULT;
     }
 
     @Override
     public boolean checkRestartService(final String packageName, ComponentName service) {
-        StartResult res = Single
-                .create((SingleOnSubscribe<StartResultExt>) emitter -> emitter.onSuccess(checkServiceInternal(service, null)))
-                .doOnSuccess(startResult -> {
-                    if (startResult.getPackageName() != null) {
-                        Runnable recorder = () -> startRecorder.add(StartRecord.builder()
-                                .packageName(startResult.getPackageName())
-                                .result(startResult.getStartResult())
-                                .method(StartReason.RESTART_SERVICE)
-                                .requestPayload(service.flattenToString())
-                                .whenByMills(System.currentTimeMillis())
-                                .checker("checkRestartService")
-                                .build());
-                        Completable.fromRunnable(recorder).subscribeOn(Schedulers.io()).subscribe();
-                    }
-                })
-                .compose(fallbackStartResult())
-                .blockingGet()
-                .getStartResult();
+        if (service == null) return StartResult.BY_PASS_BAD_ARGS.res;
+        final String servicePkg = service.getPackageName();
+
+        StartResult res;
+        try {
+            res = checkServiceInternal(servicePkg, null);
+        } catch (Throwable e) {
+            Timber.e(e, "checkRestartService");
+            res = StartResult.BY_PASS_DEFAULT_THANOS_ERROR;
+        }
+
+        if (!TextUtils.isEmpty(servicePkg)) {
+            startRecorder.add(StartRecord.builder()
+                    .packageName(servicePkg)
+                    .result(res)
+                    .method(StartReason.RESTART_SERVICE)
+                    .requestPayload(service.flattenToString())
+                    .whenByMills(System.currentTimeMillis())
+                    .checker("checkRestartService")
+                    .build());
+        }
         return res.res;
     }
 
     @Override
     public boolean checkBroadcast(final Intent intent, int receiverUid, int callerUid) {
-        StartResult res = Single
-                .create((SingleOnSubscribe<StartResultExt>) emitter -> {
-                    // TODO Just use the first one.
-                    String[] receiverPkgNameArr = s.getPkgManagerService().getPkgNameForUid(receiverUid);
-                    String receiverPkgName = ArrayUtils.isEmpty(receiverPkgNameArr) ? null : receiverPkgNameArr[0];
-                    StartResultExt result = checkBroadcastInternal(intent, receiverUid, receiverPkgName, callerUid);
-                    emitter.onSuccess(result);
-                })
-                .doOnSuccess(startResult -> {
-                    // Logging.
-                    if (startResult.getPackageName() != null) {
-                        Runnable recorder = () -> startRecorder.add(StartRecord.builder()
-                                .packageName(startResult.getPackageName())
-                                .method(StartReason.BROADCAST)
-                                .requestPayload(intent.getAction())
-                                .whenByMills(System.currentTimeMillis())
-                                .result(startResult.getStartResult())
-                                .checker("checkBroadcast")
-                                .build());
-                        Completable.fromRunnable(recorder).subscribeOn(Schedulers.io()).subscribe();
-                    }
-                })
-                .compose(fallbackStartResult())
-                .blockingGet()
-                .getStartResult();
-        return res.res;
-    }
+        // TODO Just use the first one.
+        String[] receiverPkgNameArr = s.getPkgManagerService().getPkgNameForUid(receiverUid);
+        String receiverPkgName = ArrayUtils.isEmpty(receiverPkgNameArr) ? null : receiverPkgNameArr[0];
 
-    private SingleTransformer<StartResultExt, StartResultExt> fallbackStartResult() {
-        return upstream -> upstream.onErrorReturnItem(new StartResultExt(StartResult.BY_PASS_DEFAULT_THANOS_ERROR, null))
-                // Give us 100ms to handle everything.
-                // do not drain too much.
-                .timeout(100, TimeUnit.MILLISECONDS, observer -> observer.onSuccess(new StartResultExt(StartResult.BY_PASS_DEFAULT_THANOS_TIMEOUT, null)));
+        StartResult res;
+        try {
+            res = checkBroadcastInternal(receiverUid, receiverPkgName, callerUid);
+        } catch (Throwable e) {
+            Timber.e(e, "checkBroadcastInternal");
+            res = StartResult.BY_PASS_DEFAULT_THANOS_ERROR;
+        }
+
+        // Logging, same uid and bad args are not interested.
+        if (res != StartResult.BY_PASS_SAME_CALLING_UID && res != StartResult.BY_PASS_BAD_ARGS) {
+            startRecorder.add(StartRecord.builder()
+                    .packageName(receiverPkgName)
+                    .method(StartReason.BROADCAST)
+                    .requestPayload(intent.getAction())
+                    .whenByMills(System.currentTimeMillis())
+                    .result(res)
+                    .checker("checkBroadcast")
+                    .build());
+        }
+        return res.res;
     }
 
-    private StartResultExt checkBroadcastInternal(final Intent intent, int receiverUid, String receiverPkgName, int callerUid) {
-        Timber.v("checkBroadcastInternal: %s %s %s %s", intent, receiverUid, receiverPkgName, callerUid);
+    private StartResult checkBroadcastInternal(int receiverUid, String receiverPkgName, int callerUid) {
         if (receiverUid == callerUid)
-            return new StartResultExt(StartResult.BY_PASS_SAME_CALLING_UID, null);
+            return StartResult.BY_PASS_SAME_CALLING_UID;
 
         if (TextUtils.isEmpty(receiverPkgName))
-            return new StartResultExt(StartResult.BY_PASS_BAD_ARGS, null);
+            return StartResult.BY_PASS_BAD_ARGS;
 
         // Whitelist.
         if (s.getPkgManagerService().isPkgInWhiteList(receiverPkgName)
                 || PkgUtils.isSystemOrPhoneOrShell(receiverUid)) {
-            return new StartResultExt(StartResult.BY_PASS_WHITE_LISTED, receiverPkgName);
+            return StartResult.BY_PASS_WHITE_LISTED;
         }
 
         // Enabled?
         if (!startBlockerEnabled) {
-            return new StartResultExt(StartResult.BY_PASS_START_BLOCKED_DISABLED, receiverPkgName);
+            return StartResult.BY_PASS_START_BLOCKED_DISABLED;
         }
 
         // IUI present?
         if (ObjectsUtils.equals(s.getActivityStackSupervisor().getCurrentFrontApp(), receiverPkgName)) {
-            return new StartResultExt(StartResult.BY_PASS_UI_PRESENT, receiverPkgName);
+            return StartResult.BY_PASS_UI_PRESENT;
         }
 
         // Has process?
         if (isPackageRunning(receiverPkgName)) {
-            return new StartResultExt(StartResult.BY_PASS_PROCESS_RUNNING, receiverPkgName);
-        }
-
-        // Default SMS app.
-        if (PkgUtils.isDefaultSmsApp(getContext(), receiverPkgName)) {
-            return new StartResultExt(StartResult.BY_PASS_SMS_APP, receiverPkgName);
+            return StartResult.BY_PASS_PROCESS_RUNNING;
         }
 
         // In list?
         if (startBlockingApps.has(receiverPkgName)) {
-            return new StartResultExt(StartResult.BLOCKED_IN_BLOCK_LIST, receiverPkgName);
+            // Default SMS app, only ask when we are going to block it.
+            return isDefaultSmsAppWithTimeout(receiverPkgName)
+                    ? StartResult.BY_PASS_SMS_APP
+                    : StartResult.BLOCKED_IN_BLOCK_LIST;
         }
 
-        return new StartResultExt(StartResult.BY_PASS_DEFAULT, receiverPkgName);
+        return StartResult.BY_PASS_DEFAULT;
+    }
+
+    // The only check may go to a foreign service, give it 100ms.
+    private boolean isDefaultSmsAppWithTimeout(String pkg) {
+        return Single
+                .fromCallable(() -> PkgUtils.isDefaultSmsApp(getContext(), pkg))
+                .subscribeOn(Schedulers.io())
+                .onErrorReturnItem(false)
+                // Give us 100ms to handle everything.
+                // do not drain too much.
+                .timeout(100, TimeUnit.MILLISECONDS, Single.just(false))
+                .blockingGet();
     }
 
     public void onProcessRemoved(ProcessRecord record) {
         if (record == null) return;
-        executeInternal(() -> onProcessRemovedInternal(record));
+        // Update index in place, so the next check see it.
+        Set<String> stoppedPkgs = runningProcessIndex.onProcessRemoved(record);
+        executeInternal(() -> onProcessRemovedInternal(record, stoppedPkgs));
     }
 
-    public void onProcessRemovedInternal(ProcessRecord record) {
-        boolean isAppStillRunning = isPackageRunning(record.getPackageName());
-        Timber.v("onProcessRemovedInternal: %s, isAppStillRunning? %s", record, isAppStillRunning);
-        if (!isAppStillRunning) {
-            onPackageStopRunningInternal(record.getPackageName());
+    private void onProcessRemovedInternal(ProcessRecord record, Set<String> stoppedPkgs) {
+        Timber.v("onProcessRemovedInternal: %s, stoppedPkgs: %s", record, stoppedPkgs);
+        for (String pkg : stoppedPkgs) {
+            bgTaskCleanUpCandidates.remove(pkg);
+            onPackageStopRunningInternal(pkg);
         }
     }
 
     private void onPackageStopRunningInternal(String pkgName) {
         Timber.v("onPackageStopRunningInternal: %s", pkgName);
-        taskMapping.removeTasksFromMapForPackage(pkgName);
         // broadcast.
         broadcastPackageStoppedInternal(pkgName);
     }
 
     @Override
     public boolean checkStartProcess(final ApplicationInfo applicationInfo, String hostType, String hostName) {
-        StartResult res = Single
-                .create((SingleOnSubscribe<StartResultExt>) emitter ->
-                        emitter.onSuccess(checkStartProcessInternal(applicationInfo, hostType)))
-                .doOnSuccess(startResult -> {
-                    if (startResult.getPackageName() != null) {
-                        Runnable recorder = () -> startRecorder.add(StartRecord.builder()
-                                .packageName(startResult.getPackageName())
-                                .method(processStartCheckHelper.getStartReasonFromHostType(hostType))
-                                .requestPayload(hostType + "/" + hostName)
-                                .result(startResult.getStartResult())
-                                .whenByMills(System.currentTimeMillis())
-                                .checker("checkStartProcess")
-                                .build());
-                        Completable.fromRunnable(recorder).subscribeOn(Schedulers.io()).subscribe();
-                    }
-                })
-                .compose(fallbackStartResult())
-                .blockingGet()
-                .getStartResult();
+        final String processPackage = applicationInfo.packageName;
+
+        StartResult res;
+        try {
+            res = checkStartProcessInternal(processPackage, hostType);
+        } catch (Throwable e) {
+            Timber.e(e, "checkStartProcessInternal");
+            res = StartResult.BY_PASS_DEFAULT_THANOS_ERROR;
+        }
+
+        if (!TextUtils.isEmpty(processPackage)) {
+            startRecorder.add(StartRecord.builder()
+                    .packageName(processPackage)
+                    .method(processStartCheckHelper.getStartReasonFromHostType(hostType))
+                    .requestPayload(hostType + "/" + hostName)
+                    .result(res)
+                    .whenByMills(System.currentTimeMillis())
+                    .checker("checkStartProcess")
+                    .build());
+        }
         return res.res;
     }
 
-    private StartResultExt checkStartProcessInternal(final ApplicationInfo applicationInfo, String hostType) {
-        String processPackage = applicationInfo.packageName;
-
+    private StartResult checkStartProcessInternal(String processPackage, String hostType) {
         if (TextUtils.isEmpty(processPackage)) {
-            return new StartResultExt(StartResult.BY_PASS_BAD_ARGS, null);
+            return StartResult.BY_PASS_BAD_ARGS;
         }
 
         // Always allow for activity.
         if (!processStartCheckHelper.getProcessCheckType().contains(hostType)) {
-            return new StartResultExt(StartResult.BY_PASS_DEFAULT, processPackage);
+            return StartResult.BY_PASS_DEFAULT;
         }
 
         // Whitelist.
         if (s.getPkgManagerService().isPkgInWhiteList(processPackage)) {
-            return new StartResultExt(StartResult.BY_PASS_WHITE_LISTED, processPackage);
+            return StartResult.BY_PASS_WHITE_LISTED;
         }
 
         // Enabled?
         if (!startBlockerEnabled) {
-            return new StartResultExt(StartResult.BY_PASS_START_BLOCKED_DISABLED, processPackage);
+            return StartResult.BY_PASS_START_BLOCKED_DISABLED;
         }
 
         // IUI present?
         if (ObjectsUtils.equals(s.getActivityStackSupervisor().getCurrentFrontApp(), processPackage)) {
-            return new StartResultExt(StartResult.BY_PASS_UI_PRESENT, processPackage);
+            return StartResult.BY_PASS_UI_PRESENT;
         }
 
         // Has process?
         if (isPackageRunning(processPackage)) {
-            return new StartResultExt(StartResult.BY_PASS_PROCESS_RUNNING, processPackage);
-        }
-
-        // Default SMS app.
-        if (PkgUtils.isDefaultSmsApp(getContext(), processPackage)) {
-            return new StartResultExt(StartResult.BY_PASS_SMS_APP, processPackage);
+            return StartResult.BY_PASS_PROCESS_RUNNING;
         }
 
         // In list?
         if (startBlockingApps.has(processPackage)) {
-            return new StartResultExt(StartResult.BLOCKED_IN_BLOCK_LIST, processPackage);
+            // Default SMS app, only ask when we are going to block it.
+            return isDefaultSmsAppWithTimeout(processPackage)
+                    ? StartResult.BY_PASS_SMS_APP
+                    : StartResult.BLOCKED_IN_BLOCK_LIST;
         }
-        return new StartResultExt(StartResult.BY_PASS_DEFAULT, processPackage);
+        return StartResult.BY_PASS_DEFAULT;
     }
 
     @Override
     public void onStartProcessLocked(ProcessRecord processRecord) {
         Timber.v("onStartProcessLocked, processRecord: %s", processRecord);
+        if (processRecord == null) return;
+        runningProcessIndex.onProcessStarted(processRecord,
+                s.getPkgManagerService().getUidForPkgName(processRecord.getPackageName()));
+        invalidateBgTaskCleanUpCandidate(processRecord.getPackageName());
+    }
+
+    @ExecuteBySystemHandler
+    private void reconcileRunningProcessIndex() {
+        long snapshotTimeMills = System.currentTimeMillis();
+        Set<String> changed = runningProcessIndex.reconcile(getRunningAppProcessLegacy(), snapshotTimeMills,
+                pkgName -> s.getPkgManagerService().getUidForPkgName(pkgName));
+        bgTaskCleanUpCandidates.invalidate(changed);
+    }
+
+    /**
+     * Called when something that decides if the package can be cleaned up changed.
+     */
+    public void invalidateBgTaskCleanUpCandidate(String pkgName) {
+        if (pkgName == null) return;
+        executeInternal(() -> bgTaskCleanUpCandidates.invalidate(pkgName));
     }
 
     private void maybeShowBgRestrictNotification() {
@@ -691,29 +758,7 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
     }
 
     private String[] getRunningAppPackagesFilter(@Nullable Predicate<String> predicate) {
-        boostPriorityForLockedSection();
-        List<String> records = new ArrayList<>();
-        List<ActivityManager.RunningAppProcessInfo> processRecordList = getRunningAppProcessLegacy();
-        CollectionUtils.consumeRemaining(processRecordList, runningAppProcessInfo -> {
-            try {
-                String[] pkgList = runningAppProcessInfo.pkgList;
-                if (!ArrayUtils.isEmpty(pkgList)) {
-                    for (String pkg : pkgList) {
-                        if (pkg != null && !records.contains(pkg) && predicate.test(pkg)) {
-                            records.add(pkg);
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                Timber.e(e);
-            }
-        });
-
-        try {
-            return records.toArray(new String[0]);
-        } finally {
-            resetPriorityAfterLockedSection();
-        }
+        return runningProcessIndex.getRunningPackages(predicate);
     }
 
     @Override
@@ -723,6 +768,10 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
 
     @Override
     public ProcessRecord[] getRunningAppProcessForPackage(String pkgName) {
+        // Pid is not known by the index, but we can skip the IPC if it is not running.
+        if (!runningProcessIndex.isPackageRunning(pkgName)) {
+            return new ProcessRecord[0];
+        }
         boostPriorityForLockedSection();
 
         List<ActivityManager.RunningAppProcessInfo> processRecordList = getRunningAppProcessLegacy();
@@ -747,25 +796,7 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
     }
 
     public boolean hasRunningAppProcessForPackage(String pkgName) {
-        boostPriorityForLockedSection();
-        try {
-            List<ActivityManager.RunningAppProcessInfo> processRecordList = getRunningAppProcessLegacy();
-            if (CollectionUtils.isNullOrEmpty(processRecordList)) {
-                Timber.e("processRecordList not found for pkg: %s", pkgName);
-                return false;
-            }
-
-            for (ActivityManager.RunningAppProcessInfo runningAppProcessInfo : processRecordList) {
-                String[] pkgList = runningAppProcessInfo.pkgList;
-                if (!ArrayUtils.isEmpty(pkgList) && ArrayUtils.contains(pkgList, pkgName)) {
-                    return true;
-                }
-            }
-
-            return false;
-        } finally {
-            resetPriorityAfterLockedSection();
-        }
+        return runningProcessIndex.isPackageRunning(pkgName);
     }
 
     @Override
@@ -836,6 +867,16 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
         return startRecorder.getAllBlockedTimes();
     }
 
+    @Override
+    public long getStartRecordCount(String pkgName, int method, boolean blocked, long fromMills, long toMills) {
+        return startRecorder.getStartRecordCount(pkgName, method, blocked, fromMills, toMills);
+    }
+
+    @Override
+    public String[] getTopBlockedPackages(int limit, long sinceMills) {
+        return startRecorder.getTopBlockedPackages(limit, sinceMills);
+    }
+
     @Override
     public boolean isStartBlockEnabled() {
         return startBlockerEnabled;
@@ -947,6 +988,7 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
         } else {
             this.bgRestrictApps.remove(pkgName);
         }
+        invalidateBgTaskCleanUpCandidate(pkgName);
     }
 
     @Override
@@ -1082,45 +1124,18 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
     @Override
     public String[] getLastRecentUsedPackages(int count) {
         enforceCallingPermissions();
-        List<String> list = new ArrayList<>();
-        for (int i = 0; i < count; i++) {
-            if (i < appLaunchRecords.size()) list.add(appLaunchRecords.get(i).getPkg());
-        }
-        return list.toArray(new String[0]);
+        return appLaunchHistory.getLastRecentUsedPackages(count).toArray(new String[0]);
     }
 
-    @TargetApi(Build.VERSION_CODES.LOLLIPOP_MR1)
     @Override
-    @ExecuteBySystemHandler
     public void idlePackage(String packageName) {
         enforceCallingPermissions();
-        Runnable idle = () -> {
-            IUsageStatsManager usm = IUsageStatsManager.Stub.asInterface(ServiceManager.getService(Context.USAGE_STATS_SERVICE));
-            try {
-                usm.setAppInactive(packageName, true, UserHandle.getUserId(Binder.getCallingUid()));
-                Timber.d("Finish idlePackage: %s", packageName);
-                boolean isIdleNow = isPackageIdle(packageName);
-                Timber.d("Is pkg idle now? %s", isIdleNow);
-            } catch (RemoteException e) {
-                Timber.e(e, "Error calling usm.setAppInactive");
-            }
-        };
-
-        Completable.fromRunnable(idle).subscribeOn(ThanosSchedulers.serverThread()).subscribe();
+        appIdleStateCache.requestIdle(UserHandle.getCallingUserId(), packageName);
     }
 
     @Override
     public boolean isPackageIdle(String packageName) {
-        try {
-            IUsageStatsManager usm = IUsageStatsManager.Stub.asInterface(ServiceManager
-                    .getService(Context.USAGE_STATS_SERVICE));
-            boolean res = usm.isAppInactive(packageName, UserHandle.getUserId(Binder.getCallingUid()));
-            Timber.d("Finish query isAppInactive: %s", packageName);
-            return res;
-        } catch (RemoteException e) {
-            Timber.e(e, "Error call usm.isAppInactive");
-            return false;
-        }
+        return appIdleStateCache.isIdle(UserHandle.getCallingUserId(), packageName);
     }
 
     public void removeTaskForPackage(String pkgName) {
@@ -1158,6 +1173,7 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
                 currentUserId);
         if (intent != null) {
             taskMapping.remove(intent.getComponent());
+            invalidateBgTaskCleanUpCandidate(PkgUtils.packageNameOf(intent));
             onTaskRemoving(PkgUtils.packageNameOf(intent), userId, currentUserId);
         }
     }
@@ -1209,6 +1225,7 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
     public void notifyTaskCreated(int taskId, ComponentName componentName) {
         Timber.v("notifyTaskCreated: taskId: %s, componentName: %s", taskId, componentName);
         DevNull.accept(taskMapping.put(taskId, componentName));
+        if (componentName != null) invalidateBgTaskCleanUpCandidate(componentName.getPackageName());
     }
 
     @Override
@@ -1296,6 +1313,9 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
     private void onScreenOff() {
         Timber.d("Handle screen off.");
 
+        // Fix up the index once before going through the running apps.
+        reconcileRunningProcessIndex();
+
         // Check smart standby apps before clean up.
         doSmartStandByForEnabledPkgsIfNeed("onScreenOff.");
 
@@ -1316,19 +1336,27 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
 
     @ExecuteBySystemHandler
     private void cleanUpBgTasks(boolean onlyWhenIsNotInteractive, long delay, Runnable onComplete) {
-        String[] runningPkgs = getRunningAppPackages();
-        Timber.d("Cleaning up background tasks: %s", Arrays.toString(runningPkgs));
+        PowerManager power = (PowerManager) Objects.requireNonNull(getContext()).getSystemService(Context.POWER_SERVICE);
 
         // Clear previous.
         bgTaskCleanUpDisposable.clear();
 
         bgTaskCleanUpDisposable.add(Observable
-                .fromArray(runningPkgs)
-                .subscribeOn(ThanosSchedulers.serverThread())
-                .observeOn(ThanosSchedulers.serverThread())
-                .delay(Math.max(0, delay), TimeUnit.MILLISECONDS)
-                .distinct()
-                .filter(cleanUpBgTasksFilter(onlyWhenIsNotInteractive))
+                .timer(Math.max(0, delay), TimeUnit.MILLISECONDS, ThanosSchedulers.serverThread())
+                .filter(ignored -> {
+                    if (onlyWhenIsNotInteractive && power.isInteractive()) {
+                        Timber.d("Interactive, ignore clean up");
+                        return false;
+                    }
+                    return true;
+                })
+                // Candidates are kept up to date, take them after the delay.
+                .flatMap(ignored -> {
+                    String[] candidates = bgTaskCleanUpCandidates.getCandidates();
+                    Timber.d("Cleaning up background tasks: %s", Arrays.toString(candidates));
+                    return Observable.fromArray(candidates);
+                })
+                .filter(runningProcessIndex::isPackageRunning)
                 .subscribe(pkg -> {
                     forceStopPackage(pkg);
                     Timber.d("Clean up background task: %s", pkg);
@@ -1353,44 +1381,35 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
         });
     }
 
-    private Predicate<String> cleanUpBgTasksFilter(boolean onlyWhenIsNotInteractive) {
-        PowerManager power = (PowerManager) Objects.requireNonNull(getContext()).getSystemService(Context.POWER_SERVICE);
-        return pkg -> {
-            if (!isPkgBgRestricted(pkg)) {
-                Timber.d("Package %s is not restricted, ignore.", pkg);
-                return false;
-            }
-            if (ObjectsUtils.equals(pkg, getCurrentFrontApp())) {
-                Timber.d("Package %s is @front, ignore.", pkg);
-                return false;
-            }
-            if (s.getPkgManagerService().isPkgInWhiteList(pkg)) {
-                Timber.d("Package %s is @white-list, ignore.", pkg);
-                return false;
-            }
-            if (onlyWhenIsNotInteractive && power.isInteractive()) {
-                Timber.d("Interactive, ignore %s", pkg);
-                return false;
-            }
-            if (!isPackageRunning(pkg)) {
-                Timber.d("Package %s is not running, ignore.", pkg);
-                return false;
-            }
-            if (bgTaskCleanUpSkipAudioFocused && s.getAudioService().hasAudioFocus(pkg)) {
-                Timber.d("Package %s has audio focus, ignore.", pkg);
-                return false;
-            }
-            if (bgTaskCleanUpSkipNotificationFocused && s.getNotificationManagerService().hasNotificationRecordsForPackage(pkg)) {
-                Timber.d("Package %s has notification, ignore.", pkg);
-                return false;
-            }
-            if (bgTaskCleanUpSkipWhenHasRecentTask && taskMapping.hasRecentTaskForPkg(getContext(), pkg)) {
-                Timber.d("Package %s has recent task, ignore.", pkg);
-                return false;
-            }
-
-            return true;
-        };
+    @ExecuteBySystemHandler
+    private boolean isBgTaskCleanUpCandidate(String pkg) {
+        if (!isPackageRunning(pkg)) {
+            return false;
+        }
+        if (!isPkgBgRestricted(pkg)) {
+            return false;
+        }
+        if (ObjectsUtils.equals(pkg, getCurrentFrontApp())) {
+            Timber.v("Package %s is @front, not a candidate.", pkg);
+            return false;
+        }
+        if (s.getPkgManagerService().isPkgInWhiteList(pkg)) {
+            return false;
+        }
+        if (bgTaskCleanUpSkipAudioFocused && s.getAudioService().hasAudioFocus(pkg)) {
+            Timber.v("Package %s has audio focus, not a candidate.", pkg);
+            return false;
+        }
+        if (bgTaskCleanUpSkipNotificationFocused && s.getNotificationManagerService().hasNotificationRecordsForPackage(pkg)) {
+            Timber.v("Package %s has notification, not a candidate.", pkg);
+            return false;
+        }
+        // Tracked tasks only once task created events are seen, they are not reported before O.
+        if (bgTaskCleanUpSkipWhenHasRecentTask && taskMapping.hasRecentTaskForPkg(getContext(), pkg)) {
+            Timber.v("Package %s has recent task, not a candidate.", pkg);
+            return false;
+        }
+        return true;
     }
 
     private static void boostPriorityForLockedSection() {
@@ -1443,9 +1462,13 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
     private void onFrontPackageChangedInternal(String from, String to) {
         Timber.d("onFrontPackageChangedInternal: %s %s", from, to);
         // Record launch.
-        AppLaunchRecord appLaunchRecord = new AppLaunchRecord(to, System.currentTimeMillis());
-        appLaunchRecords.remove(appLaunchRecord);
-        appLaunchRecords.addFirst(appLaunchRecord);
+        appLaunchHistory.onLaunch(to, System.currentTimeMillis());
+
+        bgTaskCleanUpCandidates.invalidate(from);
+        bgTaskCleanUpCandidates.invalidate(to);
+
+        // Brought to front, platform makes it active.
+        appIdleStateCache.onActive(UserHandle.myUserId(), to);
 
         // Check smart standby for this pkg.
         doSmartStandByForPkgIfNeed(from);
@@ -1496,13 +1519,14 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
             Timber.v("doSmartStandByForPkgIfNeed, isPackageRunning is false");
             return;
         }
-        if (isPackageIdle(pkg)) {
+        int userId = UserHandle.myUserId();
+        if (appIdleStateCache.isIdle(userId, pkg)) {
             Timber.v("doSmartStandByForPkgIfNeed, isPackageIdle is true");
             return;
         }
 
         Timber.d("Now, doSmartStandByForPkg: %s", pkg);
-        idlePackage(pkg);
+        appIdleStateCache.requestIdle(userId, pkg);
     }
 
     public int getRecentTaskExcludeSetting(ComponentName componentName) {
@@ -1550,4 +1574,40 @@ public class ActivityManagerService extends ThanoxSystemService implements IActi
                 T.Settings.PREF_BG_TASK_CLEAN_UP_SKIP_WHEN_HAS_RECENT_TASK.getKey(),
                 enable);
     }
+
+    @Override
+    public PkgPolicySnapshot getPkgPolicySnapshot(int appFlags, int optInFlags) {
+        boolean withIdle = (optInFlags & PkgPolicySnapshot.FLAG_IDLE) != 0;
+        int userId = UserHandle.getCallingUserId();
+        AppInfo[] installed = s.getPkgManagerService().getInstalledPkgs(appFlags);
+        if (withIdle) {
+            List<String> pkgs = new ArrayList<>(installed.length);
+            for (AppInfo appInfo : installed) {
+                pkgs.add(appInfo.getPkgName());
+            }
+            long ident = Binder.clearCallingIdentity();
+            try {
+                appIdleStateCache.seed(userId, pkgs);
+            } finally {
+                Binder.restoreCallingIdentity(ident);
+            }
+        }
+        Map<String, Integer> pkgFlags = new HashMap<>(installed.length);
+        for (AppInfo appInfo : installed) {
+            String pkg = appInfo.getPkgName();
+            int flags = 0;
+            if (runningProcessIndex.isPackageRunning(pkg)) flags |= PkgPolicySnapshot.FLAG_RUNNING;
+            if (startBlockingApps.has(pkg)) flags |= PkgPolicySnapshot.FLAG_START_BLOCKING;
+            if (bgRestrictApps.has(pkg)) flags |= PkgPolicySnapshot.FLAG_BG_RESTRICTED;
+            if (cleanUpTaskRemovalApps.has(pkg)) flags |= PkgPolicySnapshot.FLAG_CLEAN_UP_ON_TASK_REMOVAL;
+            if (recentTaskBlurApps.has(pkg)) flags |= PkgPolicySnapshot.FLAG_RECENT_TASK_BLUR;
+            if (smartStandByApps.has(pkg)) flags |= PkgPolicySnapshot.FLAG_SMART_STAND_BY;
+            if (withIdle && appIdleStateCache.getCachedIdle(userId, pkg)) flags |= PkgPolicySnapshot.FLAG_IDLE;
+            if (s.getPrivacyService().isPkgPrivacyDataCheat(pkg)) {
+                flags |= PkgPolicySnapshot.FLAG_PRIVACY_DATA_CHEAT;
+            }
+            pkgFlags.put(pkg, flags);
+        }
+        return new PkgPolicySnapshot(pkgFlags);
+    }
 }
@@ -38,7 +38,7 @@ import github.tornaco.android.thanos.core.persist.RepoFactory;
 import github.tornaco.android.thanos.core.persist.StringMapRepo;
 import github.tornaco.android.thanos.core.persist.i.SetRepo;
 import github.tornaco.android.thanos.core.pm.PackageManager;
-import github.tornaco.android.thanos.core.pref.IPrefChangeListener;
+import github.tornaco.android.thanos.core.pref.IPrefValueChangeListener;
 import github.tornaco.android.thanos.core.util.HandlerUtils;
 import github.tornaco.android.thanos.core.util.Noop;
 import github.tornaco.android.thanos.core.util.PkgUtils;
@@ -81,6 +81,8 @@ public class ActivityStackSupervisorService extends ThanoxSystemService implemen
 
     private boolean activityTrampolineEnabled;
     private StringMapRepo componentReplacementRepo;
+    // Parsed mirror of componentReplacementRepo, so activity start needs no flatten/unflatten.
+    private final Map<ComponentName, ComponentName> componentReplacements = new ConcurrentHashMap<>();
 
     private boolean showCurrentComponentViewEnabled;
     private CurrentComponentView currentComponentView;
@@ -101,6 +103,7 @@ public class ActivityStackSupervisorService extends ThanoxSystemService implemen
 
         this.lockingApps = RepoFactory.get().getOrCreateStringSetRepo(T.appLockRepoFile().getPath());
         this.componentReplacementRepo = RepoFactory.get().getOrCreateStringMapRepo(T.componentReplacementRepoFile().getPath());
+        loadComponentReplacements();
 
         this.showCurrentComponentViewR = new ShowCurrentComponentViewR();
         this.hideCurrentComponentViewR = new HideCurrentComponentViewR();
@@ -143,22 +146,39 @@ public class ActivityStackSupervisorService extends ThanoxSystemService implemen
 
     private void listenToPrefs() {
         PreferenceManagerService preferenceManagerService = s.getPreferenceManagerService();
-        preferenceManagerService.registerSettingsChangeListener(new IPrefChangeListener.Stub() {
+        String[] keys = new String[]{
+                T.Settings.PREF_APP_LOCK_ENABLED.getKey(),
+                T.Settings.PREF_APP_LOCK_FP_ENABLED.getKey(),
+                T.Settings.PREF_APP_LOCK_WORKAROUND_ENABLED.getKey(),
+                T.Settings.PREF_APP_LOCK_METHOD.getKey(),
+                T.Settings.PREF_ACTIVITY_TRAMPOLINE_ENABLED.getKey(),
+                T.Settings.PREF_SHOW_CURRENT_ACTIVITY_COMPONENT_ENABLED.getKey()
+        };
+        preferenceManagerService.registerSettingsValueChangeListener(keys, new IPrefValueChangeListener.Stub() {
             @Override
-            public void onPrefChanged(String key) {
-                if (ObjectsUtils.equals(T.Settings.PREF_APP_LOCK_ENABLED.getKey(), key)
-                        || ObjectsUtils.equals(T.Settings.PREF_APP_LOCK_METHOD.getKey(), key)
-                        || ObjectsUtils.equals(T.Settings.PREF_APP_LOCK_FP_ENABLED.getKey(), key)
-                        || ObjectsUtils.equals(T.Settings.PREF_APP_LOCK_WORKAROUND_ENABLED.getKey(), key)
-                        || ObjectsUtils.equals(T.Settings.PREF_SHOW_CURRENT_ACTIVITY_COMPONENT_ENABLED.getKey(), key)
-                        || ObjectsUtils.equals(T.Settings.PREF_ACTIVITY_TRAMPOLINE_ENABLED.getKey(), key)) {
-                    Timber.i("Pref changed, reload.");
-                    readPrefs();
-                }
+            public void onPrefValueChanged(String key, String value) {
+                Timber.i("Pref changed: %s, value: %s", key, value);
+                applyPrefValue(key, value);
             }
         });
     }
 
+    private void applyPrefValue(String key, String value) {
+        if (T.Settings.PREF_APP_LOCK_ENABLED.getKey().equals(key)) {
+            this.lockerEnabled = T.Settings.PREF_APP_LOCK_ENABLED.parse(value);
+        } else if (T.Settings.PREF_APP_LOCK_FP_ENABLED.getKey().equals(key)) {
+            this.fingerPrintEnabled = T.Settings.PREF_APP_LOCK_FP_ENABLED.parse(value);
+        } else if (T.Settings.PREF_APP_LOCK_WORKAROUND_ENABLED.getKey().equals(key)) {
+            this.lockerWorkaround = T.Settings.PREF_APP_LOCK_WORKAROUND_ENABLED.parse(value);
+        } else if (T.Settings.PREF_APP_LOCK_METHOD.getKey().equals(key)) {
+            this.lockerMethod = T.Settings.PREF_APP_LOCK_METHOD.parse(value);
+        } else if (T.Settings.PREF_ACTIVITY_TRAMPOLINE_ENABLED.getKey().equals(key)) {
+            this.activityTrampolineEnabled = T.Settings.PREF_ACTIVITY_TRAMPOLINE_ENABLED.parse(value);
+        } else if (T.Settings.PREF_SHOW_CURRENT_ACTIVITY_COMPONENT_ENABLED.getKey().equals(key)) {
+            this.showCurrentComponentViewEnabled = T.Settings.PREF_SHOW_CURRENT_ACTIVITY_COMPONENT_ENABLED.parse(value);
+        }
+    }
+
     @Override
     public boolean checkActivity(ComponentName componentName) {
         return true;
@@ -183,13 +203,7 @@ public class ActivityStackSupervisorService extends ThanoxSystemService implemen
             return false;
         }
 
-        String cString = cName.flattenToString();
-        boolean hasReplacement = componentReplacementRepo.hasNoneNullValue(cString);
-        if (!hasReplacement) {
-            return false;
-        }
-        String replacement = componentReplacementRepo.get(cString);
-        ComponentName newCName = ComponentName.unflattenFromString(replacement);
+        ComponentName newCName = componentReplacements.get(cName);
         if (newCName == null) {
             return false;
         }
@@ -419,12 +433,29 @@ public class ActivityStackSupervisorService extends ThanoxSystemService implemen
     public void addComponentReplacement(ComponentReplacement replacement) {
         enforceCallingPermissions();
         componentReplacementRepo.put(replacement.from.flattenToString(), replacement.to.flattenToString());
+        componentReplacements.put(replacement.from, replacement.to);
     }
 
     @Override
     public void removeComponentReplacement(ComponentReplacement replacement) {
         enforceCallingPermissions();
         componentReplacementRepo.remove(replacement.from.flattenToString());
+        componentReplacements.remove(replacement.from);
+    }
+
+    private void loadComponentReplacements() {
+        Map<String, String> snapshot = componentReplacementRepo.snapshot();
+        for (String key : snapshot.keySet()) {
+            String value = snapshot.get(key);
+            if (TextUtils.isEmpty(value)) continue;
+            ComponentName from = ComponentName.unflattenFromString(key);
+            ComponentName to = ComponentName.unflattenFromString(value);
+            if (from != null && to != null) {
+                componentReplacements.put(from, to);
+            } else {
+                Timber.e("Error parse ComponentName, key is %s, value is %s", key, value);
+            }
+        }
     }
 
     @Override
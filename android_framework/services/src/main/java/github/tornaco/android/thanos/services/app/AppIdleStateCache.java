@@ -0,0 +1,196 @@
+package github.tornaco.android.thanos.services.app;
+
+import android.annotation.TargetApi;
+import android.app.usage.IUsageStatsManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import github.tornaco.android.thanos.core.util.Timber;
+import github.tornaco.android.thanos.services.ThanosSchedulers;
+import lombok.AllArgsConstructor;
+
+/**
+ * Cached app inactive state per user, and batched idle transitions.
+ * <p>
+ * Entries are updated by the transitions we perform and when the app comes to front,
+ * transitions done by the platform itself are picked up when the entry is stale.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP_MR1)
+class AppIdleStateCache {
+
+    private static final long STALE_MILLS = TimeUnit.MINUTES.toMillis(5);
+    private static final long FLUSH_DELAY_MILLS = 1000;
+
+    // User id to pkg states.
+    private final Map<Integer, Map<String, IdleState>> states = new ConcurrentHashMap<>();
+
+    // User id to pkgs, guarded by itself.
+    private final Map<Integer, Set<String>> pendingIdle = new HashMap<>();
+    // User id to pkgs, guarded by itself.
+    private final Map<Integer, Set<String>> pendingQuery = new HashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    // Users whose packages were queried in one pass, guarded by itself.
+    private final Set<Integer> seededUsers = new HashSet<>();
+
+    boolean isIdle(int userId, String pkg) {
+        if (pkg == null) return false;
+        long now = SystemClock.elapsedRealtime();
+        IdleState state = statesOf(userId).get(pkg);
+        if (state != null && now - state.updateTime < STALE_MILLS) {
+            return state.idle;
+        }
+        boolean idle = queryIdle(userId, pkg);
+        statesOf(userId).put(pkg, new IdleState(idle, now));
+        return idle;
+    }
+
+    /**
+     * Never calls usage stats, a missing or stale entry is queried in the next flush.
+     *
+     * @return false if not cached yet.
+     */
+    boolean getCachedIdle(int userId, String pkg) {
+        if (pkg == null) return false;
+        IdleState state = statesOf(userId).get(pkg);
+        if (state == null || SystemClock.elapsedRealtime() - state.updateTime >= STALE_MILLS) {
+            schedule(pendingQuery, userId, pkg);
+        }
+        return state != null && state.idle;
+    }
+
+    /**
+     * Query every package not cached yet, once per user, so the first bulk read
+     * of {@link #getCachedIdle(int, String)} is not a guess.
+     */
+    void seed(int userId, Collection<String> pkgs) {
+        synchronized (seededUsers) {
+            if (seededUsers.contains(userId)) return;
+            IUsageStatsManager usm = IUsageStatsManager.Stub.asInterface(ServiceManager.getService(Context.USAGE_STATS_SERVICE));
+            long now = SystemClock.elapsedRealtime();
+            Map<String, IdleState> userStates = statesOf(userId);
+            for (String pkg : pkgs) {
+                if (pkg == null || userStates.containsKey(pkg)) continue;
+                userStates.putIfAbsent(pkg, new IdleState(queryIdle(usm, userId, pkg), now));
+            }
+            seededUsers.add(userId);
+            Timber.d("AppIdleStateCache seeded for user: %s, size: %s", userId, userStates.size());
+        }
+    }
+
+    void onActive(int userId, String pkg) {
+        if (pkg == null) return;
+        synchronized (pendingIdle) {
+            Set<String> pkgs = pendingIdle.get(userId);
+            if (pkgs != null) pkgs.remove(pkg);
+        }
+        statesOf(userId).put(pkg, new IdleState(false, SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * Requests in a short window are applied together on the server thread.
+     */
+    void requestIdle(int userId, String pkg) {
+        if (pkg == null) return;
+        schedule(pendingIdle, userId, pkg);
+    }
+
+    private Map<String, IdleState> statesOf(int userId) {
+        Map<String, IdleState> userStates = states.get(userId);
+        if (userStates == null) {
+            states.putIfAbsent(userId, new ConcurrentHashMap<>());
+            userStates = states.get(userId);
+        }
+        return userStates;
+    }
+
+    private void schedule(Map<Integer, Set<String>> pending, int userId, String pkg) {
+        synchronized (pending) {
+            Set<String> pkgs = pending.get(userId);
+            if (pkgs == null) {
+                pkgs = new LinkedHashSet<>();
+                pending.put(userId, pkgs);
+            }
+            pkgs.add(pkg);
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            ThanosSchedulers.serverThread().scheduleDirect(this::flush, FLUSH_DELAY_MILLS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static Map<Integer, Set<String>> drain(Map<Integer, Set<String>> pending) {
+        synchronized (pending) {
+            Map<Integer, Set<String>> batch = new HashMap<>(pending);
+            pending.clear();
+            return batch;
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        long now = SystemClock.elapsedRealtime();
+        Map<Integer, Set<String>> idleBatch = drain(pendingIdle);
+        Map<Integer, Set<String>> queryBatch = drain(pendingQuery);
+        if (idleBatch.isEmpty() && queryBatch.isEmpty()) return;
+
+        IUsageStatsManager usm = IUsageStatsManager.Stub.asInterface(ServiceManager.getService(Context.USAGE_STATS_SERVICE));
+        for (Map.Entry<Integer, Set<String>> e : idleBatch.entrySet()) {
+            int userId = e.getKey();
+            for (String pkg : e.getValue()) {
+                IdleState state = statesOf(userId).get(pkg);
+                // Came to front since drained.
+                if (state != null && !state.idle && state.updateTime >= now) continue;
+                try {
+                    usm.setAppInactive(pkg, true, userId);
+                    statesOf(userId).put(pkg, new IdleState(true, now));
+                } catch (RemoteException ex) {
+                    Timber.e(ex, "Error calling usm.setAppInactive");
+                    statesOf(userId).remove(pkg);
+                }
+            }
+            Timber.d("Finish idle packages: %s for user: %s", e.getValue(), userId);
+        }
+        for (Map.Entry<Integer, Set<String>> e : queryBatch.entrySet()) {
+            int userId = e.getKey();
+            Set<String> justIdled = idleBatch.get(userId);
+            for (String pkg : e.getValue()) {
+                if (justIdled != null && justIdled.contains(pkg)) continue;
+                statesOf(userId).put(pkg, new IdleState(queryIdle(usm, userId, pkg), now));
+            }
+        }
+    }
+
+    private static boolean queryIdle(int userId, String pkg) {
+        IUsageStatsManager usm = IUsageStatsManager.Stub.asInterface(ServiceManager
+                .getService(Context.USAGE_STATS_SERVICE));
+        return queryIdle(usm, userId, pkg);
+    }
+
+    private static boolean queryIdle(IUsageStatsManager usm, int userId, String pkg) {
+        try {
+            return usm.isAppInactive(pkg, userId);
+        } catch (RemoteException e) {
+            Timber.e(e, "Error call usm.isAppInactive");
+            return false;
+        }
+    }
+
+    @AllArgsConstructor
+    private static class IdleState {
+        private final boolean idle;
+        private final long updateTime;
+    }
+}
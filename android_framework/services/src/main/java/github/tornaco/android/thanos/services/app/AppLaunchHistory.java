@@ -0,0 +1,69 @@
+package github.tornaco.android.thanos.services.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import github.tornaco.android.thanos.core.annotation.NonNull;
+
+/**
+ * App launches since boot, no lock on the writer path.
+ * <p>
+ * The last launch time of each package is one map lookup, the map is bounded by installed
+ * packages. The last {@link #CAPACITY} launches are kept in a ring for "last N" reads, if a few
+ * packages launched over and over fill it, the rest are taken from the map by time, so as many
+ * distinct packages as asked are returned.
+ */
+class AppLaunchHistory {
+
+    private static final int CAPACITY = 256;
+
+    // pkg -> last launch time.
+    private final Map<String, Long> lastLaunchTimes = new ConcurrentHashMap<>();
+    // Launch n is at n % CAPACITY.
+    private final AtomicReferenceArray<String> ring = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLong launchCount = new AtomicLong();
+
+    void onLaunch(String pkg, long launchTime) {
+        if (pkg == null) return;
+        lastLaunchTimes.put(pkg, launchTime);
+        ring.set((int) (launchCount.getAndIncrement() % CAPACITY), pkg);
+    }
+
+    /**
+     * @return -1 if not launched since boot.
+     */
+    long getLastLaunchTime(String pkg) {
+        Long time = pkg == null ? null : lastLaunchTimes.get(pkg);
+        return time == null ? -1 : time;
+    }
+
+    /**
+     * @return distinct packages, most recent first.
+     */
+    @NonNull
+    List<String> getLastRecentUsedPackages(int count) {
+        Set<String> res = new LinkedHashSet<>();
+        long end = launchCount.get();
+        for (long n = end - 1; n >= 0 && n >= end - CAPACITY && res.size() < count; n--) {
+            String pkg = ring.get((int) (n % CAPACITY));
+            if (pkg != null) res.add(pkg);
+        }
+        if (res.size() < count && lastLaunchTimes.size() > res.size()) {
+            // All older than the ring.
+            List<Map.Entry<String, Long>> byTime = new ArrayList<>(lastLaunchTimes.entrySet());
+            Collections.sort(byTime, (a, b) -> Long.compare(b.getValue(), a.getValue()));
+            for (Map.Entry<String, Long> e : byTime) {
+                if (res.size() >= count) break;
+                res.add(e.getKey());
+            }
+        }
+        return new ArrayList<>(res);
+    }
+}
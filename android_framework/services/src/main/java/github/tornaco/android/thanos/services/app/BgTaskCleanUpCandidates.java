@@ -0,0 +1,66 @@
+package github.tornaco.android.thanos.services.app;
+
+import com.google.common.collect.Sets;
+
+import java.util.Set;
+
+import github.tornaco.android.thanos.core.annotation.NonNull;
+import github.tornaco.android.thanos.core.util.Timber;
+
+/**
+ * Running packages that can be killed by the bg task clean up, kept up to date
+ * when one of the inputs of a package changes, front app, notification, audio focus, task,
+ * restrict setting or process start/stop, so the clean up only walks this set.
+ * <p>
+ * Only mutated on the server thread.
+ */
+class BgTaskCleanUpCandidates {
+
+    private final Set<String> candidates = Sets.newConcurrentHashSet();
+    private final Evaluator evaluator;
+
+    BgTaskCleanUpCandidates(@NonNull Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    void invalidate(String pkg) {
+        if (pkg == null) return;
+        boolean eligible;
+        try {
+            eligible = evaluator.isCandidate(pkg);
+        } catch (Throwable e) {
+            Timber.e(e, "BgTaskCleanUpCandidates, evaluate: %s", pkg);
+            eligible = false;
+        }
+        if (eligible) {
+            if (candidates.add(pkg)) Timber.v("BgTaskCleanUpCandidates, add: %s", pkg);
+        } else {
+            if (candidates.remove(pkg)) Timber.v("BgTaskCleanUpCandidates, remove: %s", pkg);
+        }
+    }
+
+    void invalidate(@NonNull Iterable<String> pkgs) {
+        for (String pkg : pkgs) {
+            invalidate(pkg);
+        }
+    }
+
+    void invalidate(@NonNull String[] pkgs) {
+        for (String pkg : pkgs) {
+            invalidate(pkg);
+        }
+    }
+
+    void remove(String pkg) {
+        if (pkg != null) candidates.remove(pkg);
+    }
+
+    @NonNull
+    String[] getCandidates() {
+        return candidates.toArray(new String[0]);
+    }
+
+    interface Evaluator {
+        boolean isCandidate(String pkg);
+    }
+}
@@ -1,6 +1,7 @@
 package github.tornaco.android.thanos.services.app;
 
-import java.util.HashSet;
+import com.google.common.collect.Sets;
+
 import java.util.Set;
 
 import github.tornaco.android.thanos.core.process.ProcessRecord;
@@ -10,16 +11,21 @@ import util.CollectionUtils;
 @Getter
 class ProcessRecordList implements Comparable<ProcessRecordList> {
 
-    private long lastUpdateTime = System.currentTimeMillis();
-    private Set<ProcessRecord> processRecords = new HashSet<>();
-    private String packageName;
+    private volatile long lastUpdateTime = System.currentTimeMillis();
+    // Hook threads mutate, binder threads read.
+    private final Set<ProcessRecord> processRecords = Sets.newConcurrentHashSet();
+    private final String packageName;
+    private final int uid;
 
-    ProcessRecordList(String packageName) {
+    ProcessRecordList(String packageName, int uid) {
         this.packageName = packageName;
+        this.uid = uid;
     }
 
     void addProcessRecord(ProcessRecord record) {
         lastUpdateTime = System.currentTimeMillis();
+        // Replace the old one, pid may changed.
+        processRecords.remove(record);
         processRecords.add(record);
     }
 
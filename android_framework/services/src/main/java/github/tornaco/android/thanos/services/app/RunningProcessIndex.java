@@ -0,0 +1,161 @@
+package github.tornaco.android.thanos.services.app;
+
+import android.app.ActivityManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import github.tornaco.android.thanos.core.annotation.NonNull;
+import github.tornaco.android.thanos.core.annotation.Nullable;
+import github.tornaco.android.thanos.core.process.ProcessRecord;
+import github.tornaco.android.thanos.core.util.ArrayUtils;
+import github.tornaco.android.thanos.core.util.Timber;
+import io.reactivex.functions.Predicate;
+
+/**
+ * In-process index of live app processes, keyed by package.
+ * <p>
+ * Fed by the startProcessLocked/removeLruProcessLocked hooks, so "is package X running"
+ * is a map lookup instead of a {@link ActivityManager#getRunningAppProcesses()} IPC.
+ */
+class RunningProcessIndex {
+
+    private final Map<String, ProcessRecordList> pkgProcessMap = new ConcurrentHashMap<>();
+    // Process name to the packages reconcile indexed it for, so all of them go with the process.
+    private final Map<String, Set<String>> processHostedPkgMap = new ConcurrentHashMap<>();
+
+    void onProcessStarted(@NonNull ProcessRecord record, int uid) {
+        String pkg = record.getPackageName();
+        if (pkg == null) return;
+        pkgProcessMap.compute(pkg, (key, list) -> {
+            if (list == null) list = new ProcessRecordList(pkg, uid);
+            list.addProcessRecord(record);
+            return list;
+        });
+    }
+
+    /**
+     * Un-index the process for its own package and every package it hosts.
+     *
+     * @return packages this was the last process of.
+     */
+    @NonNull
+    Set<String> onProcessRemoved(@NonNull ProcessRecord record) {
+        Set<String> stopped = new HashSet<>();
+        String processName = record.getProcessName();
+        Set<String> hosted = processName == null ? null : processHostedPkgMap.remove(processName);
+        if (hosted != null) {
+            for (String pkg : hosted) {
+                removeProcess(pkg, new ProcessRecord(pkg, processName, record.getPid(), false, false), stopped);
+            }
+        }
+        String pkg = record.getPackageName();
+        if (pkg != null) {
+            removeProcess(pkg, record, stopped);
+        }
+        return stopped;
+    }
+
+    private void removeProcess(String pkg, ProcessRecord record, Set<String> stopped) {
+        pkgProcessMap.computeIfPresent(pkg, (key, list) -> {
+            list.removeProcessRecord(record);
+            if (list.isEmpty()) {
+                stopped.add(pkg);
+                return null;
+            }
+            return list;
+        });
+    }
+
+    boolean isPackageRunning(String pkg) {
+        return pkg != null && pkgProcessMap.containsKey(pkg);
+    }
+
+    @NonNull
+    String[] getRunningPackages(@Nullable Predicate<String> predicate) {
+        List<String> res = new ArrayList<>(pkgProcessMap.size());
+        for (String pkg : pkgProcessMap.keySet()) {
+            try {
+                if (predicate == null || predicate.test(pkg)) {
+                    res.add(pkg);
+                }
+            } catch (Exception e) {
+                Timber.e(e);
+            }
+        }
+        return res.toArray(new String[0]);
+    }
+
+    /**
+     * Rebuild from the snapshot of {@link ActivityManager#getRunningAppProcesses()},
+     * in case we missed some events, the process started before we are ready for example.
+     *
+     * @return packages that were added or dropped.
+     */
+    @NonNull
+    Set<String> reconcile(@NonNull List<ActivityManager.RunningAppProcessInfo> processInfoList,
+                   long snapshotTimeMills,
+                   @NonNull UidResolver uidResolver) {
+        Map<String, ProcessRecordList> snapshot = new HashMap<>();
+        Map<String, Set<String>> hostedSnapshot = new HashMap<>();
+        for (ActivityManager.RunningAppProcessInfo info : processInfoList) {
+            String[] pkgList = info.pkgList;
+            if (ArrayUtils.isEmpty(pkgList)) continue;
+            // A process may host more than one package, shared uid ones for example.
+            for (String pkg : pkgList) {
+                if (pkg == null) continue;
+                if (info.processName != null) {
+                    Set<String> hosted = hostedSnapshot.get(info.processName);
+                    if (hosted == null) {
+                        hosted = new HashSet<>();
+                        hostedSnapshot.put(info.processName, hosted);
+                    }
+                    hosted.add(pkg);
+                }
+                ProcessRecordList list = snapshot.get(pkg);
+                if (list == null) {
+                    list = new ProcessRecordList(pkg, info.uid);
+                    snapshot.put(pkg, list);
+                }
+                list.addProcessRecord(new ProcessRecord(pkg, info.processName, info.pid, false, false));
+            }
+        }
+
+        Set<String> changed = new HashSet<>();
+        // Drop dead ones, but keep those updated after the snapshot was taken.
+        for (String pkg : pkgProcessMap.keySet()) {
+            if (!snapshot.containsKey(pkg)) {
+                pkgProcessMap.computeIfPresent(pkg, (key, list) -> {
+                    if (list.getLastUpdateTime() >= snapshotTimeMills) return list;
+                    Timber.w("RunningProcessIndex, drop stale pkg: %s", pkg);
+                    changed.add(pkg);
+                    return null;
+                });
+            }
+        }
+        // Add missing ones.
+        processHostedPkgMap.keySet().retainAll(hostedSnapshot.keySet());
+        processHostedPkgMap.putAll(hostedSnapshot);
+        for (ProcessRecordList list : snapshot.values()) {
+            if (!pkgProcessMap.containsKey(list.getPackageName())) {
+                changed.add(list.getPackageName());
+            }
+            int uid = list.getUid() > 0 ? list.getUid() : uidResolver.getUidForPkgName(list.getPackageName());
+            for (ProcessRecord record : list.getProcessRecords()) {
+                onProcessStarted(record, uid);
+            }
+        }
+        Timber.d("RunningProcessIndex reconciled, running pkg count: %s, changed: %s",
+                pkgProcessMap.size(), changed.size());
+        return changed;
+    }
+
+    interface UidResolver {
+        int getUidForPkgName(String pkgName);
+    }
+}
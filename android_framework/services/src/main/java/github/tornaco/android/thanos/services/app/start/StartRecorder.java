@@ -1,61 +1,206 @@
 package github.tornaco.android.thanos.services.app.start;
 
-import java.util.LinkedList;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import github.tornaco.android.thanos.core.T;
 import github.tornaco.android.thanos.core.app.start.StartRecord;
-import github.tornaco.android.thanos.core.util.DevNull;
 import github.tornaco.android.thanos.core.util.Timber;
 
+/**
+ * Records start decisions.
+ * <p>
+ * Callers only publish the record into a bounded ring buffer, the buffer is
+ * drained in batch on a dedicated background thread, where counters and
+ * per-package history are updated, and the batch is persisted by {@link StartStatsStore}.
+ */
 public class StartRecorder {
 
+    // Per package.
     private static final int MAX_ENTRY_SIZE = 1024;
-    private final Map<String, LinkedList<StartRecord>> startBlockRecordMap = new ConcurrentHashMap<>();
+    // Across all packages.
+    private static final int MAX_TOTAL_ENTRY_SIZE = 8 * 1024;
+
+    private static final int RING_SIZE = 4096;
+    private static final int RING_MASK = RING_SIZE - 1;
+    private static final long DRAIN_DELAY_MILLS = 500;
+
+    // Producers claim a slot by CAS on writeSeq, the drain thread is the only one moves readSeq.
+    private final AtomicReferenceArray<StartRecord> ring = new AtomicReferenceArray<>(RING_SIZE);
+    private final AtomicLong writeSeq = new AtomicLong(0L);
+    private volatile long readSeq = 0L;
+    private final AtomicLong droppedTimes = new AtomicLong(0L);
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final Handler drainHandler;
+    private final Runnable drainRunnable = this::drain;
 
     private final AtomicLong allBlockedTimes = new AtomicLong(0L);
-    private final Map<String, Long> pkgBlockedTimesMap = new ConcurrentHashMap<>();
-    private final Map<String, Long> pkgAllowedTimesMap = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> pkgBlockedTimesMap = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> pkgAllowedTimesMap = new ConcurrentHashMap<>();
+
+    // Guarded by historyLock, newest first.
+    private final Map<String, ArrayDeque<StartRecord>> startBlockRecordMap = new HashMap<>();
+    // Guarded by historyLock, oldest first, to bound memory across all packages.
+    private final ArrayDeque<StartRecord> allBlockRecords = new ArrayDeque<>();
+    private final Object historyLock = new Object();
+
+    // Written on the drain thread only, locks itself for the queries.
+    private final StartStatsStore statsStore = new StartStatsStore(T.startStatsDir());
+
+    public StartRecorder() {
+        HandlerThread drainThread = new HandlerThread("StartRecorder", Process.THREAD_PRIORITY_BACKGROUND);
+        drainThread.start();
+        this.drainHandler = new Handler(drainThread.getLooper());
+        this.drainHandler.post(this::loadPersisted);
+    }
+
+    private void loadPersisted() {
+        statsStore.load();
+        // History before this boot counts.
+        List<StartStatsStore.PkgCount> top = statsStore.topBlocked(0, 0, System.currentTimeMillis());
+        synchronized (historyLock) {
+            for (StartStatsStore.PkgCount c : top) {
+                counterOf(pkgBlockedTimesMap, c.pkg).addAndGet(c.times);
+                allBlockedTimes.addAndGet(c.times);
+            }
+        }
+    }
 
     public void add(StartRecord record) {
-        Timber.v("%s", record);
         if (record.getPackageName() == null) return;
 
-        // Increase logging times.
-        if (!record.getResult().res) {
-            DevNull.accept(allBlockedTimes.incrementAndGet());
-            long pkgBlockTimes = pkgBlockedTimesMap.containsKey(record.getPackageName()) ? pkgBlockedTimesMap.get(record.getPackageName()) : 0L;
-            pkgBlockTimes += 1;
-            pkgBlockedTimesMap.put(record.getPackageName(), pkgBlockTimes);
-
-            // Recording.
-            LinkedList<StartRecord> recordList = startBlockRecordMap.get(record.getPackageName());
-            if (recordList == null) recordList = new LinkedList<>();
-            // Trim.
-            if (recordList.size() > MAX_ENTRY_SIZE) recordList.pop();
-            recordList.addFirst(record);
-            startBlockRecordMap.put(record.getPackageName(), recordList);
-        } else {
-            long pkgAllowedTimes = pkgAllowedTimesMap.containsKey(record.getPackageName()) ? pkgAllowedTimesMap.get(record.getPackageName()) : 0L;
-            pkgAllowedTimes += 1;
-            pkgAllowedTimesMap.put(record.getPackageName(), pkgAllowedTimes);
+        long seq;
+        do {
+            seq = writeSeq.get();
+            if (seq - readSeq >= RING_SIZE) {
+                // Drain thread can not catch up, drop it.
+                droppedTimes.incrementAndGet();
+                return;
+            }
+        } while (!writeSeq.compareAndSet(seq, seq + 1));
+        ring.lazySet((int) (seq & RING_MASK), record);
+
+        if (!drainScheduled.get() && drainScheduled.compareAndSet(false, true)) {
+            drainHandler.postDelayed(drainRunnable, DRAIN_DELAY_MILLS);
+        }
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        long seq = readSeq;
+        long end = writeSeq.get();
+        List<StartRecord> batch = new ArrayList<>((int) Math.min(end - seq, RING_SIZE));
+        synchronized (historyLock) {
+            while (seq < end) {
+                int slot = (int) (seq & RING_MASK);
+                StartRecord record = ring.get(slot);
+                if (record == null) {
+                    // Claimed but not published yet, pick it up next round.
+                    break;
+                }
+                ring.lazySet(slot, null);
+                seq++;
+                batch.add(record);
+                apply(record);
+            }
+            readSeq = seq;
+        }
+        statsStore.append(batch);
+        Timber.v("StartRecorder drained: %s, dropped: %s", batch.size(), droppedTimes.get());
+
+        if (seq < writeSeq.get() && drainScheduled.compareAndSet(false, true)) {
+            drainHandler.postDelayed(drainRunnable, DRAIN_DELAY_MILLS);
         }
     }
 
+    // Guarded by historyLock.
+    private void apply(StartRecord record) {
+        String pkg = record.getPackageName();
+        if (record.getResult().res) {
+            counterOf(pkgAllowedTimesMap, pkg).incrementAndGet();
+            return;
+        }
+
+        allBlockedTimes.incrementAndGet();
+        counterOf(pkgBlockedTimesMap, pkg).incrementAndGet();
+
+        ArrayDeque<StartRecord> recordList = startBlockRecordMap.get(pkg);
+        if (recordList == null) {
+            recordList = new ArrayDeque<>();
+            startBlockRecordMap.put(pkg, recordList);
+        }
+        // Trim.
+        if (recordList.size() >= MAX_ENTRY_SIZE) recordList.pollLast();
+        recordList.addFirst(record);
+
+        allBlockRecords.addLast(record);
+        while (allBlockRecords.size() > MAX_TOTAL_ENTRY_SIZE) {
+            StartRecord eldest = allBlockRecords.pollFirst();
+            ArrayDeque<StartRecord> eldestPkgList = startBlockRecordMap.get(eldest.getPackageName());
+            // May already been trimmed by the per package limit.
+            if (eldestPkgList != null && eldestPkgList.peekLast() == eldest) {
+                eldestPkgList.pollLast();
+                if (eldestPkgList.isEmpty()) {
+                    startBlockRecordMap.remove(eldest.getPackageName());
+                }
+            }
+        }
+    }
+
+    private static AtomicLong counterOf(Map<String, AtomicLong> map, String pkg) {
+        AtomicLong counter = map.get(pkg);
+        if (counter == null) {
+            counter = new AtomicLong(0L);
+            map.put(pkg, counter);
+        }
+        return counter;
+    }
+
     public StartRecord[] getByPackageName(String packageName) {
-        LinkedList<StartRecord> records = startBlockRecordMap.get(packageName);
-        if (records == null) return new StartRecord[0];
-        return records.toArray(new StartRecord[0]);
+        synchronized (historyLock) {
+            ArrayDeque<StartRecord> records = startBlockRecordMap.get(packageName);
+            if (records == null) return new StartRecord[0];
+            return records.toArray(new StartRecord[0]);
+        }
     }
 
     public long getStartRecordBlockedCountByPackageName(String pkgName) {
-        Long b = pkgBlockedTimesMap.get(pkgName);
-        return (b == null ? 0L : b);
+        AtomicLong b = pkgBlockedTimesMap.get(pkgName);
+        return (b == null ? 0L : b.get());
     }
 
+    // Including those blocked before this boot, most blocked first.
     public String[] getStartRecordBlockedPackages() {
-        return startBlockRecordMap.keySet().toArray(new String[0]);
+        return getTopBlockedPackages(0, 0L);
+    }
+
+    public String[] getTopBlockedPackages(int limit, long sinceMills) {
+        List<StartStatsStore.PkgCount> top = statsStore.topBlocked(limit, sinceMills, System.currentTimeMillis() + 1);
+        String[] res = new String[top.size()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = top.get(i).pkg;
+        }
+        return res;
+    }
+
+    /**
+     * @param pkgName null for all packages.
+     * @param method  {@link github.tornaco.android.thanos.core.app.start.StartReason}, or -1 for all.
+     */
+    public long getStartRecordCount(String pkgName, int method, boolean blocked, long fromMills, long toMills) {
+        return statsStore.count(pkgName, method, blocked, fromMills, toMills);
     }
 
     public long getAllBlockedTimes() {
@@ -0,0 +1,514 @@
+package github.tornaco.android.thanos.services.app.start;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.google.common.io.Files;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import github.tornaco.android.thanos.core.app.start.StartRecord;
+import github.tornaco.android.thanos.core.util.Timber;
+import lombok.Cleanup;
+
+/**
+ * Persistent statistics of start decisions.
+ * <p>
+ * Each decision is appended to a compact binary log, and folded into per minute, hour and
+ * day roll-ups in memory. The roll-ups are written to a snapshot file on compaction, after which
+ * the log starts over. Queries are answered from the roll-ups only.
+ * <p>
+ * Queries are thread safe. Loading, appending and compaction are to be called from a single
+ * thread, they only lock this object to update the in-memory state, file IO is done outside.
+ */
+class StartStatsStore {
+
+    private static final int SNAPSHOT_MAGIC = 0x54535353; // TSSS
+    private static final int LOG_MAGIC = 0x5453534c; // TSSL
+    private static final int VERSION = 1;
+
+    private static final byte LOG_TYPE_PKG = 1;
+    private static final byte LOG_TYPE_EVENT = 2;
+
+    private static final long COMPACT_LOG_SIZE_BYTES = 256 * 1024;
+    private static final long COMPACT_INTERVAL_MILLS = TimeUnit.HOURS.toMillis(6);
+
+    enum Granularity {
+        MINUTE(TimeUnit.MINUTES.toMillis(1), 3 * 60),
+        HOUR(TimeUnit.HOURS.toMillis(1), 14 * 24),
+        DAY(TimeUnit.DAYS.toMillis(1), 365);
+
+        final long bucketMills;
+        final int retainBuckets;
+
+        Granularity(long bucketMills, int retainBuckets) {
+            this.bucketMills = bucketMills;
+            this.retainBuckets = retainBuckets;
+        }
+
+        long bucketOf(long timeMills) {
+            return timeMills / bucketMills;
+        }
+
+        long retainMills() {
+            return bucketMills * retainBuckets;
+        }
+    }
+
+    private final File snapshotFile;
+    private final File logFile;
+
+    // Guarded by this, ids of packages no roll-up refers to are dropped on compaction.
+    private final List<String> pkgNames = new ArrayList<>();
+    private final Map<String, Integer> pkgIds = new HashMap<>();
+
+    // Guarded by this, granularity ordinal -> bucket -> key -> count.
+    @SuppressWarnings("unchecked")
+    private final TreeMap<Long, Map<Long, long[]>>[] rollups = new TreeMap[Granularity.values().length];
+
+    // Ids already written to the snapshot or the current log.
+    private int persistedPkgCount;
+    private int logGeneration;
+    private DataOutputStream logOut;
+    private boolean startNewLog;
+    private long lastCompactTimeMills;
+
+    StartStatsStore(File dir) {
+        this.snapshotFile = new File(dir, "rollup.bin");
+        this.logFile = new File(dir, "events.log");
+        for (int i = 0; i < rollups.length; i++) {
+            rollups[i] = new TreeMap<>();
+        }
+    }
+
+    void load() {
+        try {
+            Files.createParentDirs(logFile);
+        } catch (IOException e) {
+            Timber.e("StartStatsStore, fail createParentDirs: %s", Log.getStackTraceString(e));
+        }
+        byte[] snapshot = null;
+        byte[] log = null;
+        try {
+            if (snapshotFile.exists()) snapshot = new AtomicFile(snapshotFile).readFully();
+            if (logFile.exists()) log = Files.toByteArray(logFile);
+        } catch (IOException e) {
+            Timber.e("StartStatsStore, fail read: %s", Log.getStackTraceString(e));
+        }
+        synchronized (this) {
+            if (snapshot != null) readSnapshot(snapshot);
+            if (log != null) replayLog(log);
+            persistedPkgCount = pkgNames.size();
+        }
+        lastCompactTimeMills = System.currentTimeMillis();
+        // Start over with what we have.
+        compact();
+    }
+
+    void append(List<StartRecord> records) {
+        if (records.isEmpty()) return;
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(records.size() * 16);
+        try {
+            DataOutputStream out = new DataOutputStream(encoded);
+            int pkgCount = persistedPkgCount;
+            synchronized (this) {
+                for (StartRecord record : records) {
+                    int pkgId = pkgIdOf(record.getPackageName());
+                    if (pkgId >= pkgCount) {
+                        // New names are always appended in order.
+                        for (int id = pkgCount; id <= pkgId; id++) {
+                            out.writeByte(LOG_TYPE_PKG);
+                            out.writeInt(id);
+                            out.writeUTF(pkgNames.get(id));
+                        }
+                        pkgCount = pkgId + 1;
+                    }
+                    boolean blocked = !record.getResult().res;
+                    out.writeByte(LOG_TYPE_EVENT);
+                    out.writeLong(record.getWhenByMills());
+                    out.writeInt(pkgId);
+                    out.writeByte(record.getMethod());
+                    out.writeBoolean(blocked);
+                    fold(record.getWhenByMills(), pkgId, record.getMethod(), blocked, 1);
+                }
+            }
+            DataOutputStream log = ensureLogOut();
+            encoded.writeTo(log);
+            log.flush();
+            persistedPkgCount = pkgCount;
+        } catch (IOException e) {
+            Timber.e("StartStatsStore, fail append: %s", Log.getStackTraceString(e));
+            closeLogOut();
+        }
+
+        if (logFile.length() > COMPACT_LOG_SIZE_BYTES
+                || System.currentTimeMillis() - lastCompactTimeMills > COMPACT_INTERVAL_MILLS) {
+            compact();
+        }
+    }
+
+    // Under lock.
+    private void fold(long whenMills, int pkgId, int method, boolean blocked, long count) {
+        long key = keyOf(pkgId, method, blocked);
+        for (Granularity g : Granularity.values()) {
+            Map<Long, long[]> bucket = rollups[g.ordinal()].get(g.bucketOf(whenMills));
+            if (bucket == null) {
+                bucket = new HashMap<>();
+                rollups[g.ordinal()].put(g.bucketOf(whenMills), bucket);
+            }
+            long[] c = bucket.get(key);
+            if (c == null) {
+                bucket.put(key, new long[]{count});
+            } else {
+                c[0] += count;
+            }
+        }
+    }
+
+    private static long keyOf(int pkgId, int method, boolean blocked) {
+        return ((long) pkgId << 16) | ((method & 0xff) << 8) | (blocked ? 1 : 0);
+    }
+
+    private static long withPkgId(long key, int pkgId) {
+        return ((long) pkgId << 16) | (key & 0xffff);
+    }
+
+    private static int pkgIdOfKey(long key) {
+        return (int) (key >>> 16);
+    }
+
+    private static int methodOfKey(long key) {
+        return (int) ((key >>> 8) & 0xff);
+    }
+
+    private static boolean blockedOfKey(long key) {
+        return (key & 1) != 0;
+    }
+
+    // Under lock.
+    private int pkgIdOf(String pkg) {
+        Integer id = pkgIds.get(pkg);
+        if (id == null) {
+            id = pkgNames.size();
+            pkgNames.add(pkg);
+            pkgIds.put(pkg, id);
+        }
+        return id;
+    }
+
+    /**
+     * Count of decisions in [fromMills, toMills), filtered by package and/or reason.
+     *
+     * @param pkg    null for all packages.
+     * @param method {@link github.tornaco.android.thanos.core.app.start.StartReason}, or -1 for all.
+     */
+    synchronized long count(String pkg, int method, boolean blocked, long fromMills, long toMills) {
+        Integer pkgId = null;
+        if (pkg != null) {
+            pkgId = pkgIds.get(pkg);
+            if (pkgId == null) return 0L;
+        }
+        long res = 0L;
+        Granularity g = granularityFor(fromMills, toMills);
+        for (Map<Long, long[]> bucket : rollups[g.ordinal()]
+                .subMap(g.bucketOf(fromMills), true, g.bucketOf(toMills - 1), true).values()) {
+            for (Map.Entry<Long, long[]> e : bucket.entrySet()) {
+                long key = e.getKey();
+                if (blockedOfKey(key) != blocked) continue;
+                if (pkgId != null && pkgIdOfKey(key) != pkgId) continue;
+                if (method >= 0 && methodOfKey(key) != method) continue;
+                res += e.getValue()[0];
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Blocked times per package in [fromMills, toMills), sorted by times desc.
+     */
+    synchronized List<PkgCount> topBlocked(int limit, long fromMills, long toMills) {
+        Granularity g = granularityFor(fromMills, toMills);
+        Map<Integer, long[]> perPkg = new HashMap<>();
+        for (Map<Long, long[]> bucket : rollups[g.ordinal()]
+                .subMap(g.bucketOf(fromMills), true, g.bucketOf(toMills - 1), true).values()) {
+            for (Map.Entry<Long, long[]> e : bucket.entrySet()) {
+                long key = e.getKey();
+                if (!blockedOfKey(key)) continue;
+                long[] c = perPkg.get(pkgIdOfKey(key));
+                if (c == null) {
+                    perPkg.put(pkgIdOfKey(key), new long[]{e.getValue()[0]});
+                } else {
+                    c[0] += e.getValue()[0];
+                }
+            }
+        }
+        List<PkgCount> res = new ArrayList<>(perPkg.size());
+        for (Map.Entry<Integer, long[]> e : perPkg.entrySet()) {
+            res.add(new PkgCount(pkgNames.get(e.getKey()), e.getValue()[0]));
+        }
+        Collections.sort(res);
+        return limit > 0 && res.size() > limit ? res.subList(0, limit) : res;
+    }
+
+    // The finest one that still covers the range.
+    private static Granularity granularityFor(long fromMills, long toMills) {
+        long since = System.currentTimeMillis() - fromMills;
+        for (Granularity g : Granularity.values()) {
+            if (since <= g.retainMills() && (toMills - fromMills) <= g.retainMills()) {
+                return g;
+            }
+        }
+        return Granularity.DAY;
+    }
+
+    void compact() {
+        long now = System.currentTimeMillis();
+        int[] remap;
+        byte[] snapshot;
+        synchronized (this) {
+            for (Granularity g : Granularity.values()) {
+                long minBucket = g.bucketOf(now) - g.retainBuckets;
+                rollups[g.ordinal()].headMap(minBucket, false).clear();
+            }
+            remap = liveIdRemap();
+            snapshot = encodeSnapshot(logGeneration + 1, remap);
+        }
+
+        closeLogOut();
+        if (snapshot == null || !writeSnapshot(snapshot)) {
+            // Keep appending to the old log, the snapshot is still the old one.
+            return;
+        }
+        // Only this thread changes names and roll-ups, they are still what was encoded.
+        synchronized (this) {
+            applyRemap(remap);
+        }
+        logGeneration++;
+        persistedPkgCount = pkgNames.size();
+        lastCompactTimeMills = now;
+        // The log has been folded, next append will start over with the new generation.
+        startNewLog = true;
+    }
+
+    // Under lock, old id -> new id, -1 if no roll-up refers to the package anymore.
+    private int[] liveIdRemap() {
+        boolean[] live = new boolean[pkgNames.size()];
+        for (TreeMap<Long, Map<Long, long[]>> rollup : rollups) {
+            for (Map<Long, long[]> bucket : rollup.values()) {
+                for (long key : bucket.keySet()) {
+                    live[pkgIdOfKey(key)] = true;
+                }
+            }
+        }
+        int[] remap = new int[live.length];
+        int next = 0;
+        for (int id = 0; id < live.length; id++) {
+            remap[id] = live[id] ? next++ : -1;
+        }
+        return remap;
+    }
+
+    // Under lock.
+    private void applyRemap(int[] remap) {
+        List<String> names = new ArrayList<>(pkgNames.size());
+        for (int id = 0; id < remap.length; id++) {
+            if (remap[id] >= 0) names.add(pkgNames.get(id));
+        }
+        if (names.size() == pkgNames.size()) return;
+        Timber.d("StartStatsStore, drop pkg names: %s", pkgNames.size() - names.size());
+        pkgNames.clear();
+        pkgIds.clear();
+        for (String name : names) {
+            pkgIdOf(name);
+        }
+        for (TreeMap<Long, Map<Long, long[]>> rollup : rollups) {
+            for (Map.Entry<Long, Map<Long, long[]>> bucket : rollup.entrySet()) {
+                Map<Long, long[]> remapped = new HashMap<>(bucket.getValue().size());
+                for (Map.Entry<Long, long[]> e : bucket.getValue().entrySet()) {
+                    remapped.put(withPkgId(e.getKey(), remap[pkgIdOfKey(e.getKey())]), e.getValue());
+                }
+                bucket.setValue(remapped);
+            }
+        }
+    }
+
+    // Under lock.
+    private byte[] encodeSnapshot(int generation, int[] remap) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(generation);
+            int liveCount = 0;
+            for (int newId : remap) {
+                if (newId >= 0) liveCount++;
+            }
+            out.writeInt(liveCount);
+            for (int id = 0; id < remap.length; id++) {
+                if (remap[id] >= 0) out.writeUTF(pkgNames.get(id));
+            }
+            for (TreeMap<Long, Map<Long, long[]>> rollup : rollups) {
+                out.writeInt(rollup.size());
+                for (Map.Entry<Long, Map<Long, long[]>> bucket : rollup.entrySet()) {
+                    out.writeLong(bucket.getKey());
+                    out.writeInt(bucket.getValue().size());
+                    for (Map.Entry<Long, long[]> e : bucket.getValue().entrySet()) {
+                        out.writeLong(withPkgId(e.getKey(), remap[pkgIdOfKey(e.getKey())]));
+                        out.writeLong(e.getValue()[0]);
+                    }
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            Timber.e("StartStatsStore, fail encodeSnapshot: %s", Log.getStackTraceString(e));
+            return null;
+        }
+    }
+
+    private boolean writeSnapshot(byte[] snapshot) {
+        AtomicFile file = new AtomicFile(snapshotFile);
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            BufferedOutputStream out = new BufferedOutputStream(fos);
+            out.write(snapshot);
+            out.flush();
+            file.finishWrite(fos);
+            return true;
+        } catch (IOException e) {
+            Timber.e("StartStatsStore, fail writeSnapshot: %s", Log.getStackTraceString(e));
+            file.failWrite(fos);
+            return false;
+        }
+    }
+
+    // Under lock.
+    private void readSnapshot(byte[] snapshot) {
+        try {
+            @Cleanup
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != VERSION) {
+                Timber.w("StartStatsStore, unknown snapshot, ignore.");
+                return;
+            }
+            logGeneration = in.readInt();
+            int pkgCount = in.readInt();
+            for (int i = 0; i < pkgCount; i++) {
+                pkgIdOf(in.readUTF());
+            }
+            for (TreeMap<Long, Map<Long, long[]>> rollup : rollups) {
+                int bucketCount = in.readInt();
+                for (int i = 0; i < bucketCount; i++) {
+                    long bucketKey = in.readLong();
+                    int size = in.readInt();
+                    Map<Long, long[]> bucket = new HashMap<>(size);
+                    for (int j = 0; j < size; j++) {
+                        bucket.put(in.readLong(), new long[]{in.readLong()});
+                    }
+                    rollup.put(bucketKey, bucket);
+                }
+            }
+        } catch (IOException e) {
+            Timber.e("StartStatsStore, fail readSnapshot: %s", Log.getStackTraceString(e));
+        }
+    }
+
+    // Under lock.
+    private void replayLog(byte[] log) {
+        int replayed = 0;
+        try {
+            @Cleanup
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(log));
+            if (in.readInt() != LOG_MAGIC || in.readInt() != logGeneration) {
+                // Already folded into the snapshot.
+                Timber.w("StartStatsStore, stale log, ignore.");
+                return;
+            }
+            while (true) {
+                byte type = in.readByte();
+                if (type == LOG_TYPE_PKG) {
+                    int id = in.readInt();
+                    String name = in.readUTF();
+                    if (pkgIdOf(name) != id) {
+                        Timber.e("StartStatsStore, pkg id mismatch: %s %s", name, id);
+                        return;
+                    }
+                } else if (type == LOG_TYPE_EVENT) {
+                    long when = in.readLong();
+                    int pkgId = in.readInt();
+                    int method = in.readByte();
+                    boolean blocked = in.readBoolean();
+                    if (pkgId < pkgNames.size()) {
+                        fold(when, pkgId, method, blocked, 1);
+                        replayed++;
+                    }
+                } else {
+                    Timber.e("StartStatsStore, bad log record type: %s", type);
+                    return;
+                }
+            }
+        } catch (EOFException ignored) {
+            // Done, maybe a torn tail record.
+        } catch (IOException e) {
+            Timber.e("StartStatsStore, fail replayLog: %s", Log.getStackTraceString(e));
+        } finally {
+            Timber.d("StartStatsStore, replayed: %s", replayed);
+        }
+    }
+
+    private DataOutputStream ensureLogOut() throws IOException {
+        if (logOut == null) {
+            boolean isNew = startNewLog || !logFile.exists() || logFile.length() == 0;
+            logOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, !isNew)));
+            if (isNew) {
+                logOut.writeInt(LOG_MAGIC);
+                logOut.writeInt(logGeneration);
+                startNewLog = false;
+            }
+        }
+        return logOut;
+    }
+
+    private void closeLogOut() {
+        if (logOut != null) {
+            try {
+                logOut.close();
+            } catch (IOException ignored) {
+            }
+            logOut = null;
+        }
+    }
+
+    static class PkgCount implements Comparable<PkgCount> {
+        final String pkg;
+        final long times;
+
+        PkgCount(String pkg, long times) {
+            this.pkg = pkg;
+            this.times = times;
+        }
+
+        @SuppressWarnings("NullableProblems")
+        @Override
+        public int compareTo(PkgCount o) {
+            return Long.compare(o.times, times);
+        }
+    }
+}
@@ -6,43 +6,101 @@ import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.Context;
 import android.os.Build;
-import android.text.TextUtils;
+
+import com.google.common.collect.Sets;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import github.tornaco.android.thanos.core.annotation.NonNull;
+import github.tornaco.android.thanos.core.util.OsUtils;
 import github.tornaco.android.thanos.core.util.PkgUtils;
 import github.tornaco.android.thanos.core.util.Timber;
 import util.CollectionUtils;
 import util.ObjectsUtils;
 
+/**
+ * Task id to component, and package to task ids.
+ * <p>
+ * Seeded once from recent tasks at system ready, so tasks restored at boot are known, then
+ * kept by task created, task moved to front and task removed events. An entry lives as long
+ * as the task, not the process. The recent tasks fallback is only used on builds that do not
+ * report task created, before O.
+ */
 public class TaskMapping {
 
+    private static final int RECENT_TASKS_MAX = 99;
+
     @SuppressLint("UseSparseArrays")
     private final Map<Integer, ComponentName> taskIdCompMap = new ConcurrentHashMap<>();
+    private final Map<String, Set<Integer>> pkgTaskIdsMap = new ConcurrentHashMap<>();
 
-    @TargetApi(Build.VERSION_CODES.O)
+    private volatile boolean tracking = false;
+
+    /**
+     * Call once at system ready.
+     */
+    public void seed(Context context) {
+        List<ActivityManager.RecentTaskInfo> tasks = getRecentTasks(context);
+        int count = 0;
+        for (ActivityManager.RecentTaskInfo rc : tasks) {
+            ComponentName componentName = rc.baseIntent == null ? null : rc.baseIntent.getComponent();
+            if (componentName == null) continue;
+            // An event may have come in first, it is newer.
+            if (taskIdCompMap.putIfAbsent(rc.persistentId, componentName) == null) {
+                index(componentName.getPackageName(), rc.persistentId);
+                count++;
+            }
+        }
+        tracking = OsUtils.isOOrAbove();
+        Timber.d("TaskMapping seeded: %s, tracking: %s", count, tracking);
+    }
+
+    /**
+     * For a created task, and an existing one moved to front.
+     */
     public ComponentName put(int taskId, ComponentName componentName) {
-        return taskIdCompMap.put(taskId, componentName);
+        if (componentName == null) {
+            return null;
+        }
+        ComponentName prev = taskIdCompMap.put(taskId, componentName);
+        if (prev != null) {
+            unIndex(prev.getPackageName(), taskId);
+        }
+        index(componentName.getPackageName(), taskId);
+        return prev;
     }
 
     @TargetApi(Build.VERSION_CODES.O)
     public void remove(ComponentName toRemove) {
         Timber.v("To remove: %s", toRemove);
         if (toRemove != null) {
-            Integer[] tasksId = taskIdCompMap.keySet().toArray(new Integer[0]);
+            Set<Integer> tasksId = pkgTaskIdsMap.get(toRemove.getPackageName());
+            if (tasksId == null) return;
             for (int id : tasksId) {
-                ComponentName componentName = taskIdCompMap.get(id);
-                if (ObjectsUtils.equals(componentName, toRemove)) {
+                if (ObjectsUtils.equals(taskIdCompMap.get(id), toRemove)) {
                     taskIdCompMap.remove(id);
+                    unIndex(toRemove.getPackageName(), id);
                     Timber.v("Removed: " + id);
                 }
             }
         }
     }
 
+    private void index(String pkg, int taskId) {
+        pkgTaskIdsMap.computeIfAbsent(pkg, k -> Sets.newConcurrentHashSet()).add(taskId);
+    }
+
+    private void unIndex(String pkg, int taskId) {
+        pkgTaskIdsMap.computeIfPresent(pkg, (k, ids) -> {
+            ids.remove(taskId);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
     public String getPackageNameForTaskId(Context context, int taskId) {
         String pkgOfThisTask = null;
         ComponentName targetComp = taskIdCompMap.get(taskId);
@@ -50,25 +108,13 @@ public class TaskMapping {
             pkgOfThisTask = targetComp.getPackageName();
         }
         // Retrieve package name for N and if no task comp got from cache.
-        if (pkgOfThisTask == null) {
-            ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-            // Assume calling pkg has this permission.
-            if (am != null) {
-                List<ActivityManager.RecentTaskInfo> tasks = am.getRecentTasks(99, ActivityManager.RECENT_WITH_EXCLUDED);
-                Timber.v("RecentTaskInfo tasks: %s", tasks);
-                if (tasks != null) {
-                    for (ActivityManager.RecentTaskInfo rc : tasks) {
-                        Timber.v("RecentTaskInfo rc: %s, persistentId: %s", rc, (rc == null ? "" : rc.persistentId));
-                        if (rc != null && rc.persistentId == taskId) {
-                            pkgOfThisTask = PkgUtils.packageNameOf(rc.baseIntent);
-                            Timber.v("RecentTaskInfo pkgOfThisTask: %s", pkgOfThisTask);
-                            if (!TextUtils.isEmpty(pkgOfThisTask) && rc.baseIntent.getComponent() != null) {
-                                // Cache.
-                                taskIdCompMap.put(taskId, rc.baseIntent.getComponent());
-                            }
-                            break;
-                        }
-                    }
+        if (pkgOfThisTask == null && !tracking) {
+            for (ActivityManager.RecentTaskInfo rc : getRecentTasks(context)) {
+                Timber.v("RecentTaskInfo rc: %s, persistentId: %s", rc, rc.persistentId);
+                if (rc.persistentId == taskId) {
+                    pkgOfThisTask = PkgUtils.packageNameOf(rc.baseIntent);
+                    Timber.v("RecentTaskInfo pkgOfThisTask: %s", pkgOfThisTask);
+                    break;
                 }
             }
         }
@@ -77,31 +123,17 @@ public class TaskMapping {
     }
 
     public List<Integer> getTasksIdForPackage(Context context, String packageName) {
-        List<Integer> res = new ArrayList<>();
-        Integer[] tasksId = taskIdCompMap.keySet().toArray(new Integer[0]);
-        for (int id : tasksId) {
-            ComponentName componentName = taskIdCompMap.get(id);
-            if (ObjectsUtils.equals(componentName.getPackageName(), packageName)) {
-                res.add(id);
-            }
-        }
-        if (CollectionUtils.isNullOrEmpty(res)) {
+        Set<Integer> tasksId = packageName == null ? null : pkgTaskIdsMap.get(packageName);
+        List<Integer> res = tasksId == null ? new ArrayList<>() : new ArrayList<>(tasksId);
+        if (CollectionUtils.isNullOrEmpty(res) && !tracking) {
             Timber.w("taskIdCompMap has no task for package: %s, pull from legacy.", packageName);
-            ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-            // Assume calling pkg has this permission.
-            if (am != null) {
-                List<ActivityManager.RecentTaskInfo> tasks = am.getRecentTasks(99, ActivityManager.RECENT_WITH_EXCLUDED);
-                Timber.v("RecentTaskInfo tasks: %s", tasks);
-                if (tasks != null) {
-                    for (ActivityManager.RecentTaskInfo rc : tasks) {
-                        Timber.v("RecentTaskInfo rc: %s, persistentId: %s", rc, (rc == null ? "" : rc.persistentId));
-                        if (rc != null && rc.baseIntent != null) {
-                            String pkgOfThisTask = PkgUtils.packageNameOf(rc.baseIntent);
-                            Timber.v("RecentTaskInfo pkgOfThisTask: %s", pkgOfThisTask);
-                            if (ObjectsUtils.equals(pkgOfThisTask, packageName)) {
-                                res.add(rc.persistentId);
-                            }
-                        }
+            for (ActivityManager.RecentTaskInfo rc : getRecentTasks(context)) {
+                Timber.v("RecentTaskInfo rc: %s, persistentId: %s", rc, rc.persistentId);
+                if (rc.baseIntent != null) {
+                    String pkgOfThisTask = PkgUtils.packageNameOf(rc.baseIntent);
+                    Timber.v("RecentTaskInfo pkgOfThisTask: %s", pkgOfThisTask);
+                    if (ObjectsUtils.equals(pkgOfThisTask, packageName)) {
+                        res.add(rc.persistentId);
                     }
                 }
             }
@@ -110,19 +142,29 @@ public class TaskMapping {
     }
 
     public boolean hasRecentTaskForPkg(Context context, String pkg) {
+        if (tracking) {
+            return hasTrackedTaskForPkg(pkg);
+        }
         return !CollectionUtils.isNullOrEmpty(getTasksIdForPackage(context, pkg));
     }
 
-    public List<Integer> removeTasksFromMapForPackage(String packageName) {
-        Timber.v("removeTasksFromMapForPackage: %s", packageName);
-        List<Integer> res = new ArrayList<>();
-        Integer[] tasksId = taskIdCompMap.keySet().toArray(new Integer[0]);
-        for (int id : tasksId) {
-            ComponentName componentName = taskIdCompMap.get(id);
-            if (ObjectsUtils.equals(componentName.getPackageName(), packageName)) {
-                res.add(id);
-                taskIdCompMap.remove(id);
-                Timber.v("removeTasksFromMapForPackage: %s, removed: %s", packageName, id);
+    // Without the recent tasks fallback, no IPC.
+    public boolean hasTrackedTaskForPkg(String pkg) {
+        return pkg != null && pkgTaskIdsMap.containsKey(pkg);
+    }
+
+    @NonNull
+    private static List<ActivityManager.RecentTaskInfo> getRecentTasks(Context context) {
+        List<ActivityManager.RecentTaskInfo> res = new ArrayList<>();
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        // Assume calling pkg has this permission.
+        if (am != null) {
+            List<ActivityManager.RecentTaskInfo> tasks = am.getRecentTasks(RECENT_TASKS_MAX, ActivityManager.RECENT_WITH_EXCLUDED);
+            Timber.v("RecentTaskInfo tasks: %s", tasks);
+            if (tasks != null) {
+                for (ActivityManager.RecentTaskInfo rc : tasks) {
+                    if (rc != null) res.add(rc);
+                }
             }
         }
         return res;
@@ -28,13 +28,15 @@ class AudioService(private val s: S) : SystemService(), IAudioManager {
 
     fun onRequestAudioFocus(pkgName: String) {
         Timber.v("onRequestAudioFocus: %s", String)
-        currentFocusedPackageName.set(pkgName)
+        val previous = currentFocusedPackageName.getAndSet(pkgName)
+        s.activityManagerService.invalidateBgTaskCleanUpCandidate(previous)
+        s.activityManagerService.invalidateBgTaskCleanUpCandidate(pkgName)
     }
 
     fun onAbandonAudioFocus(pkgName: String) {
         Timber.v("onAbandonAudioFocus: %s", String)
-        if (pkgName == currentFocusedPackageName.get()) {
-            currentFocusedPackageName.set(null)
+        if (currentFocusedPackageName.compareAndSet(pkgName, null)) {
+            s.activityManagerService.invalidateBgTaskCleanUpCandidate(pkgName)
         }
     }
 
@@ -2,11 +2,13 @@ package github.tornaco.android.thanos.services.cmd.shell
 
 import android.os.RemoteException
 import github.tornaco.android.thanos.core.IThanos
+import github.tornaco.android.thanos.core.persist.RepoFactory
 import github.tornaco.android.thanos.core.util.Timber
+import github.tornaco.android.thanos.services.secure.PrivacyService
 import java.io.FileDescriptor
 import java.io.PrintWriter
 
-class ThanosShellCommand(val thanos: IThanos.Stub) : ShellCommandCompat() {
+class ThanosShellCommand(val thanos: IThanos.Stub, val privacy: PrivacyService) : ShellCommandCompat() {
 
     fun dump(
         fd: FileDescriptor?,
@@ -35,6 +37,28 @@ class ThanosShellCommand(val thanos: IThanos.Stub) : ShellCommandCompat() {
             return 0
         }
 
+        if (cmd == "repo") {
+            val pw = outPrintWriter
+            val scheduler = RepoFactory.get().writeScheduler
+            pw.println("queue depth: ${scheduler.queueDepth}")
+            pw.println("batches: ${scheduler.batchCount}")
+            pw.println("batch latency last/avg/max: ${scheduler.lastBatchMills}/${scheduler.averageBatchMills}/${scheduler.maxBatchMills}ms")
+            return 0
+        }
+
+        if (cmd == "privacy") {
+            val pw = outPrintWriter
+            val cache = privacy.getOriginalIdCache()
+            val hits = cache.getHitCount()
+            val misses = cache.getMissCount()
+            val total = hits + misses
+            pw.println("original id cache hits/misses: $hits/$misses")
+            pw.println("original id cache hit ratio: ${if (total == 0L) 0 else hits * 100 / total}%")
+            pw.println("original id refreshes: ${cache.getRefreshCount()}")
+            pw.println("original id failed reads: ${cache.getFailedReadCount()}")
+            return 0
+        }
+
         return 0
     }
 
@@ -48,5 +72,13 @@ class ThanosShellCommand(val thanos: IThanos.Stub) : ShellCommandCompat() {
         pw.println("    version")
         pw.println("        Show thanox core version info.")
         pw.println("")
+
+        pw.println("    repo")
+        pw.println("        Show repo write queue depth and flush latency.")
+        pw.println("")
+
+        pw.println("    privacy")
+        pw.println("        Show original device id cache hit ratio.")
+        pw.println("")
     }
 }
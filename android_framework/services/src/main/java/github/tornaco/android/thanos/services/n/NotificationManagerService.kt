@@ -11,7 +11,7 @@ import github.tornaco.android.thanos.core.n.INotificationObserver
 import github.tornaco.android.thanos.core.n.NotificationRecord
 import github.tornaco.android.thanos.core.persist.RepoFactory
 import github.tornaco.android.thanos.core.persist.StringSetRepo
-import github.tornaco.android.thanos.core.pref.IPrefChangeListener
+import github.tornaco.android.thanos.core.pref.IPrefValueChangeListener
 import github.tornaco.android.thanos.core.util.Noop
 import github.tornaco.android.thanos.core.util.Preconditions
 import github.tornaco.android.thanos.core.util.Timber
@@ -21,7 +21,6 @@ import github.tornaco.android.thanos.services.SystemService
 import github.tornaco.android.thanos.services.ThanosSchedulers
 import github.tornaco.android.thanos.services.apihint.ExecuteBySystemHandler
 import io.reactivex.Completable
-import util.ObjectsUtils
 import java.util.concurrent.ConcurrentHashMap
 
 class NotificationManagerService(private val s: S) : SystemService(), INotificationManager {
@@ -58,15 +57,17 @@ class NotificationManagerService(private val s: S) : SystemService(), INotificat
     }
 
     private fun listenToPrefs() {
-        val listener = object : IPrefChangeListener.Stub() {
-            override fun onPrefChanged(key: String) {
-                if (ObjectsUtils.equals(T.Settings.PREF_SCREEN_ON_NOTIFICATION_ENABLED.key, key)) {
-                    Timber.i("Pref changed, reload.")
-                    readPrefs()
-                }
+        val listener = object : IPrefValueChangeListener.Stub() {
+            override fun onPrefValueChanged(key: String, value: String?) {
+                Timber.i("Pref changed: $key, value: $value")
+                screenOnNotificationEnabled =
+                    T.Settings.PREF_SCREEN_ON_NOTIFICATION_ENABLED.parse(value)
             }
         }
-        s.preferenceManagerService.registerSettingsChangeListener(listener)
+        s.preferenceManagerService.registerSettingsValueChangeListener(
+            arrayOf(T.Settings.PREF_SCREEN_ON_NOTIFICATION_ENABLED.key),
+            listener
+        )
     }
 
     override fun getNotificationRecordsForPackage(packageName: String?): Array<NotificationRecord> {
@@ -90,6 +91,7 @@ class NotificationManagerService(private val s: S) : SystemService(), INotificat
         if (list == null) list = mutableListOf()
         list.add(record)
         notificationRecords[record.pkg] = list
+        s.activityManagerService.invalidateBgTaskCleanUpCandidate(record.pkg)
 
         lightOnScreenIfNeed(record)
 
@@ -115,6 +117,7 @@ class NotificationManagerService(private val s: S) : SystemService(), INotificat
     private fun onRemoveNotificationRecordInternal(record: NotificationRecord) {
         Timber.d("onRemoveNotificationRecordInternal: %s", record)
         notificationRecords.remove(record.pkg)
+        s.activityManagerService.invalidateBgTaskCleanUpCandidate(record.pkg)
 
         notifyRemoveNotification(record)
     }
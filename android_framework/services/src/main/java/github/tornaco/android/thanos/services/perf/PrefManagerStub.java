@@ -1,6 +1,7 @@
 package github.tornaco.android.thanos.services.perf;
 
 import github.tornaco.android.thanos.core.pref.IPrefManager;
+import github.tornaco.android.thanos.core.pref.IPrefValueChangeListener;
 
 public class PrefManagerStub extends IPrefManager.Stub {
 
@@ -49,4 +50,19 @@ public class PrefManagerStub extends IPrefManager.Stub {
     public boolean putLong(String name, long value) {
         return provider.putLong(name, value);
     }
+
+    @Override
+    public boolean putAll(String[] names, String[] values) {
+        return provider.putAll(names, values);
+    }
+
+    @Override
+    public boolean registerSettingsValueChangeListener(String[] keys, IPrefValueChangeListener listener) {
+        return provider.registerSettingsValueChangeListener(keys, listener);
+    }
+
+    @Override
+    public boolean unRegisterSettingsValueChangeListener(IPrefValueChangeListener listener) {
+        return provider.unRegisterSettingsValueChangeListener(listener);
+    }
 }
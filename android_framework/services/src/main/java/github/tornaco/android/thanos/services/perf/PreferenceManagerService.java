@@ -5,6 +5,7 @@ import android.os.IBinder;
 import github.tornaco.android.thanos.core.T;
 import github.tornaco.android.thanos.core.pref.IPrefChangeListener;
 import github.tornaco.android.thanos.core.pref.IPrefManager;
+import github.tornaco.android.thanos.core.pref.IPrefValueChangeListener;
 import github.tornaco.android.thanos.services.SystemService;
 
 import java.io.File;
@@ -82,6 +83,21 @@ public class PreferenceManagerService extends SystemService implements IPrefMana
         return provider.unRegisterSettingsChangeListener(listener);
     }
 
+    @Override
+    public boolean putAll(String[] names, String[] values) {
+        return provider.putAll(names, values);
+    }
+
+    @Override
+    public boolean registerSettingsValueChangeListener(String[] keys, IPrefValueChangeListener listener) {
+        return provider.registerSettingsValueChangeListener(keys, listener);
+    }
+
+    @Override
+    public boolean unRegisterSettingsValueChangeListener(IPrefValueChangeListener listener) {
+        return provider.unRegisterSettingsValueChangeListener(listener);
+    }
+
     public static SettingsProvider newInstance(String path) {
         return SettingsProvider.newInstance(path);
     }
@@ -0,0 +1,25 @@
+package github.tornaco.android.thanos.services.perf;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Write policy of one settings store.
+ * <p>
+ * Writes are debounced by {@link #writeDelayMills}, capped by {@link #maxWriteDelayMills}.
+ * When mutations keep coming right after each write, rule driven bursts for example,
+ * both are doubled per write up to {@link #maxBackoffWriteDelayMills}, and reset after a quiet window.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public final class SettingsPersistPolicy {
+
+    public static final SettingsPersistPolicy DEFAULT = new SettingsPersistPolicy(
+            200, 2000, 10 * 1000);
+
+    private final long writeDelayMills;
+    private final long maxWriteDelayMills;
+    private final long maxBackoffWriteDelayMills;
+}
@@ -3,12 +3,19 @@ package github.tornaco.android.thanos.services.perf;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.RemoteCallbackList;
+import android.text.TextUtils;
 import android.util.Log;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import github.tornaco.android.thanos.core.pref.IPrefChangeListener;
+import github.tornaco.android.thanos.core.pref.IPrefValueChangeListener;
 import github.tornaco.android.thanos.services.ThanosSchedulers;
 import io.reactivex.Completable;
 import io.reactivex.Scheduler;
@@ -30,45 +37,138 @@ public class SettingsProvider {
     private final Scheduler scheduler;
 
     private final RemoteCallbackList<IPrefChangeListener> prefChangeListenerRemoteCallbackList = new RemoteCallbackList<>();
+    // Cookie is the KeyFilter of each listener.
+    private final RemoteCallbackList<IPrefValueChangeListener> prefValueChangeListenerRemoteCallbackList = new RemoteCallbackList<>();
 
-    private SettingsProvider(String path, int key) {
+    // Parsed values, absent ones included, read without the lock.
+    // Filled and replaced under the lock only, so it never holds a value older than the state.
+    private final Map<String, Value> valueCache = new ConcurrentHashMap<>();
+
+    private SettingsProvider(String path, int key, SettingsPersistPolicy policy) {
 
         HandlerThread stateThread = new HandlerThread("SettingsProvider#" + path);
         stateThread.start();
         Looper stateLooper = stateThread.getLooper();
         scheduler = ThanosSchedulers.from(stateLooper);
 
-        initSettingsState(stateLooper, path, key);
+        initSettingsState(stateLooper, path, key, policy);
     }
 
-    private void initSettingsState(Looper looper, String path, int key) {
+    private void initSettingsState(Looper looper, String path, int key, SettingsPersistPolicy policy) {
         settingsState = new SettingsState(lock,
                 new File(path),
                 key,
                 -1, // No limit.
-                looper);
+                looper,
+                policy);
     }
 
     private boolean insertSettingLocked(final String name, String value) {
         synchronized (lock) {
             boolean res = settingsState.insertSettingLocked(name, value, "tornaco", true, "android");
             if (res) {
-                Completable.fromRunnable(() -> notifySettingsChangeListener(name))
-                        .subscribeOn(scheduler)
-                        .subscribe();
+                valueCache.put(name, Value.of(readSettingLocked(name)));
+                notifySettingsChangeListenerAsync(new String[]{name}, new String[]{value});
             }
             return res;
         }
     }
 
-    private String getSettingLocked(String name) {
+    /**
+     * Apply all or nothing, under one lock acquisition, so readers never see half of it.
+     * If one entry fails, those already applied are restored before the lock is released.
+     * The state is written once, and listeners get one notification carrying every changed key.
+     *
+     * @return false if nothing was applied, the names are invalid for example.
+     */
+    public boolean putAll(String[] names, String[] values) {
+        if (names == null || values == null || names.length != values.length) {
+            return false;
+        }
+        for (String name : names) {
+            if (TextUtils.isEmpty(name)) return false;
+        }
         synchronized (lock) {
-            SettingsState.Setting setting = settingsState.getSettingLocked(name);
-            if (setting.isNull()) {
-                return null;
+            String[] oldValues = new String[names.length];
+            // Entries whose old value is known, the failed one included.
+            int touched = 0;
+            try {
+                List<String> changedNames = new ArrayList<>(names.length);
+                List<String> changedValues = new ArrayList<>(names.length);
+                for (int i = 0; i < names.length; i++) {
+                    oldValues[i] = readSettingLocked(names[i]);
+                    touched++;
+                    // The state is dirty after the first change, the rest join its pending write.
+                    if (settingsState.insertSettingLocked(names[i], values[i], "tornaco", true, "android")) {
+                        valueCache.put(names[i], Value.of(readSettingLocked(names[i])));
+                        changedNames.add(names[i]);
+                        changedValues.add(values[i]);
+                    }
+                }
+                if (!changedNames.isEmpty()) {
+                    notifySettingsChangeListenerAsync(
+                            changedNames.toArray(new String[0]),
+                            changedValues.toArray(new String[0]));
+                }
+                return true;
+            } catch (Throwable e) {
+                Log.e(TAG, "putAll, roll back " + touched + " entries: " + Log.getStackTraceString(e));
+                rollbackLocked(names, oldValues, touched);
+                return false;
+            }
+        }
+    }
+
+    // Newest first, so a name put twice ends up with its value before the first put.
+    private void rollbackLocked(String[] names, String[] oldValues, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            try {
+                if (oldValues[i] == null) {
+                    settingsState.deleteSettingLocked(names[i]);
+                } else {
+                    settingsState.insertSettingLocked(names[i], oldValues[i], "tornaco", true, "android");
+                }
+            } catch (Throwable e) {
+                Log.e(TAG, "putAll, fail roll back: " + names[i] + Log.getStackTraceString(e));
+            }
+            valueCache.put(names[i], Value.of(readSettingLocked(names[i])));
+        }
+    }
+
+    private void notifySettingsChangeListenerAsync(String[] names, String[] values) {
+        Completable.fromRunnable(() -> notifySettingsChangeListener(names, values))
+                .subscribeOn(scheduler)
+                .subscribe();
+    }
+
+    private String getSettingValue(String name) {
+        return getValue(name).raw;
+    }
+
+    private Value getValue(String name) {
+        if (name == null) {
+            return Value.ABSENT;
+        }
+        Value cached = valueCache.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        synchronized (lock) {
+            cached = valueCache.get(name);
+            if (cached == null) {
+                cached = Value.of(readSettingLocked(name));
+                valueCache.put(name, cached);
             }
-            return setting.getValue();
+            return cached;
+        }
+    }
+
+    private String readSettingLocked(String name) {
+        SettingsState.Setting setting = settingsState.getSettingLocked(name);
+        if (setting.isNull()) {
+            return null;
         }
+        return setting.getValue();
     }
 
     public List<String> getSettingNames() {
@@ -88,7 +188,7 @@ public class SettingsProvider {
 
     public String getString(String name, String def) {
         try {
-            String res = getSettingLocked(name);
+            String res = getSettingValue(name);
             if (res == null) return def;
             return res;
         } catch (Throwable e) {
@@ -102,29 +202,13 @@ public class SettingsProvider {
     }
 
     public int getInt(String name, int def) {
-        try {
-            String s = getString(name, null);
-            if (s == null) {
-                return def;
-            }
-            return Integer.parseInt(s);
-        } catch (Throwable e) {
-            Log.e(TAG, "getInt" + Log.getStackTraceString(e));
-            return def;
-        }
+        Value v = getValue(name);
+        return v.intValue == null ? def : v.intValue;
     }
 
     public boolean getBoolean(String name, boolean def) {
-        String v = getSettingLocked(name);
-        if (v == null) {
-            return def;
-        }
-        try {
-            return Boolean.parseBoolean(v);
-        } catch (Throwable e) {
-            Log.e(TAG, "getBoolean" + Log.getStackTraceString(e));
-            return def;
-        }
+        Value v = getValue(name);
+        return v.raw == null ? def : v.boolValue;
     }
 
     public boolean putBoolean(String name, boolean value) {
@@ -137,16 +221,8 @@ public class SettingsProvider {
     }
 
     public long getLong(String name, long def) {
-        String v = getSettingLocked(name);
-        if (v == null) {
-            return def;
-        }
-        try {
-            return Long.parseLong(v);
-        } catch (Throwable e) {
-            Log.e(TAG, "getLong" + Log.getStackTraceString(e));
-            return def;
-        }
+        Value v = getValue(name);
+        return v.longValue == null ? def : v.longValue;
     }
 
     public boolean putLong(String name, long value) {
@@ -166,15 +242,34 @@ public class SettingsProvider {
         return listener != null && prefChangeListenerRemoteCallbackList.unregister(listener);
     }
 
+    /**
+     * Only changes of the given keys are delivered, with the new value, so a listener
+     * does not have to re-read all its prefs on every change.
+     * Register again to change the keys.
+     *
+     * @param keys key, or key prefix ending with {@link KeyFilter#WILDCARD}.
+     */
+    public boolean registerSettingsValueChangeListener(String[] keys, IPrefValueChangeListener listener) {
+        return listener != null && keys != null && keys.length > 0
+                && prefValueChangeListenerRemoteCallbackList.register(listener, new KeyFilter(keys));
+    }
+
+    public boolean unRegisterSettingsValueChangeListener(IPrefValueChangeListener listener) {
+        return listener != null && prefValueChangeListenerRemoteCallbackList.unregister(listener);
+    }
+
     @Synchronized
-    private void notifySettingsChangeListener(String name) {
+    private void notifySettingsChangeListener(String[] names, String[] values) {
+        notifySettingsValueChangeListener(names, values);
         try {
             int itemCount = prefChangeListenerRemoteCallbackList.beginBroadcast();
             for (int i = 0; i < itemCount; i++) {
                 try {
                     IPrefChangeListener listener = prefChangeListenerRemoteCallbackList.getBroadcastItem(i);
                     try {
-                        listener.onPrefChanged(name);
+                        for (String name : names) {
+                            listener.onPrefChanged(name);
+                        }
                     } catch (Throwable e) {
                         Log.wtf(TAG, "notifySettingsChangeListener fail call onChange! "
                                 + Log.getStackTraceString(e));
@@ -192,7 +287,105 @@ public class SettingsProvider {
         }
     }
 
+    private void notifySettingsValueChangeListener(String[] names, String[] values) {
+        try {
+            int itemCount = prefValueChangeListenerRemoteCallbackList.beginBroadcast();
+            for (int i = 0; i < itemCount; i++) {
+                try {
+                    KeyFilter filter = (KeyFilter) prefValueChangeListenerRemoteCallbackList.getBroadcastCookie(i);
+                    IPrefValueChangeListener listener = prefValueChangeListenerRemoteCallbackList.getBroadcastItem(i);
+                    for (int k = 0; k < names.length; k++) {
+                        if (filter.matches(names[k])) {
+                            listener.onPrefValueChanged(names[k], values[k]);
+                        }
+                    }
+                } catch (Throwable e) {
+                    Log.wtf(TAG, "notifySettingsValueChangeListener fail call onChange! "
+                            + Log.getStackTraceString(e));
+                }
+            }
+        } catch (Throwable e) {
+            Log.wtf(TAG, "notifySettingsValueChangeListener err: "
+                    + Log.getStackTraceString(e));
+        } finally {
+            prefValueChangeListenerRemoteCallbackList.finishBroadcast();
+        }
+    }
+
     public static SettingsProvider newInstance(String path) {
-        return new SettingsProvider(path, path.hashCode());
+        return newInstance(path, SettingsPersistPolicy.DEFAULT);
+    }
+
+    public static SettingsProvider newInstance(String path, SettingsPersistPolicy policy) {
+        return new SettingsProvider(path, path.hashCode(), policy);
+    }
+
+    /**
+     * Keys a listener is interested in, exact ones are looked up, prefixes are scanned.
+     */
+    private static final class KeyFilter {
+        static final String WILDCARD = "*";
+
+        private final Set<String> keys = new HashSet<>();
+        private final List<String> prefixes = new ArrayList<>();
+
+        KeyFilter(String[] keys) {
+            for (String key : keys) {
+                if (key == null) continue;
+                if (key.endsWith(WILDCARD)) {
+                    prefixes.add(key.substring(0, key.length() - WILDCARD.length()));
+                } else {
+                    this.keys.add(key);
+                }
+            }
+        }
+
+        boolean matches(String name) {
+            if (keys.contains(name)) return true;
+            for (String prefix : prefixes) {
+                if (name.startsWith(prefix)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A setting value parsed to each type once.
+     */
+    private static final class Value {
+        static final Value ABSENT = new Value(null);
+
+        final String raw;
+        final boolean boolValue;
+        // Null if absent or not a number.
+        final Integer intValue;
+        final Long longValue;
+
+        private Value(String raw) {
+            this.raw = raw;
+            this.boolValue = Boolean.parseBoolean(raw);
+            this.intValue = raw == null ? null : parseInt(raw);
+            this.longValue = raw == null ? null : parseLong(raw);
+        }
+
+        static Value of(String raw) {
+            return raw == null ? ABSENT : new Value(raw);
+        }
+
+        private static Integer parseInt(String raw) {
+            try {
+                return Integer.parseInt(raw);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static Long parseLong(String raw) {
+            try {
+                return Long.parseLong(raw);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
     }
 }
@@ -31,8 +31,8 @@ import com.android.internal.annotations.GuardedBy;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlSerializer;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -42,14 +42,15 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
+import github.tornaco.android.thanos.core.persist.BinarySnapshot;
 import util.IoUtils;
 import util.ObjectsUtils;
 
 
 /**
  * This class contains the state for one type of settings. It is responsible
- * for saving the state asynchronously to an XML file after a mutation and
- * loading the global an XML file on construction.
+ * for saving the state asynchronously to a binary snapshot file after a mutation and
+ * loading it on construction, a legacy XML file is read once and rewritten as a snapshot.
  * <p>
  * This class uses the same lock as the settings provider to ensure that
  * multiple changes made by the settings provider, e,g, upgrade, bulk insert,
@@ -67,9 +68,6 @@ final class SettingsState {
 
     private static final int SETTINGS_VERSION_NEW_ENCODING = 121;
 
-    private static final long WRITE_SETTINGS_DELAY_MILLIS = 200;
-    private static final long MAX_WRITE_SETTINGS_DELAY_MILLIS = 2000;
-
     private static final int MAX_BYTES_PER_APP_PACKAGE_UNLIMITED = -1;
     private static final int MAX_BYTES_PER_APP_PACKAGE_LIMITED = 20000;
 
@@ -100,6 +98,16 @@ final class SettingsState {
     private static final String ATTR_VALUE_BASE64 = "valueBase64";
     private static final String ATTR_DEFAULT_VALUE_BASE64 = "defaultValueBase64";
 
+    // Columns of the binary snapshot, the xml above is only read to migrate.
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_NAME = 1;
+    private static final int COLUMN_VALUE = 2;
+    private static final int COLUMN_PACKAGE = 3;
+    private static final int COLUMN_DEFAULT_VALUE = 4;
+    private static final int COLUMN_DEFAULT_SYS_SET = 5;
+    private static final int COLUMN_TAG = 6;
+    private static final int SNAPSHOT_COLUMNS = 7;
+
     // This was used in version 120 and before.
     private static final String NULL_VALUE_OLD_STYLE = "null";
 
@@ -140,6 +148,8 @@ final class SettingsState {
         }
     };
 
+    private final SettingsPersistPolicy mPolicy;
+
     @GuardedBy("mLock")
     private final List<HistoricalOperation> mHistoricalOperations;
 
@@ -161,11 +171,21 @@ final class SettingsState {
     @GuardedBy("mLock")
     private long mNextId;
 
+    // Debounce window in use, widened by the backoff.
+    @GuardedBy("mLock")
+    private long mWriteDelayMillis;
+
+    @GuardedBy("mLock")
+    private long mMaxWriteDelayMillis;
+
+    @GuardedBy("mLock")
+    private long mLastWriteTimeMillis;
+
     @GuardedBy("mLock")
     private int mNextHistoricalOpIdx;
 
     SettingsState(Object lock, File file, int key,
-                  int maxBytesPerAppPackage, Looper looper) {
+                  int maxBytesPerAppPackage, Looper looper, SettingsPersistPolicy policy) {
         // It is important that we use the same lock as the settings provider
         // to ensure multiple mutations on this state are atomicaly persisted
         // as the async persistence should be blocked while we make changes.
@@ -181,8 +201,11 @@ final class SettingsState {
             mPackageToMemoryUsage = null;
         }
 
+        mPolicy = policy;
         mHistoricalOperations = false
                 ? new ArrayList<HistoricalOperation>(HISTORICAL_OPERATION_COUNT) : null;
+        mWriteDelayMillis = policy.getWriteDelayMills();
+        mMaxWriteDelayMillis = policy.getMaxWriteDelayMills();
 
         synchronized (mLock) {
             readStateSyncLocked();
@@ -417,10 +440,26 @@ final class SettingsState {
         // If dirty then we have a write already scheduled.
         if (!mDirty) {
             mDirty = true;
+            updateWriteBackoffLocked();
             writeStateAsyncLocked();
         }
     }
 
+    // Called on the first mutation after a write.
+    private void updateWriteBackoffLocked() {
+        final long sinceLastWriteMillis = SystemClock.uptimeMillis() - mLastWriteTimeMillis;
+        if (mLastWriteTimeMillis > 0 && sinceLastWriteMillis < mMaxWriteDelayMillis) {
+            // Still churning, wait longer so a burst costs fewer whole file writes.
+            final long ceiling = Math.max(mPolicy.getMaxBackoffWriteDelayMills(),
+                    mPolicy.getMaxWriteDelayMills());
+            mMaxWriteDelayMillis = Math.min(mMaxWriteDelayMillis * 2, ceiling);
+            mWriteDelayMillis = Math.min(mWriteDelayMillis * 2, mMaxWriteDelayMillis);
+        } else {
+            mWriteDelayMillis = mPolicy.getWriteDelayMills();
+            mMaxWriteDelayMillis = mPolicy.getMaxWriteDelayMills();
+        }
+    }
+
     private void writeStateAsyncLocked() {
         final long currentTimeMillis = SystemClock.uptimeMillis();
 
@@ -430,22 +469,22 @@ final class SettingsState {
             // If enough time passed, write without holding off anymore.
             final long timeSinceLastNotWrittenMutationMillis = currentTimeMillis
                     - mLastNotWrittenMutationTimeMillis;
-            if (timeSinceLastNotWrittenMutationMillis >= MAX_WRITE_SETTINGS_DELAY_MILLIS) {
+            if (timeSinceLastNotWrittenMutationMillis >= mMaxWriteDelayMillis) {
                 mHandler.obtainMessage(MyHandler.MSG_PERSIST_SETTINGS).sendToTarget();
                 return;
             }
 
             // Hold off a bit more as settings are frequently changing.
             final long maxDelayMillis = Math.max(mLastNotWrittenMutationTimeMillis
-                    + MAX_WRITE_SETTINGS_DELAY_MILLIS - currentTimeMillis, 0);
-            final long writeDelayMillis = Math.min(WRITE_SETTINGS_DELAY_MILLIS, maxDelayMillis);
+                    + mMaxWriteDelayMillis - currentTimeMillis, 0);
+            final long writeDelayMillis = Math.min(mWriteDelayMillis, maxDelayMillis);
 
             Message message = mHandler.obtainMessage(MyHandler.MSG_PERSIST_SETTINGS);
             mHandler.sendMessageDelayed(message, writeDelayMillis);
         } else {
             mLastNotWrittenMutationTimeMillis = currentTimeMillis;
             Message message = mHandler.obtainMessage(MyHandler.MSG_PERSIST_SETTINGS);
-            mHandler.sendMessageDelayed(message, WRITE_SETTINGS_DELAY_MILLIS);
+            mHandler.sendMessageDelayed(message, mWriteDelayMillis);
             mWriteScheduled = true;
         }
     }
@@ -460,6 +499,7 @@ final class SettingsState {
             settings = new ArrayMap<>(mSettings);
             mDirty = false;
             mWriteScheduled = false;
+            mLastWriteTimeMillis = SystemClock.uptimeMillis();
         }
 
         synchronized (mWriteLock) {
@@ -472,30 +512,33 @@ final class SettingsState {
             try {
                 out = destination.startWrite();
 
-                XmlSerializer serializer = Xml.newSerializer();
-                serializer.setOutput(out, StandardCharsets.UTF_8.name());
-                serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output",
-                        true);
-                serializer.startDocument(null, true);
-                serializer.startTag(null, TAG_SETTINGS);
-                serializer.attribute(null, ATTR_VERSION, String.valueOf(version));
-
                 final int settingCount = settings.size();
+                List<String[]> rows = new ArrayList<>(settingCount);
                 for (int i = 0; i < settingCount; i++) {
                     Setting setting = settings.valueAt(i);
-
-                    writeSingleSetting(mVersion, serializer, setting.getId(), setting.getName(),
-                            setting.getValue(), setting.getDefaultValue(), setting.getPackageName(),
-                            setting.getTag(), setting.isDefaultFromSystem());
+                    if (setting.getId() == null || setting.getName() == null
+                            || setting.getPackageName() == null) {
+                        // This shouldn't happen.
+                        continue;
+                    }
+                    boolean hasDefault = setting.getDefaultValue() != null;
+                    String[] row = new String[SNAPSHOT_COLUMNS];
+                    row[COLUMN_ID] = setting.getId();
+                    row[COLUMN_NAME] = setting.getName();
+                    row[COLUMN_VALUE] = setting.getValue();
+                    row[COLUMN_PACKAGE] = setting.getPackageName();
+                    row[COLUMN_DEFAULT_VALUE] = setting.getDefaultValue();
+                    row[COLUMN_DEFAULT_SYS_SET] = hasDefault
+                            ? Boolean.toString(setting.isDefaultFromSystem()) : null;
+                    row[COLUMN_TAG] = hasDefault ? setting.getTag() : null;
+                    rows.add(row);
 
                     if (DEBUG_PERSISTENCE) {
                         Slog.i(LOG_TAG, "[PERSISTED]" + setting.getName() + "="
                                 + setting.getValue());
                     }
                 }
-
-                serializer.endTag(null, TAG_SETTINGS);
-                serializer.endDocument();
+                BinarySnapshot.writeTable(version, SNAPSHOT_COLUMNS, rows, out);
                 destination.finishWrite(out);
 
                 wroteState = true;
@@ -518,50 +561,6 @@ final class SettingsState {
         }
     }
 
-    private static void writeSingleSetting(int version, XmlSerializer serializer, String id,
-                                           String name, String value, String defaultValue, String packageName,
-                                           String tag, boolean defaultSysSet) throws IOException {
-        if (id == null || isBinary(id) || name == null || isBinary(name)
-                || packageName == null || isBinary(packageName)) {
-            // This shouldn't happen.
-            return;
-        }
-        serializer.startTag(null, TAG_SETTING);
-        serializer.attribute(null, ATTR_ID, id);
-        serializer.attribute(null, ATTR_NAME, name);
-        setValueAttribute(ATTR_VALUE, ATTR_VALUE_BASE64,
-                version, serializer, value);
-        serializer.attribute(null, ATTR_PACKAGE, packageName);
-        if (defaultValue != null) {
-            setValueAttribute(ATTR_DEFAULT_VALUE, ATTR_DEFAULT_VALUE_BASE64,
-                    version, serializer, defaultValue);
-            serializer.attribute(null, ATTR_DEFAULT_SYS_SET, Boolean.toString(defaultSysSet));
-            setValueAttribute(ATTR_TAG, ATTR_TAG_BASE64,
-                    version, serializer, tag);
-        }
-        serializer.endTag(null, TAG_SETTING);
-    }
-
-    private static void setValueAttribute(String attr, String attrBase64, int version,
-                                          XmlSerializer serializer, String value) throws IOException {
-        if (version >= SETTINGS_VERSION_NEW_ENCODING) {
-            if (value == null) {
-                // Null value -> No ATTR_VALUE nor ATTR_VALUE_BASE64.
-            } else if (isBinary(value)) {
-                serializer.attribute(null, attrBase64, base64Encode(value));
-            } else {
-                serializer.attribute(null, attr, value);
-            }
-        } else {
-            // Old encoding.
-            if (value == null) {
-                serializer.attribute(null, attr, NULL_VALUE_OLD_STYLE);
-            } else {
-                serializer.attribute(null, attr, value);
-            }
-        }
-    }
-
     private String getValueAttribute(XmlPullParser parser, String attr, String base64Attr) {
         if (mVersion >= SETTINGS_VERSION_NEW_ENCODING) {
             final String value = parser.getAttributeValue(null, attr);
@@ -601,9 +600,16 @@ final class SettingsState {
             return;
         }
         try {
-            XmlPullParser parser = Xml.newPullParser();
-            parser.setInput(in, StandardCharsets.UTF_8.name());
-            parseStateLocked(parser);
+            byte[] data = BinarySnapshot.readAll(in);
+            if (BinarySnapshot.isSnapshot(data)) {
+                parseSnapshotLocked(BinarySnapshot.readTable(data));
+            } else {
+                XmlPullParser parser = Xml.newPullParser();
+                parser.setInput(new ByteArrayInputStream(data), StandardCharsets.UTF_8.name());
+                parseStateLocked(parser);
+                // Legacy xml, rewrite it as a snapshot.
+                scheduleWriteIfNeededLocked();
+            }
         } catch (XmlPullParserException | IOException e) {
             String message = "Failed parsing settings file: " + mStatePersistFile;
             Slog.wtf(LOG_TAG, message);
@@ -613,6 +619,23 @@ final class SettingsState {
         }
     }
 
+    private void parseSnapshotLocked(BinarySnapshot.Table table) {
+        mVersion = table.meta;
+        for (String[] row : table.rows) {
+            String name = row[COLUMN_NAME];
+            String defaultValue = row[COLUMN_DEFAULT_VALUE];
+            boolean fromSystem = defaultValue != null
+                    && Boolean.parseBoolean(row[COLUMN_DEFAULT_SYS_SET]);
+            String tag = defaultValue != null ? row[COLUMN_TAG] : null;
+            mSettings.put(name, new Setting(name, row[COLUMN_VALUE], defaultValue,
+                    row[COLUMN_PACKAGE], tag, fromSystem, row[COLUMN_ID]));
+
+            if (DEBUG_PERSISTENCE) {
+                Slog.i(LOG_TAG, "[RESTORED] " + name + "=" + row[COLUMN_VALUE]);
+            }
+        }
+    }
+
     private void parseStateLocked(XmlPullParser parser)
             throws IOException, XmlPullParserException {
         final int outerDepth = parser.getDepth();
@@ -853,29 +876,6 @@ final class SettingsState {
         }
     }
 
-    /**
-     * @return TRUE if a string is considered "binary" global KXML's point of view.  NOTE DO NOT
-     * pass null.
-     */
-    private static boolean isBinary(String s) {
-        if (s == null) {
-            throw new NullPointerException();
-        }
-        // See KXmlSerializer.writeEscaped
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            boolean allowedInXml = (c >= 0x20 && c <= 0xd7ff) || (c >= 0xe000 && c <= 0xfffd);
-            if (!allowedInXml) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private static String base64Encode(String s) {
-        return Base64.encodeToString(toBytes(s), Base64.NO_WRAP);
-    }
-
     private static String base64Decode(String s) {
         return fromBytes(Base64.decode(s, Base64.DEFAULT));
     }
@@ -884,17 +884,6 @@ final class SettingsState {
     // contents as-is, even if it contains broken surrogate pairs, we do it by ourselves,
     // since I don't know how Charset would treat them.
 
-    private static byte[] toBytes(String s) {
-        final byte[] result = new byte[s.length() * 2];
-        int resultIndex = 0;
-        for (int i = 0; i < s.length(); ++i) {
-            char ch = s.charAt(i);
-            result[resultIndex++] = (byte) (ch >> 8);
-            result[resultIndex++] = (byte) ch;
-        }
-        return result;
-    }
-
     private static String fromBytes(byte[] bytes) {
         final StringBuffer sb = new StringBuffer(bytes.length / 2);
 
@@ -0,0 +1,97 @@
+package github.tornaco.android.thanos.services.pm;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import github.tornaco.android.thanos.core.annotation.Nullable;
+
+/**
+ * Process wide intern table, package name to a small int id, and uid to its packages.
+ * <p>
+ * Ids are never reused in the lifetime of system_server, so tables keyed by id
+ * can outlive an uninstall without aliasing another package.
+ * Kept in sync by {@link PkgManagerService}.
+ */
+public class PkgIdTable {
+
+    public static final int NO_ID = -1;
+
+    private final Map<String, Integer> pkgIds = new ConcurrentHashMap<>();
+    // Grow under lock, elements are published before the id is put into pkgIds.
+    private volatile String[] pkgNames = new String[256];
+    private int nextId = 0;
+
+    private final Map<Integer, String[]> uidPkgs = new ConcurrentHashMap<>();
+
+    /**
+     * Intern this package, use it when creating an entry.
+     */
+    public int idOf(String pkg) {
+        if (pkg == null) return NO_ID;
+        Integer id = pkgIds.get(pkg);
+        if (id != null) return id;
+        synchronized (this) {
+            id = pkgIds.get(pkg);
+            if (id != null) return id;
+            int newId = nextId++;
+            String[] names = pkgNames;
+            if (newId >= names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[newId] = pkg;
+            pkgNames = names;
+            pkgIds.put(pkg, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * Look up only, use it on lookup paths, a package never interned has no entry anywhere.
+     */
+    public int peekId(String pkg) {
+        if (pkg == null) return NO_ID;
+        Integer id = pkgIds.get(pkg);
+        return id == null ? NO_ID : id;
+    }
+
+    @Nullable
+    public String pkgOf(int id) {
+        String[] names = pkgNames;
+        return id < 0 || id >= names.length ? null : names[id];
+    }
+
+    public int size() {
+        return pkgIds.size();
+    }
+
+    /**
+     * Key of a (package, sub) pair, op code or slot index for example.
+     */
+    public static long key(int pkgId, int sub) {
+        return ((long) pkgId << 32) | (sub & 0xFFFFFFFFL);
+    }
+
+    public static int pkgIdOfKey(long key) {
+        return (int) (key >>> 32);
+    }
+
+    /**
+     * The returned array is shared, do not modify.
+     */
+    @Nullable
+    public String[] pkgsForUid(int uid) {
+        return uidPkgs.get(uid);
+    }
+
+    void setPkgsForUid(int uid, @Nullable String[] pkgs) {
+        if (pkgs == null || pkgs.length == 0) {
+            uidPkgs.remove(uid);
+            return;
+        }
+        for (String pkg : pkgs) {
+            idOf(pkg);
+        }
+        uidPkgs.put(uid, pkgs);
+    }
+}
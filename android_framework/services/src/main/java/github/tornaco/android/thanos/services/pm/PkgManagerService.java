@@ -7,10 +7,10 @@ import android.os.IBinder;
 import android.os.UserHandle;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 import github.tornaco.android.thanos.BuildProp;
 import github.tornaco.android.thanos.core.T;
@@ -31,22 +31,28 @@ import lombok.Getter;
 import lombok.val;
 
 public class PkgManagerService extends ThanoxSystemService implements IPkgManager {
+    private static final String[] ANDROID_PKG_ARR = new String[]{PackageManager.packageNameOfAndroid()};
+
     @Getter
     @Nullable
     private Optional<PkgPool> pkgCache;
 
+    private final PkgIdTable pkgIdTable = new PkgIdTable();
+
     @Getter
     private final PackageMonitor monitor = new PackageMonitor() {
         @Override
         public void onPackageAdded(String packageName, int uid) {
             super.onPackageAdded(packageName, uid);
             pkgCache.ifPresent(pkgPool -> pkgPool.addOrUpdate(packageName));
+            syncPkgIdTable(uid);
         }
 
         @Override
         public void onPackageRemoved(String packageName, int uid) {
             super.onPackageRemoved(packageName, uid);
             pkgCache.ifPresent(pkgPool -> pkgPool.remove(packageName));
+            syncPkgIdTable(uid);
             if (Objects.equals(packageName, BuildProp.THANOS_APP_PKG_NAME)) {
                 onThanoxAppPackageRemoved();
             }
@@ -55,6 +61,7 @@ public class PkgManagerService extends ThanoxSystemService implements IPkgManage
         @Override
         public boolean onPackageChanged(String packageName, int uid, String[] components) {
             pkgCache.ifPresent(pkgPool -> pkgPool.addOrUpdate(packageName));
+            syncPkgIdTable(uid);
             return super.onPackageChanged(packageName, uid, components);
         }
     };
@@ -73,6 +80,11 @@ public class PkgManagerService extends ThanoxSystemService implements IPkgManage
         super.systemReady();
         this.pkgCache = Optional.of(new PkgPool(getContext()));
         this.pkgCache.ifPresent(PkgPool::invalidateAll);
+        this.pkgCache.ifPresent(pkgPool -> {
+            for (Integer uid : pkgPool.getUid2PkgMap().keySet()) {
+                syncPkgIdTable(uid);
+            }
+        });
         getMonitor().register(getContext(), UserHandle.CURRENT, true, BackgroundThread.getHandler());
     }
 
@@ -86,19 +98,22 @@ public class PkgManagerService extends ThanoxSystemService implements IPkgManage
     public String[] getPkgNameForUid(int uid) {
         // If this is system@1000, return 'android'
         if (PkgUtils.isSystemCall(uid)) {
-            return new String[]{PackageManager.packageNameOfAndroid()};
+            return ANDROID_PKG_ARR;
         }
         // If this is system/phone...etc <=2000, return 'android'
         if (PkgUtils.isSystemOrPhoneOrShell(uid)) {
-            return new String[]{PackageManager.packageNameOfAndroid()};
+            return ANDROID_PKG_ARR;
         }
         if (!pkgCache.isPresent()) {
             return null;
         }
-        val pool = pkgCache.get();
-        return pool.getUid2PkgMap().containsKey(uid)
-                ? pool.getUid2PkgMap().get(uid).toArray(new String[0])
-                : null;
+        // Shared, no copy per call.
+        return pkgIdTable.pkgsForUid(uid);
+    }
+
+    // Explicit getter, used from kotlin services which do not see lombok ones.
+    public PkgIdTable getPkgIdTable() {
+        return pkgIdTable;
     }
 
     @Nullable
@@ -136,36 +151,7 @@ public class PkgManagerService extends ThanoxSystemService implements IPkgManage
         if (!pkgCache.isPresent()) {
             return new AppInfo[0];
         }
-        val pool = pkgCache.get();
-        List<AppInfo> res = new ArrayList<>();
-        if ((flags & AppInfo.FLAGS_SYSTEM) != 0) {
-            res.addAll(pool.getSystemApps());
-            Timber.d("getInstalledPkgs, adding FLAGS_SYSTEM");
-        }
-        if ((flags & AppInfo.FLAGS_SYSTEM_MEDIA) != 0) {
-            res.addAll(pool.getMediaUidApps());
-            Timber.d("getInstalledPkgs, adding FLAGS_SYSTEM_MEDIA");
-        }
-        if ((flags & AppInfo.FLAGS_SYSTEM_PHONE) != 0) {
-            res.addAll(pool.getPhoneUidApps());
-            Timber.d("getInstalledPkgs, adding FLAGS_SYSTEM_PHONE");
-        }
-        if ((flags & AppInfo.FLAGS_SYSTEM_UID) != 0) {
-            res.addAll(pool.getSystemUidApps());
-            Timber.d("getInstalledPkgs, adding FLAGS_SYSTEM_UID");
-        }
-        if ((flags & AppInfo.FLAGS_USER) != 0) {
-            res.addAll(pool.get_3rdApps());
-            Timber.d("getInstalledPkgs, adding FLAGS_USER");
-        }
-        if ((flags & AppInfo.FLAGS_WEB_VIEW_PROVIDER) != 0) {
-            res.addAll(pool.getWebViewProviderApps());
-            Timber.d("getInstalledPkgs, adding FLAGS_WEB_VIEW_PROVIDER");
-        }
-        if ((flags & AppInfo.FLAGS_WHITE_LISTED) != 0) {
-            res.addAll(pool.getWhiteListApps());
-            Timber.d("getInstalledPkgs, adding FLAGS_WHITE_LISTED");
-        }
+        List<AppInfo> res = pkgCache.get().getApps(flags);
         return res.toArray(new AppInfo[0]);
     }
 
@@ -244,6 +230,13 @@ public class PkgManagerService extends ThanoxSystemService implements IPkgManage
         executeInternal(() -> Objects.requireNonNull(getContext()).getPackageManager().setApplicationEnabledSetting(packageName, newState, flags));
     }
 
+    private void syncPkgIdTable(int uid) {
+        if (!pkgCache.isPresent()) return;
+        val pool = pkgCache.get();
+        Set<String> pkgs = pool.getUid2PkgMap().get(uid);
+        pkgIdTable.setPkgsForUid(uid, pkgs == null ? null : pkgs.toArray(new String[0]));
+    }
+
     private void onThanoxAppPackageRemoved() {
         // Clean up resources.
         executeInternal(() -> {
@@ -5,43 +5,52 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.webkit.IWebViewUpdateService;
 import android.webkit.WebViewProviderInfo;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
 
 import github.tornaco.android.thanos.BuildProp;
 import github.tornaco.android.thanos.core.Res;
+import github.tornaco.android.thanos.core.T;
 import github.tornaco.android.thanos.core.annotation.Nullable;
 import github.tornaco.android.thanos.core.app.AppResources;
 import github.tornaco.android.thanos.core.pm.AppInfo;
 import github.tornaco.android.thanos.core.util.ArrayUtils;
 import github.tornaco.android.thanos.core.util.PkgUtils;
 import github.tornaco.android.thanos.core.util.Timber;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.experimental.var;
 import lombok.val;
-import util.CollectionUtils;
 
 @Getter
 public class PkgPool {
+    // Label loading is io bound, a few threads are enough.
+    private static final int SCAN_WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     private Context context;
     private PackageManager pm;
 
     private final Executor executor = Executors.newSingleThreadExecutor();
+    private final PkgSnapshotStore snapshotStore = new PkgSnapshotStore(T.pkgSnapshotFile());
 
     private final Set<String> whiteListPkgs = Sets.newHashSet();
     private final Set<Pattern> whiteListPatterns = Sets.newHashSet();
@@ -50,21 +59,34 @@ public class PkgPool {
     private final Set<String> webViewProviderPkgs = Sets.newHashSet();
     private final Set<Integer> thanosAppUid = Sets.newHashSet();
 
-    private final List<AppInfo> systemApps = Lists.newArrayList();
-    private final List<AppInfo> systemUidApps = Lists.newArrayList();
-    private final List<AppInfo> mediaUidApps = Lists.newArrayList();
-    private final List<AppInfo> phoneUidApps = Lists.newArrayList();
-    private final List<AppInfo> webViewProviderApps = Lists.newArrayList();
-    private final List<AppInfo> _3rdApps = Lists.newArrayList();
-    private final List<AppInfo> whiteListApps = Lists.newArrayList();
+    // Category flag to its apps by package name, an app is in every category of its flags.
+    @Getter(AccessLevel.NONE)
+    private final Map<Integer, Map<String, AppInfo>> categoryApps = Maps.newHashMap();
 
     private final Map<String, AppInfo> allAppsMap = Maps.newConcurrentMap();
     private final Map<String, Integer> pkg2UidMap = Maps.newConcurrentMap();
-    private final Map<Integer, ArrayList<String>> uid2PkgMap = Maps.newConcurrentMap();
+    // Set semantics, a uid without package has no entry.
+    private final Map<Integer, Set<String>> uid2PkgMap = Maps.newConcurrentMap();
 
     public PkgPool(Context context) {
         this.context = context;
         this.pm = context.getPackageManager();
+        for (int flag = 1; flag <= AppInfo.FLAGS_ALL; flag <<= 1) {
+            if ((AppInfo.FLAGS_ALL & flag) != 0) categoryApps.put(flag, Maps.newConcurrentMap());
+        }
+    }
+
+    /**
+     * Apps in any category of the given flags, each once, sorted for presentation.
+     */
+    public List<AppInfo> getApps(int flags) {
+        Map<String, AppInfo> res = Maps.newHashMap();
+        for (Map.Entry<Integer, Map<String, AppInfo>> category : categoryApps.entrySet()) {
+            if ((flags & category.getKey()) != 0) res.putAll(category.getValue());
+        }
+        List<AppInfo> sorted = new ArrayList<>(res.values());
+        Collections.sort(sorted);
+        return sorted;
     }
 
     public void invalidateAll() {
@@ -83,12 +105,7 @@ public class PkgPool {
     }
 
     public void remove(String pkgName) {
-        AppInfo dummy = new AppInfo();
-        dummy.setPkgName(pkgName);
-        _3rdApps.remove(dummy);
-        allAppsMap.remove(dummy.getPkgName());
-        pkg2UidMap.remove(dummy.getPkgName());
-        webViewProviderApps.remove(dummy);
+        removeAppInfo(pkgName);
         // Try add or update.
         addOrUpdate(pkgName);
     }
@@ -128,7 +145,57 @@ public class PkgPool {
     }
 
     private void loadAllInstalledApps() {
-        CollectionUtils.consumeRemaining(PkgUtils.getInstalledApplications(context), this::loadApplication);
+        long startTime = SystemClock.uptimeMillis();
+        List<PackageInfo> installed = PkgUtils.getInstalledPackages(context);
+        Map<String, PkgSnapshotStore.Entry> snapshot = snapshotStore.read();
+        Map<String, Long> lastUpdateTimes = new HashMap<>(installed.size());
+
+        // Parsed in place, by index of installed.
+        AppInfo[] parsed = new AppInfo[installed.size()];
+        List<Callable<Void>> staleTasks = new ArrayList<>();
+        for (int i = 0; i < installed.size(); i++) {
+            PackageInfo packageInfo = installed.get(i);
+            if (packageInfo.applicationInfo == null) continue;
+            lastUpdateTimes.put(packageInfo.packageName, packageInfo.lastUpdateTime);
+            PkgSnapshotStore.Entry entry = snapshot.get(packageInfo.packageName);
+            if (entry != null && entry.isValidFor(packageInfo)) {
+                parsed[i] = parsePackage(packageInfo.applicationInfo, packageInfo, entry.appLabel);
+            } else {
+                int index = i;
+                staleTasks.add(() -> {
+                    parsed[index] = parsePackage(packageInfo.applicationInfo, packageInfo, null);
+                    return null;
+                });
+            }
+        }
+        parseInParallel(staleTasks);
+
+        for (int i = 0; i < parsed.length; i++) {
+            if (parsed[i] == null) {
+                Timber.e("Parse app fail: " + installed.get(i).packageName);
+                continue;
+            }
+            addAppInfo(parsed[i]);
+        }
+        Timber.i("loadAllInstalledApps, apps: %s, stale: %s, cost: %sms",
+                allAppsMap.size(), staleTasks.size(), SystemClock.uptimeMillis() - startTime);
+
+        List<AppInfo> loaded = new ArrayList<>(allAppsMap.values());
+        executor.execute(() -> snapshotStore.write(loaded, lastUpdateTimes));
+    }
+
+    private void parseInParallel(List<Callable<Void>> tasks) {
+        if (tasks.isEmpty()) return;
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(SCAN_WORKERS, tasks.size()),
+                r -> new Thread(r, "PkgPool-scan"));
+        try {
+            workers.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Timber.e("parseInParallel interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdown();
+        }
     }
 
     private void loadSingleAppByPackageName(String pkgName) {
@@ -146,47 +213,52 @@ public class PkgPool {
             Timber.e("Parse app fail: " + applicationInfo);
             return;
         }
-        int flags = appInfo.getFlags();
+        addAppInfo(appInfo);
+    }
 
-        if ((flags & AppInfo.FLAGS_WHITE_LISTED) != 0) {
-            whiteListApps.remove(appInfo);
-            whiteListApps.add(appInfo);
+    private synchronized void addAppInfo(AppInfo appInfo) {
+        // Cache for thanos.
+        if (appInfo.getPkgName().contains(BuildProp.THANOS_APP_PKG_NAME_PREFIX)) {
+            thanosAppUid.add(appInfo.getUid());
+            Timber.w("thanosAppUid=%s", thanosAppUid);
         }
 
-        if ((flags & AppInfo.FLAGS_WEB_VIEW_PROVIDER) != 0) {
-            webViewProviderApps.remove(appInfo);
-            webViewProviderApps.add(appInfo);
+        String pkgName = appInfo.getPkgName();
+        AppInfo old = allAppsMap.put(pkgName, appInfo);
+        if (old != null) {
+            unIndex(old);
         }
-        if ((flags & AppInfo.FLAGS_SYSTEM) != 0) {
-            systemApps.remove(appInfo);
-            systemApps.add(appInfo);
+        for (Map.Entry<Integer, Map<String, AppInfo>> category : categoryApps.entrySet()) {
+            if ((appInfo.getFlags() & category.getKey()) != 0) category.getValue().put(pkgName, appInfo);
         }
-        if ((flags & AppInfo.FLAGS_SYSTEM_MEDIA) != 0) {
-            mediaUidApps.remove(appInfo);
-            mediaUidApps.add(appInfo);
+
+        pkg2UidMap.put(pkgName, appInfo.getUid());
+        Set<String> uidPkgs = uid2PkgMap.get(appInfo.getUid());
+        if (uidPkgs == null) {
+            uidPkgs = Sets.newConcurrentHashSet();
+            uid2PkgMap.put(appInfo.getUid(), uidPkgs);
         }
-        if ((flags & AppInfo.FLAGS_SYSTEM_PHONE) != 0) {
-            phoneUidApps.remove(appInfo);
-            phoneUidApps.add(appInfo);
+        uidPkgs.add(pkgName);
+    }
+
+    private synchronized void removeAppInfo(String pkgName) {
+        AppInfo old = allAppsMap.remove(pkgName);
+        if (old != null) {
+            unIndex(old);
+            pkg2UidMap.remove(pkgName);
         }
-        if ((flags & AppInfo.FLAGS_SYSTEM_UID) != 0) {
-            systemUidApps.remove(appInfo);
-            systemUidApps.add(appInfo);
-            Timber.v("Add to systemUid apps: %s", appInfo);
+    }
+
+    // Under lock, drop an app from its categories and its uid.
+    private void unIndex(AppInfo appInfo) {
+        for (Map<String, AppInfo> apps : categoryApps.values()) {
+            apps.remove(appInfo.getPkgName());
         }
-        if ((flags & AppInfo.FLAGS_USER) != 0) {
-            _3rdApps.remove(appInfo);
-            _3rdApps.add(appInfo);
+        Set<String> uidPkgs = uid2PkgMap.get(appInfo.getUid());
+        if (uidPkgs != null) {
+            uidPkgs.remove(appInfo.getPkgName());
+            if (uidPkgs.isEmpty()) uid2PkgMap.remove(appInfo.getUid());
         }
-
-
-        allAppsMap.put(appInfo.getPkgName(), appInfo);
-        pkg2UidMap.put(appInfo.getPkgName(), appInfo.getUid());
-
-        ArrayList<String> uidPkgs = uid2PkgMap.get(appInfo.getUid());
-        if (uidPkgs == null) uidPkgs = Lists.newArrayList();
-        uidPkgs.add(appInfo.getPkgName());
-        uid2PkgMap.put(appInfo.getUid(), uidPkgs);
     }
 
     @Nullable
@@ -194,11 +266,22 @@ public class PkgPool {
         if (applicationInfo == null) return null;
 
         String pkgName = applicationInfo.packageName;
-        // Cache for thanos.
-        if (pkgName.contains(BuildProp.THANOS_APP_PKG_NAME_PREFIX)) {
-            thanosAppUid.add(applicationInfo.uid);
-            Timber.w("thanosAppUid=%s", thanosAppUid);
+        PackageInfo packageInfo = PkgUtils.getPackageInfo(context, pkgName);
+        if (packageInfo == null) {
+            Timber.e("Error getPackageInfo for %s", pkgName);
+            return null;
         }
+        return parsePackage(applicationInfo, packageInfo, null);
+    }
+
+    /**
+     * Thread safe, only reads white list and webview providers.
+     *
+     * @param appLabel from the snapshot, null to load it.
+     */
+    @Nullable
+    private AppInfo parsePackage(ApplicationInfo applicationInfo, PackageInfo packageInfo, @Nullable String appLabel) {
+        String pkgName = applicationInfo.packageName;
 
         // Enabled/Disable state.
         int pkgState;
@@ -209,14 +292,8 @@ public class PkgPool {
             return null;
         }
 
-        PackageInfo packageInfo = PkgUtils.getPackageInfo(context, pkgName);
-        if (packageInfo == null) {
-            Timber.e("Error getPackageInfo for %s", pkgName);
-            return null;
-        }
-
         return constructAppInfo(applicationInfo, packageInfo,
-                detectApplicationFlags(applicationInfo, packageInfo), pkgState);
+                detectApplicationFlags(applicationInfo, packageInfo), pkgState, appLabel);
     }
 
     private int detectApplicationFlags(ApplicationInfo applicationInfo, PackageInfo packageInfo) {
@@ -249,14 +326,18 @@ public class PkgPool {
     private AppInfo constructAppInfo(ApplicationInfo applicationInfo,
                                      PackageInfo packageInfo,
                                      int flags,
-                                     int pkgState) {
+                                     int pkgState,
+                                     @Nullable String appLabel) {
         AppInfo appInfo = new AppInfo();
         appInfo.setPkgName(applicationInfo.packageName);
 
-
-        var loadedLabel = applicationInfo.loadLabel(pm);
-        if (TextUtils.isEmpty(loadedLabel)) loadedLabel = appInfo.getPkgName();
-        appInfo.setAppLabel(loadedLabel.toString());
+        if (appLabel != null) {
+            appInfo.setAppLabel(appLabel);
+        } else {
+            var loadedLabel = applicationInfo.loadLabel(pm);
+            if (TextUtils.isEmpty(loadedLabel)) loadedLabel = appInfo.getPkgName();
+            appInfo.setAppLabel(loadedLabel.toString());
+        }
         appInfo.setVersionCode(applicationInfo.versionCode);
         appInfo.setVersionName(packageInfo.versionName);
         appInfo.setFlags(flags);
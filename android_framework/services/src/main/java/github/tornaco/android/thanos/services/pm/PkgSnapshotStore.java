@@ -0,0 +1,122 @@
+package github.tornaco.android.thanos.services.pm;
+
+import android.content.pm.PackageInfo;
+import android.os.Build;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import github.tornaco.android.thanos.core.pm.AppInfo;
+import github.tornaco.android.thanos.core.util.Timber;
+import lombok.AllArgsConstructor;
+import lombok.Cleanup;
+
+/**
+ * Labels of installed packages from the last scan, so a boot scan only loads resources of
+ * packages updated since.
+ * <p>
+ * An entry is valid while lastUpdateTime and versionCode of the package are unchanged.
+ * The whole snapshot is dropped when the build or the locale changes, labels depend on both.
+ * Everything else of an {@link AppInfo} comes with the bulk package query and is not stored.
+ */
+class PkgSnapshotStore {
+
+    private static final int MAGIC = 0x544b5053; // TKPS
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    PkgSnapshotStore(File file) {
+        this.file = file;
+    }
+
+    @AllArgsConstructor
+    static class Entry {
+        final long lastUpdateTime;
+        final int versionCode;
+        final String appLabel;
+
+        boolean isValidFor(PackageInfo packageInfo) {
+            return lastUpdateTime == packageInfo.lastUpdateTime
+                    && versionCode == packageInfo.applicationInfo.versionCode;
+        }
+    }
+
+    /**
+     * @return empty if none or stale.
+     */
+    Map<String, Entry> read() {
+        Map<String, Entry> entries = new HashMap<>();
+        if (!file.exists()) return entries;
+        try {
+            @Cleanup
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new AtomicFile(file).openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Timber.w("PkgSnapshotStore, unknown snapshot, ignore.");
+                return entries;
+            }
+            if (!Objects.equals(in.readUTF(), Build.FINGERPRINT) || !Objects.equals(in.readUTF(), localeTag())) {
+                Timber.w("PkgSnapshotStore, build or locale changed, ignore.");
+                return entries;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String pkgName = in.readUTF();
+                entries.put(pkgName, new Entry(in.readLong(), in.readInt(), in.readUTF()));
+            }
+        } catch (IOException | RuntimeException e) {
+            Timber.e("PkgSnapshotStore, fail read: %s", Log.getStackTraceString(e));
+            entries.clear();
+        }
+        return entries;
+    }
+
+    void write(Collection<AppInfo> apps, Map<String, Long> lastUpdateTimes) {
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(Build.FINGERPRINT);
+            out.writeUTF(localeTag());
+            int count = 0;
+            for (AppInfo app : apps) {
+                if (app.getPkgName() != null && app.getAppLabel() != null) count++;
+            }
+            out.writeInt(count);
+            for (AppInfo app : apps) {
+                // Not reusable, parsed again next boot.
+                if (app.getPkgName() == null || app.getAppLabel() == null) continue;
+                Long lastUpdateTime = lastUpdateTimes.get(app.getPkgName());
+                out.writeUTF(app.getPkgName());
+                // A package with no time is never valid next boot.
+                out.writeLong(lastUpdateTime == null ? -1 : lastUpdateTime);
+                out.writeInt(app.getVersionCode());
+                out.writeUTF(app.getAppLabel());
+            }
+            out.flush();
+            atomicFile.finishWrite(fos);
+        } catch (IOException | RuntimeException e) {
+            Timber.e("PkgSnapshotStore, fail write: %s", Log.getStackTraceString(e));
+            atomicFile.failWrite(fos);
+        }
+    }
+
+    private static String localeTag() {
+        return Locale.getDefault().toString();
+    }
+}
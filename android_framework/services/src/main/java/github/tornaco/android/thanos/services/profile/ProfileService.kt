@@ -25,7 +25,7 @@ import github.tornaco.android.thanos.core.persist.RepoFactory
 import github.tornaco.android.thanos.core.persist.StringMapRepo
 import github.tornaco.android.thanos.core.persist.StringSetRepo
 import github.tornaco.android.thanos.core.pm.AppInfo
-import github.tornaco.android.thanos.core.pref.IPrefChangeListener
+import github.tornaco.android.thanos.core.pref.IPrefValueChangeListener
 import github.tornaco.android.thanos.core.profile.*
 import github.tornaco.android.thanos.core.secure.ops.AppOpsManager
 import github.tornaco.android.thanos.core.util.*
@@ -49,7 +49,6 @@ import org.jeasy.rules.mvel.MVELRuleFactory
 import org.jeasy.rules.support.JsonRuleDefinitionReader
 import org.jeasy.rules.support.YamlRuleDefinitionReader
 import util.CollectionUtils
-import util.ObjectsUtils
 import java.io.File
 import java.io.StringReader
 import java.util.*
@@ -284,23 +283,26 @@ class ProfileService(s: S) : ThanoxSystemService(s), IProfileManager {
     }
 
     private fun listenToPrefs() {
-        val listener = object : IPrefChangeListener.Stub() {
-            override fun onPrefChanged(key: String) {
-                if (ObjectsUtils.equals(
-                        T.Settings.PREF_AUTO_CONFIG_NEW_INSTALLED_APPS_ENABLED.key,
-                        key
-                    )
-                    || ObjectsUtils.equals(
-                        T.Settings.PREF_PROFILE_ENABLED.key,
-                        key
-                    )
-                ) {
-                    Timber.i("Pref changed: $key, reload.")
-                    readPrefs()
+        val listener = object : IPrefValueChangeListener.Stub() {
+            override fun onPrefValueChanged(key: String, value: String?) {
+                Timber.i("Pref changed: $key, value: $value")
+                when (key) {
+                    T.Settings.PREF_AUTO_CONFIG_NEW_INSTALLED_APPS_ENABLED.key -> autoApplyForNewInstalledAppsEnabled =
+                        T.Settings.PREF_AUTO_CONFIG_NEW_INSTALLED_APPS_ENABLED.parse(value)
+                    T.Settings.PREF_PROFILE_ENABLED.key -> {
+                        profileEnabled = T.Settings.PREF_PROFILE_ENABLED.parse(value)
+                        ensureAutomationState()
+                    }
                 }
             }
         }
-        s.preferenceManagerService.registerSettingsChangeListener(listener)
+        s.preferenceManagerService.registerSettingsValueChangeListener(
+            arrayOf(
+                T.Settings.PREF_AUTO_CONFIG_NEW_INSTALLED_APPS_ENABLED.key,
+                T.Settings.PREF_PROFILE_ENABLED.key
+            ),
+            listener
+        )
     }
 
     override fun setAutoApplyForNewInstalledAppsEnabled(enable: Boolean) {
@@ -0,0 +1,219 @@
+package github.tornaco.android.thanos.services.secure
+
+import android.annotation.SuppressLint
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.content.pm.PackageManager
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Process
+import android.provider.Settings
+import android.telephony.SubscriptionInfo
+import android.telephony.SubscriptionManager
+import android.telephony.TelephonyManager
+import github.tornaco.android.thanos.core.secure.PrivacyProfile
+import github.tornaco.android.thanos.core.util.Timber
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Real device identifiers, read on a dedicated thread and kept until SIM or subscriptions change,
+ * so a getOriginal* call is a volatile read and never waits on telephony.
+ *
+ * A read that fails, telephony not published yet at boot for example, is not kept, it is retried
+ * with backoff. Until a read succeeds calls get null and are counted as misses, only those before
+ * the first attempt completes wait, at most [MISS_WAIT_MILLS].
+ */
+class OriginalIdCache(private val context: Context) {
+
+    class Snapshot(
+        val deviceId: String,
+        val line1Number: String,
+        val simSerialNumber: String,
+        val androidId: String,
+        val phoneCount: Int,
+        // By slot index.
+        val imei: Array<String>,
+        val meid: Array<String>,
+        val subscriptions: Array<SubscriptionInfo>
+    )
+
+    @Volatile
+    private var snapshot: Snapshot? = null
+    private val firstAttempt = CountDownLatch(1)
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val refreshCount = AtomicLong()
+    private val failedReadCount = AtomicLong()
+
+    // Only touched on handler thread.
+    private var retryDelayMills = 0L
+
+    private val handler: Handler by lazy {
+        val thread = HandlerThread("OriginalIdCache", Process.THREAD_PRIORITY_BACKGROUND)
+        thread.start()
+        Handler(thread.looper)
+    }
+    private val refreshPending = AtomicBoolean(false)
+    private val refreshRunnable = Runnable {
+        val read = read()
+        if (read != null) {
+            refreshPending.set(false)
+            snapshot = read
+            retryDelayMills = 0
+            refreshCount.incrementAndGet()
+        } else {
+            failedReadCount.incrementAndGet()
+            retryDelayMills =
+                if (retryDelayMills == 0L) RETRY_MIN_DELAY_MILLS else minOf(retryDelayMills * 2, RETRY_MAX_DELAY_MILLS)
+            Timber.w("OriginalIdCache read failed, retry in ${retryDelayMills}ms")
+            // Still pending, a miss does not bring the retry forward.
+            handler.postDelayed(refreshRunnable, retryDelayMills)
+        }
+        firstAttempt.countDown()
+    }
+
+    private val simChangeReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            onIdsMayChange(intent.action)
+        }
+    }
+
+    fun start() {
+        val filter = IntentFilter()
+        filter.addAction(ACTION_SIM_STATE_CHANGED)
+        filter.addAction(ACTION_DEFAULT_SUBSCRIPTION_CHANGED)
+        context.registerReceiver(simChangeReceiver, filter, null, handler)
+        // The listener takes the looper of the thread it is created on.
+        handler.post { listenSubscriptions() }
+        requestRefresh(0)
+    }
+
+    /**
+     * @return null if the first read did not complete in time.
+     */
+    fun get(): Snapshot? {
+        snapshot?.let {
+            hits.incrementAndGet()
+            return it
+        }
+        misses.incrementAndGet()
+        requestRefresh(0)
+        try {
+            firstAttempt.await(MISS_WAIT_MILLS, TimeUnit.MILLISECONDS)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        return snapshot
+    }
+
+    fun getHitCount(): Long {
+        return hits.get()
+    }
+
+    fun getMissCount(): Long {
+        return misses.get()
+    }
+
+    fun getRefreshCount(): Long {
+        return refreshCount.get()
+    }
+
+    fun getFailedReadCount(): Long {
+        return failedReadCount.get()
+    }
+
+    // Burst of SIM events, loading, ready, loaded, is one refresh.
+    private fun requestRefresh(delayMills: Long) {
+        if (refreshPending.compareAndSet(false, true)) {
+            handler.postDelayed(refreshRunnable, delayMills)
+        }
+    }
+
+    // On handler thread, a change is worth a read soon, backoff or not.
+    private fun onIdsMayChange(reason: String?) {
+        Timber.v("OriginalIdCache refresh on: $reason")
+        retryDelayMills = 0
+        handler.removeCallbacks(refreshRunnable)
+        refreshPending.set(true)
+        handler.postDelayed(refreshRunnable, REFRESH_DELAY_MILLS)
+    }
+
+    // Public since 22.
+    @SuppressLint("NewApi")
+    private fun listenSubscriptions() {
+        try {
+            SubscriptionManager.from(context).addOnSubscriptionsChangedListener(
+                object : SubscriptionManager.OnSubscriptionsChangedListener() {
+                    override fun onSubscriptionsChanged() {
+                        onIdsMayChange("subscriptions changed")
+                    }
+                })
+        } catch (e: Throwable) {
+            Timber.e(e, "OriginalIdCache fail listen subscriptions")
+        }
+    }
+
+    /**
+     * Some of the readers are hidden API before 26.
+     *
+     * @return null if any read threw, or a value every device has is missing.
+     */
+    @SuppressLint("HardwareIds", "NewApi")
+    private fun read(): Snapshot? {
+        var failed = false
+        fun <T> readOrEmpty(name: String, empty: T, required: Boolean = false, reader: () -> T?): T {
+            return try {
+                val value = reader()
+                if (value == null && required) {
+                    Timber.w("OriginalIdCache no $name yet")
+                    failed = true
+                }
+                value ?: empty
+            } catch (e: Throwable) {
+                Timber.e(e, "OriginalIdCache fail read $name")
+                failed = true
+                empty
+            }
+        }
+
+        val tm = TelephonyManager.from(context)
+        val hasTelephony = context.packageManager.hasSystemFeature(PackageManager.FEATURE_TELEPHONY)
+        val phoneCount = readOrEmpty("phoneCount", 0) { tm.phoneCount }
+        val slotCount = if (phoneCount in 1..PrivacyProfile.MAX_SLOT_COUNT) phoneCount else PrivacyProfile.MAX_SLOT_COUNT
+        val read = Snapshot(
+            // Null, not throw, while iphonesubinfo is not published.
+            readOrEmpty("deviceId", "", hasTelephony) { tm.deviceId },
+            readOrEmpty("line1Number", "") { tm.line1Number },
+            readOrEmpty("simSerialNumber", "") { tm.simSerialNumber },
+            readOrEmpty("androidId", "", true) {
+                Settings.Secure.getString(context.contentResolver, Settings.Secure.ANDROID_ID)
+            },
+            phoneCount,
+            Array(slotCount) { readOrEmpty("imei", "") { tm.getImei(it) } },
+            Array(slotCount) { readOrEmpty("meid", "") { tm.getMeid(it) } },
+            readOrEmpty("subscriptions", emptyArray()) {
+                SubscriptionManager.from(context).activeSubscriptionInfoList?.toTypedArray()
+            }
+        )
+        return if (failed) null else read
+    }
+
+    companion object {
+        private const val MISS_WAIT_MILLS = 300L
+        private const val REFRESH_DELAY_MILLS = 1000L
+        private const val RETRY_MIN_DELAY_MILLS = 2000L
+        private val RETRY_MAX_DELAY_MILLS = TimeUnit.MINUTES.toMillis(10)
+
+        // TelephonyIntents.ACTION_SIM_STATE_CHANGED, hidden.
+        private const val ACTION_SIM_STATE_CHANGED = "android.intent.action.SIM_STATE_CHANGED"
+        // SubscriptionManager.ACTION_DEFAULT_SUBSCRIPTION_CHANGED, public since 26.
+        private const val ACTION_DEFAULT_SUBSCRIPTION_CHANGED =
+            "android.telephony.action.DEFAULT_SUBSCRIPTION_CHANGED"
+    }
+}
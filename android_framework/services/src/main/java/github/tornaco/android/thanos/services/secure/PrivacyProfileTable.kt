@@ -0,0 +1,179 @@
+package github.tornaco.android.thanos.services.secure
+
+import github.tornaco.android.thanos.core.persist.StringMapRepo
+import github.tornaco.android.thanos.core.secure.PrivacyProfile
+import github.tornaco.android.thanos.core.util.Timber
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Cheated privacy values, one record per package, "*" is the record for all packages.
+ *
+ * Records are resolved at write time, a package value falls back to the "*" one, so a
+ * lookup is one map read and the resolved [PrivacyProfile] is handed out as is.
+ * A package without a record resolves to the "*" profile.
+ * Persisted one repo entry per package, fields length prefixed in a single string.
+ */
+class PrivacyProfileTable(private val repo: StringMapRepo) {
+
+    // Raw values as set, guarded by this.
+    private val records = HashMap<String, Array<String?>>()
+
+    private val resolved: MutableMap<String, PrivacyProfile> = ConcurrentHashMap()
+
+    @Volatile
+    private var wildcardProfile: PrivacyProfile = resolve(null)
+
+    fun get(pkg: String?): PrivacyProfile {
+        if (pkg == null) return wildcardProfile
+        return resolved[pkg] ?: wildcardProfile
+    }
+
+    /**
+     * @param field one of the FIELD_ constants, slot fields by [imeiField] and [meidField].
+     * @param value null or empty to clear.
+     */
+    @Synchronized
+    fun set(pkg: String, field: Int, value: String?) {
+        if (field < 0 || field >= FIELD_COUNT) {
+            Timber.e("Bad privacy field: $field for $pkg")
+            return
+        }
+        val record = records[pkg] ?: arrayOfNulls<String>(FIELD_COUNT)
+        record[field] = if (value.isNullOrEmpty()) null else value
+        if (record.all { it == null }) {
+            records.remove(pkg)
+            repo.remove(pkg)
+        } else {
+            records[pkg] = record
+            repo[pkg] = encode(record)
+        }
+        publish(pkg)
+    }
+
+    @Synchronized
+    fun load() {
+        repo.snapshot().forEach { (pkg, encoded) ->
+            if (pkg != null && encoded != null) records[pkg] = decode(encoded)
+        }
+        publishAll()
+        Timber.i("PrivacyProfileTable loaded, size: ${records.size}")
+    }
+
+    /**
+     * Import the old one repo per field store, keys are pkg, or "pkg_slot" for slot fields.
+     */
+    @Synchronized
+    fun importLegacy(legacy: Map<Int, Map<String, String?>>) {
+        legacy.forEach { (field, values) ->
+            val bySlot = field == FIELD_IMEI || field == FIELD_MEID
+            values.forEach { (k, v) ->
+                var pkg = k
+                var slotField = field
+                if (bySlot) {
+                    val sep = k.lastIndexOf('_')
+                    val slotIndex = if (sep > 0) k.substring(sep + 1).toIntOrNull() else null
+                    if (slotIndex == null || slotIndex < 0 || slotIndex >= PrivacyProfile.MAX_SLOT_COUNT) {
+                        Timber.e("Bad slot key: $k")
+                        return@forEach
+                    }
+                    pkg = k.substring(0, sep)
+                    slotField = field + slotIndex
+                }
+                if (!v.isNullOrEmpty()) {
+                    records.getOrPut(pkg) { arrayOfNulls(FIELD_COUNT) }[slotField] = v
+                }
+            }
+        }
+        repo.putAll(records.mapValues { encode(it.value) })
+        publishAll()
+        Timber.i("PrivacyProfileTable imported legacy, size: ${records.size}")
+    }
+
+    // Under lock.
+    private fun publish(pkg: String) {
+        if (pkg == WILDCARD) {
+            publishAll()
+            return
+        }
+        val record = records[pkg]
+        if (record == null) resolved.remove(pkg) else resolved[pkg] = resolve(record)
+    }
+
+    // Under lock.
+    private fun publishAll() {
+        wildcardProfile = resolve(null)
+        records.forEach { (pkg, record) -> if (pkg != WILDCARD) resolved[pkg] = resolve(record) }
+        resolved.keys.retainAll(records.keys)
+    }
+
+    // Under lock.
+    private fun resolve(record: Array<String?>?): PrivacyProfile {
+        val all = records[WILDCARD]
+        val values = Array(FIELD_COUNT) { record?.get(it) ?: all?.get(it) }
+        return PrivacyProfile.builder()
+            .cheat(true)
+            .deviceId(values[FIELD_DEVICE_ID])
+            .line1Number(values[FIELD_LINE1_NUMBER])
+            .simSerialNumber(values[FIELD_SIM_SERIAL_NUMBER])
+            .androidId(values[FIELD_ANDROID_ID])
+            .imei(values.copyOfRange(FIELD_IMEI, FIELD_IMEI + PrivacyProfile.MAX_SLOT_COUNT))
+            .meid(values.copyOfRange(FIELD_MEID, FIELD_MEID + PrivacyProfile.MAX_SLOT_COUNT))
+            .build()
+    }
+
+    companion object {
+        const val WILDCARD = "*"
+
+        const val FIELD_DEVICE_ID = 0
+        const val FIELD_LINE1_NUMBER = 1
+        const val FIELD_SIM_SERIAL_NUMBER = 2
+        const val FIELD_ANDROID_ID = 3
+        const val FIELD_IMEI = 4
+        const val FIELD_MEID = FIELD_IMEI + PrivacyProfile.MAX_SLOT_COUNT
+        const val FIELD_COUNT = FIELD_MEID + PrivacyProfile.MAX_SLOT_COUNT
+
+        /**
+         * -1 if the slot is out of range.
+         */
+        fun imeiField(slotIndex: Int): Int {
+            return if (slotIndex < 0 || slotIndex >= PrivacyProfile.MAX_SLOT_COUNT) -1 else FIELD_IMEI + slotIndex
+        }
+
+        fun meidField(slotIndex: Int): Int {
+            return if (slotIndex < 0 || slotIndex >= PrivacyProfile.MAX_SLOT_COUNT) -1 else FIELD_MEID + slotIndex
+        }
+
+        // Per field "-" if not set, "len:value" if set, trailing unset fields dropped.
+        private fun encode(record: Array<String?>): String {
+            val last = record.indexOfLast { it != null }
+            val sb = StringBuilder()
+            for (i in 0..last) {
+                val v = record[i]
+                if (v == null) sb.append('-') else sb.append(v.length).append(':').append(v)
+            }
+            return sb.toString()
+        }
+
+        private fun decode(encoded: String): Array<String?> {
+            val record = arrayOfNulls<String>(FIELD_COUNT)
+            var pos = 0
+            var field = 0
+            try {
+                while (pos < encoded.length && field < FIELD_COUNT) {
+                    if (encoded[pos] == '-') {
+                        pos++
+                    } else {
+                        val sep = encoded.indexOf(':', pos)
+                        val len = encoded.substring(pos, sep).toInt()
+                        record[field] = encoded.substring(sep + 1, sep + 1 + len)
+                        pos = sep + 1 + len
+                    }
+                    field++
+                }
+            } catch (e: RuntimeException) {
+                Timber.e("Bad privacy record: $encoded")
+            }
+            return record
+        }
+    }
+}
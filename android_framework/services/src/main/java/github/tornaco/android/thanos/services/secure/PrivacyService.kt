@@ -1,15 +1,11 @@
 package github.tornaco.android.thanos.services.secure
 
-import android.annotation.SuppressLint
 import android.content.Context
 import android.content.IntentFilter
 import android.location.Location
 import android.os.IBinder
-import android.provider.Settings
+import android.os.RemoteCallbackList
 import android.telephony.SubscriptionInfo
-import android.telephony.SubscriptionManager
-import android.telephony.TelephonyManager
-import android.text.TextUtils
 import github.tornaco.android.thanos.BuildProp
 import github.tornaco.android.thanos.core.Res
 import github.tornaco.android.thanos.core.T
@@ -20,12 +16,14 @@ import github.tornaco.android.thanos.core.app.event.ThanosEvent
 import github.tornaco.android.thanos.core.compat.NotificationCompat
 import github.tornaco.android.thanos.core.compat.NotificationManagerCompat
 import github.tornaco.android.thanos.core.persist.RepoFactory
-import github.tornaco.android.thanos.core.persist.StringMapRepo
 import github.tornaco.android.thanos.core.persist.StringSetRepo
 import github.tornaco.android.thanos.core.pm.PackageManager
-import github.tornaco.android.thanos.core.pref.IPrefChangeListener
+import github.tornaco.android.thanos.core.pref.IPrefValueChangeListener
 import github.tornaco.android.thanos.core.secure.IPrivacyManager
+import github.tornaco.android.thanos.core.secure.IPrivacyProfileObserver
+import github.tornaco.android.thanos.core.secure.PrivacyProfile
 import github.tornaco.android.thanos.core.util.*
+import github.tornaco.android.thanos.services.BackgroundThread
 import github.tornaco.android.thanos.services.S
 import github.tornaco.android.thanos.services.ThanosSchedulers
 import github.tornaco.android.thanos.services.ThanoxSystemService
@@ -34,21 +32,13 @@ import github.tornaco.android.thanos.services.n.NotificationHelper
 import github.tornaco.android.thanos.services.n.NotificationIdFactory
 import github.tornaco.android.thanos.services.n.SystemUI
 import io.reactivex.Completable
-import io.reactivex.Single
-import io.reactivex.SingleOnSubscribe
-import util.ObjectsUtils
-import java.util.concurrent.TimeUnit
 
 class PrivacyService(s: S) : ThanoxSystemService(s), IPrivacyManager {
 
     private val notificationHelper: NotificationHelper = NotificationHelper()
 
-    private lateinit var pkgDeviceIdRepo: StringMapRepo
-    private lateinit var pkgSimNumRepo: StringMapRepo
-    private lateinit var pkgLine1NumRepo: StringMapRepo
-    private lateinit var pkgAndroidIdRepo: StringMapRepo
-    private lateinit var pkgImeiRepo: StringMapRepo
-    private lateinit var pkgMeidRepo: StringMapRepo
+    private lateinit var profiles: PrivacyProfileTable
+    private lateinit var originalIds: OriginalIdCache
 
     private lateinit var privacyDataCheatPkgRepo: StringSetRepo
 
@@ -57,6 +47,8 @@ class PrivacyService(s: S) : ThanoxSystemService(s), IPrivacyManager {
 
     private var privacyRequestHandleTimes = 0L
 
+    private val profileObservers = RemoteCallbackList<IPrivacyProfileObserver>()
+
     private val frontEventSubscriber = object : IEventSubscriber.Stub() {
         override fun onEvent(e: ThanosEvent) {
             val intent = e.intent
@@ -68,12 +60,11 @@ class PrivacyService(s: S) : ThanoxSystemService(s), IPrivacyManager {
     override fun onStart(context: Context) {
         super.onStart(context)
 
-        pkgDeviceIdRepo = RepoFactory.get().getOrCreateStringMapRepo(T.privacyDeviceIdFile().path)
-        pkgLine1NumRepo = RepoFactory.get().getOrCreateStringMapRepo(T.privacyLine1NumFile().path)
-        pkgSimNumRepo = RepoFactory.get().getOrCreateStringMapRepo(T.privacySimNumFile().path)
-        pkgAndroidIdRepo = RepoFactory.get().getOrCreateStringMapRepo(T.privacyAndroidIdFile().path)
-        pkgImeiRepo = RepoFactory.get().getOrCreateStringMapRepo(T.privacyImeiFile().path)
-        pkgMeidRepo = RepoFactory.get().getOrCreateStringMapRepo(T.privacyMeidFile().path)
+        profiles = PrivacyProfileTable(
+            RepoFactory.get().getOrCreateStringMapRepo(T.privacyProfilesFile().path)
+        )
+        loadProfiles()
+        originalIds = OriginalIdCache(context)
 
         privacyDataCheatPkgRepo =
             RepoFactory.get().getOrCreateStringSetRepo(T.privacyPkgSettingsFile().path)
@@ -104,17 +95,23 @@ class PrivacyService(s: S) : ThanoxSystemService(s), IPrivacyManager {
     }
 
     private fun listenToPrefs() {
-        val listener = object : IPrefChangeListener.Stub() {
-            override fun onPrefChanged(key: String) {
-                if (ObjectsUtils.equals(T.Settings.PREF_PRIVACY_ENABLED.key, key)
-                    || ObjectsUtils.equals(T.Settings.PREF_PRIVACY_N_ENABLED.key, key)
-                ) {
-                    Timber.i("Pref changed, reload.")
-                    readPrefs()
+        val listener = object : IPrefValueChangeListener.Stub() {
+            override fun onPrefValueChanged(key: String, value: String?) {
+                Timber.i("Pref changed: $key, value: $value")
+                when (key) {
+                    T.Settings.PREF_PRIVACY_ENABLED.key -> {
+                        privacyEnabled = T.Settings.PREF_PRIVACY_ENABLED.parse(value)
+                        notifyPrivacyProfileChanged(null)
+                    }
+                    T.Settings.PREF_PRIVACY_N_ENABLED.key -> privacyNotificationEnabled =
+                        T.Settings.PREF_PRIVACY_N_ENABLED.parse(value)
                 }
             }
         }
-        s.preferenceManagerService.registerSettingsChangeListener(listener)
+        s.preferenceManagerService.registerSettingsValueChangeListener(
+            arrayOf(T.Settings.PREF_PRIVACY_ENABLED.key, T.Settings.PREF_PRIVACY_N_ENABLED.key),
+            listener
+        )
     }
 
     override fun isPrivacyEnabled(): Boolean {
@@ -123,6 +120,7 @@ class PrivacyService(s: S) : ThanoxSystemService(s), IPrivacyManager {
 
     override fun setPrivacyEnabled(enabled: Boolean) {
         privacyEnabled = enabled
+        notifyPrivacyProfileChanged(null)
 
         val preferenceManagerService = s.preferenceManagerService
         preferenceManagerService.putBoolean(
@@ -171,84 +169,88 @@ class PrivacyService(s: S) : ThanoxSystemService(s), IPrivacyManager {
 
     override fun setPkgPrivacyDataCheat(pkg: String, enable: Boolean) {
         if (enable) privacyDataCheatPkgRepo.add(pkg) else privacyDataCheatPkgRepo.remove(pkg)
+        notifyPrivacyProfileChanged(pkg)
+    }
+
+    override fun getPrivacyProfileForPkg(pkg: String): PrivacyProfile {
+        privacyRequestHandleTimes++
+        val cheat = privacyEnabled && isPkgPrivacyDataCheat(pkg)
+        return if (cheat) profiles.get(pkg) else NOT_CHEAT_PROFILE
+    }
+
+    override fun registerPrivacyProfileObserver(observer: IPrivacyProfileObserver) {
+        profileObservers.register(Preconditions.checkNotNull(observer))
+    }
+
+    override fun unRegisterPrivacyProfileObserver(observer: IPrivacyProfileObserver) {
+        profileObservers.unregister(Preconditions.checkNotNull(observer))
+    }
+
+    /**
+     * @param pkg changed package, null if the change applies to all, "*" values or the master switch.
+     */
+    private fun notifyPrivacyProfileChanged(pkg: String?) {
+        val target = if (pkg == "*") null else pkg
+        Completable
+            .fromRunnable {
+                val count = profileObservers.beginBroadcast()
+                for (i in 0 until count) {
+                    try {
+                        profileObservers.getBroadcastItem(i).onPrivacyProfileChanged(target)
+                    } catch (e: Throwable) {
+                        Timber.e(e, "Error notifyPrivacyProfileChanged")
+                    }
+                }
+                profileObservers.finishBroadcast()
+            }
+            .subscribeOn(ThanosSchedulers.from(BackgroundThread.getHandler()))
+            .subscribe()
     }
 
     override fun getCheatedDeviceIdForPkg(pkg: String): String? {
         privacyRequestHandleTimes++
-        val useSet = pkgDeviceIdRepo[pkg]
-        if (!TextUtils.isEmpty(useSet)) {
-            return useSet
-        }
-        val allSet = pkgDeviceIdRepo["*"]
-        if (!TextUtils.isEmpty(allSet)) {
-            return allSet
-        }
-        return null
+        return profiles.get(pkg).deviceId
     }
 
     override fun getCheatedLine1NumberForPkg(pkg: String): String? {
         privacyRequestHandleTimes++
-        val useSet = pkgLine1NumRepo[pkg]
-        if (!TextUtils.isEmpty(useSet)) {
-            return useSet
-        }
-        val allSet = pkgLine1NumRepo["*"]
-        if (!TextUtils.isEmpty(allSet)) {
-            return allSet
-        }
-        return null
+        return profiles.get(pkg).line1Number
     }
 
     override fun getCheatedSimSerialNumberForPkg(pkg: String): String? {
         privacyRequestHandleTimes++
-        val useSet = pkgSimNumRepo[pkg]
-        if (!TextUtils.isEmpty(useSet)) {
-            return useSet
-        }
-        val allSet = pkgSimNumRepo["*"]
-        if (!TextUtils.isEmpty(allSet)) {
-            return allSet
-        }
-        return null
+        return profiles.get(pkg).simSerialNumber
     }
 
     override fun getCheatedAndroidIdForPkg(pkg: String?): String? {
         privacyRequestHandleTimes++
-        val useSet = pkgAndroidIdRepo[pkg]
-        if (!TextUtils.isEmpty(useSet)) {
-            return useSet
-        }
-        val allSet = pkgAndroidIdRepo["*"]
-        if (!TextUtils.isEmpty(allSet)) {
-            return allSet
-        }
-        return null
+        return profiles.get(pkg).androidId
     }
 
     override fun getCheatedImeiForPkg(pkg: String?, slotIndex: Int): String? {
         privacyRequestHandleTimes++
-        val useSet = pkgImeiRepo["${pkg}_$slotIndex"]
-        if (!TextUtils.isEmpty(useSet)) {
-            return useSet
-        }
-        val allSet = pkgImeiRepo["*_$slotIndex"]
-        if (!TextUtils.isEmpty(allSet)) {
-            return allSet
-        }
-        return null
+        return profiles.get(pkg).getImei(slotIndex)
     }
 
     override fun getCheatedMeidForPkg(pkg: String?, slotIndex: Int): String? {
         privacyRequestHandleTimes++
-        val useSet = pkgMeidRepo["${pkg}_$slotIndex"]
-        if (!TextUtils.isEmpty(useSet)) {
-            return useSet
-        }
-        val allSet = pkgMeidRepo["*_$slotIndex"]
-        if (!TextUtils.isEmpty(allSet)) {
-            return allSet
-        }
-        return null
+        return profiles.get(pkg).getMeid(slotIndex)
+    }
+
+    private fun loadProfiles() {
+        profiles.load()
+        val legacyRepos = mapOf(
+            PrivacyProfileTable.FIELD_DEVICE_ID to T.privacyDeviceIdFile(),
+            PrivacyProfileTable.FIELD_LINE1_NUMBER to T.privacyLine1NumFile(),
+            PrivacyProfileTable.FIELD_SIM_SERIAL_NUMBER to T.privacySimNumFile(),
+            PrivacyProfileTable.FIELD_ANDROID_ID to T.privacyAndroidIdFile(),
+            PrivacyProfileTable.FIELD_IMEI to T.privacyImeiFile(),
+            PrivacyProfileTable.FIELD_MEID to T.privacyMeidFile()
+        ).mapValues { RepoFactory.get().getOrCreateStringMapRepo(it.value.path) }
+            .filterValues { !it.isEmpty() }
+        if (legacyRepos.isEmpty()) return
+        profiles.importLegacy(legacyRepos.mapValues { it.value.snapshot() })
+        legacyRepos.values.forEach { it.clear() }
     }
 
     override fun getCheatedLocationForPkg(pkg: String?, actual: Location?): Location {
@@ -262,139 +264,71 @@ class PrivacyService(s: S) : ThanoxSystemService(s), IPrivacyManager {
 
     override fun setCheatedDeviceIdForPkg(pkg: String, deviceId: String) {
         enforceCallingPermissions()
-        pkgDeviceIdRepo[pkg] = deviceId
+        profiles.set(pkg, PrivacyProfileTable.FIELD_DEVICE_ID, deviceId)
+        notifyPrivacyProfileChanged(pkg)
     }
 
     override fun setCheatedLine1NumberForPkg(pkg: String, num: String) {
         enforceCallingPermissions()
-        pkgLine1NumRepo[pkg] = num
+        profiles.set(pkg, PrivacyProfileTable.FIELD_LINE1_NUMBER, num)
+        notifyPrivacyProfileChanged(pkg)
     }
 
     override fun setCheatedSimSerialNumberForPkg(pkg: String, num: String) {
         enforceCallingPermissions()
-        pkgSimNumRepo[pkg] = num
+        profiles.set(pkg, PrivacyProfileTable.FIELD_SIM_SERIAL_NUMBER, num)
+        notifyPrivacyProfileChanged(pkg)
     }
 
     override fun setCheatedAndroidIdForPkg(pkg: String?, id: String?) {
         enforceCallingPermissions()
-        pkgAndroidIdRepo[pkg] = id
+        if (pkg == null) return
+        profiles.set(pkg, PrivacyProfileTable.FIELD_ANDROID_ID, id)
+        notifyPrivacyProfileChanged(pkg)
     }
 
     override fun setCheatedImeiForPkg(pkg: String?, id: String?, slotIndex: Int) {
         enforceCallingPermissions()
-        pkgImeiRepo["${pkg}_$slotIndex"] = id
+        if (pkg == null) return
+        profiles.set(pkg, PrivacyProfileTable.imeiField(slotIndex), id)
+        notifyPrivacyProfileChanged(pkg)
     }
 
     override fun setCheatedMeidForPkg(pkg: String?, id: String?, slotIndex: Int) {
         enforceCallingPermissions()
-        pkgMeidRepo["${pkg}_$slotIndex"] = id
+        if (pkg == null) return
+        profiles.set(pkg, PrivacyProfileTable.meidField(slotIndex), id)
+        notifyPrivacyProfileChanged(pkg)
     }
 
-    @SuppressLint("HardwareIds")
     override fun getOriginalDeviceId(): String {
         enforceCallingPermissions()
-        return Single
-            .create(SingleOnSubscribe<String> { emitter ->
-                emitter.onSuccess(
-                    Optional.ofNullable(TelephonyManager.from(context).deviceId).orElse(
-                        NPEFixing.emptyString()
-                    )
-                )
-            })
-            .subscribeOn(ThanosSchedulers.serverThread())
-            .timeout(300, TimeUnit.MILLISECONDS)
-            .onErrorReturnItem(NPEFixing.emptyString())
-            .blockingGet()
+        return originalIds.get()?.deviceId ?: NPEFixing.emptyString()
     }
 
-    @SuppressLint("HardwareIds")
     override fun getOriginalLine1Number(): String {
         enforceCallingPermissions()
-        return Single
-            .create(SingleOnSubscribe<String> { emitter ->
-                emitter.onSuccess(
-                    Optional.ofNullable(TelephonyManager.from(context).line1Number).orElse(
-                        NPEFixing.emptyString()
-                    )
-                )
-            })
-            .subscribeOn(ThanosSchedulers.serverThread())
-            .timeout(300, TimeUnit.MILLISECONDS)
-            .onErrorReturnItem(NPEFixing.emptyString())
-            .blockingGet()
+        return originalIds.get()?.line1Number ?: NPEFixing.emptyString()
     }
 
-    @SuppressLint("HardwareIds")
     override fun getOriginalSimSerialNumber(): String {
         enforceCallingPermissions()
-        return Single
-            .create(SingleOnSubscribe<String> { emitter ->
-                emitter.onSuccess(
-                    Optional.ofNullable(TelephonyManager.from(context).simSerialNumber).orElse(
-                        NPEFixing.emptyString()
-                    )
-                )
-            })
-            .subscribeOn(ThanosSchedulers.serverThread())
-            .timeout(300, TimeUnit.MILLISECONDS)
-            .onErrorReturnItem(NPEFixing.emptyString())
-            .blockingGet()
+        return originalIds.get()?.simSerialNumber ?: NPEFixing.emptyString()
     }
 
-    @SuppressLint("HardwareIds")
     override fun getOriginalAndroidId(): String {
         enforceCallingPermissions()
-        return Single
-            .create(SingleOnSubscribe<String> { emitter ->
-                emitter.onSuccess(
-                    Optional.ofNullable(
-                        Settings.Secure
-                            .getString(context!!.contentResolver, Settings.Secure.ANDROID_ID)
-                    ).orElse(
-                        NPEFixing.emptyString()
-                    )
-                )
-            })
-            .subscribeOn(ThanosSchedulers.serverThread())
-            .timeout(300, TimeUnit.MILLISECONDS)
-            .onErrorReturnItem(NPEFixing.emptyString())
-            .blockingGet()
+        return originalIds.get()?.androidId ?: NPEFixing.emptyString()
     }
 
-    // It is hidden API before 26
-    @SuppressLint("NewApi")
     override fun getOriginalImei(slotIndex: Int): String {
         enforceCallingPermissions()
-        return Single
-            .create(SingleOnSubscribe<String> { emitter ->
-                emitter.onSuccess(
-                    Optional.ofNullable(TelephonyManager.from(context).getImei(slotIndex)).orElse(
-                        NPEFixing.emptyString()
-                    )
-                )
-            })
-            .subscribeOn(ThanosSchedulers.serverThread())
-            .timeout(300, TimeUnit.MILLISECONDS)
-            .onErrorReturnItem(NPEFixing.emptyString())
-            .blockingGet()
+        return originalIds.get()?.imei?.getOrNull(slotIndex) ?: NPEFixing.emptyString()
     }
 
-    // It is hidden API before 26
-    @SuppressLint("NewApi")
     override fun getOriginalMeid(slotIndex: Int): String {
         enforceCallingPermissions()
-        return Single
-            .create(SingleOnSubscribe<String> { emitter ->
-                emitter.onSuccess(
-                    Optional.ofNullable(TelephonyManager.from(context).getMeid(slotIndex)).orElse(
-                        NPEFixing.emptyString()
-                    )
-                )
-            })
-            .subscribeOn(ThanosSchedulers.serverThread())
-            .timeout(300, TimeUnit.MILLISECONDS)
-            .onErrorReturnItem(NPEFixing.emptyString())
-            .blockingGet()
+        return originalIds.get()?.meid?.getOrNull(slotIndex) ?: NPEFixing.emptyString()
     }
 
     /**
@@ -406,18 +340,7 @@ class PrivacyService(s: S) : ThanoxSystemService(s), IPrivacyManager {
      */
     override fun getPhoneCount(): Int {
         enforceCallingPermissions()
-        return Single
-            .create(SingleOnSubscribe<Int> { emitter ->
-                emitter.onSuccess(
-                    Optional.ofNullable(TelephonyManager.from(context).phoneCount).orElse(
-                        0
-                    )
-                )
-            })
-            .subscribeOn(ThanosSchedulers.serverThread())
-            .timeout(300, TimeUnit.MILLISECONDS)
-            .onErrorReturnItem(0)
-            .blockingGet()
+        return originalIds.get()?.phoneCount ?: 0
     }
 
     /**
@@ -446,20 +369,11 @@ class PrivacyService(s: S) : ThanoxSystemService(s), IPrivacyManager {
      */
     override fun getAccessibleSubscriptionInfoList(): Array<SubscriptionInfo> {
         enforceCallingPermissions()
-        return Single
-            .create(SingleOnSubscribe<Array<SubscriptionInfo>> { emitter ->
-                emitter.onSuccess(
-                    Optional.ofNullable(
-                        SubscriptionManager.from(context).activeSubscriptionInfoList.toTypedArray()
-                    ).orElse(
-                        emptyArray()
-                    )
-                )
-            })
-            .subscribeOn(ThanosSchedulers.serverThread())
-            .timeout(300, TimeUnit.MILLISECONDS)
-            .onErrorReturnItem(emptyArray())
-            .blockingGet()
+        return originalIds.get()?.subscriptions ?: emptyArray()
+    }
+
+    fun getOriginalIdCache(): OriginalIdCache {
+        return originalIds
     }
 
     override fun getPrivacyDataCheatRequestCount(): Long {
@@ -475,6 +389,7 @@ class PrivacyService(s: S) : ThanoxSystemService(s), IPrivacyManager {
     }
 
     private fun registerReceivers() {
+        originalIds.start()
         EventBus.getInstance().registerEventSubscriber(
             IntentFilter(T.Actions.ACTION_FRONT_PKG_CHANGED), frontEventSubscriber
         )
@@ -536,4 +451,8 @@ class PrivacyService(s: S) : ThanoxSystemService(s), IPrivacyManager {
         NotificationManagerCompat.from(context)
             .notify(NotificationIdFactory.getIdByTag(N_TAG_PKG_PRIVACY_DATA_CHEATING), n)
     }
+
+    companion object {
+        private val NOT_CHEAT_PROFILE = PrivacyProfile.builder().cheat(false).build()
+    }
 }
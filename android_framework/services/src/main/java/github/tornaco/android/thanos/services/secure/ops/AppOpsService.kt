@@ -12,7 +12,7 @@ import github.tornaco.android.thanos.core.app.AppResources
 import github.tornaco.android.thanos.core.persist.RepoFactory
 import github.tornaco.android.thanos.core.persist.StringMapRepo
 import github.tornaco.android.thanos.core.persist.StringSetRepo
-import github.tornaco.android.thanos.core.pref.IPrefChangeListener
+import github.tornaco.android.thanos.core.pref.IPrefValueChangeListener
 import github.tornaco.android.thanos.core.profile.ProfileManager
 import github.tornaco.android.thanos.core.secure.ops.AppOpsManager
 import github.tornaco.android.thanos.core.secure.ops.IAppOpsService
@@ -25,7 +25,6 @@ import github.tornaco.android.thanos.services.ThanoxSystemService
 import github.tornaco.android.thanos.services.apihint.ExecuteBySystemHandler
 import github.tornaco.android.thanos.services.pm.PackageMonitor
 import lombok.SneakyThrows
-import util.ObjectsUtils
 
 class AppOpsService(s: S) : ThanoxSystemService(s), IAppOpsService {
     // Turn off for production build.
@@ -35,7 +34,8 @@ class AppOpsService(s: S) : ThanoxSystemService(s), IAppOpsService {
     private lateinit var opRemindPkgRepo: StringSetRepo
 
     private lateinit var opTemplateRepo: StringMapRepo
-    private lateinit var opSettingsRepo: StringMapRepo
+
+    private lateinit var opModes: OpModeTable
 
     private var opsEnabled = false
 
@@ -62,7 +62,11 @@ class AppOpsService(s: S) : ThanoxSystemService(s), IAppOpsService {
         opRemindOpRepo = RepoFactory.get().getOrCreateStringSetRepo(T.opRemindOpsFile().path)
         opRemindPkgRepo = RepoFactory.get().getOrCreateStringSetRepo(T.opRemindPkgFile().path)
         opTemplateRepo = RepoFactory.get().getOrCreateStringMapRepo(T.opTemplateFile().path)
-        opSettingsRepo = RepoFactory.get().getOrCreateStringMapRepo(T.opSettingsFile().path)
+        opModes = OpModeTable(
+            s.pkgManagerService.pkgIdTable,
+            RepoFactory.get().getOrCreateStringMapRepo(T.opModesFile().path)
+        )
+        loadOpModes()
         opRemindNotificationHelper = OpRemindNotificationHelper(context, s)
     }
 
@@ -92,15 +96,16 @@ class AppOpsService(s: S) : ThanoxSystemService(s), IAppOpsService {
     }
 
     private fun listenToPrefs() {
-        val listener = object : IPrefChangeListener.Stub() {
-            override fun onPrefChanged(key: String) {
-                if (ObjectsUtils.equals(T.Settings.PREF_OPS_ENABLED.key, key)) {
-                    Timber.i("Pref changed, reload.")
-                    readPrefs()
-                }
+        val listener = object : IPrefValueChangeListener.Stub() {
+            override fun onPrefValueChanged(key: String, value: String?) {
+                Timber.i("Pref changed: $key, value: $value")
+                opsEnabled = T.Settings.PREF_OPS_ENABLED.parse(value)
             }
         }
-        s.preferenceManagerService.registerSettingsChangeListener(listener)
+        s.preferenceManagerService.registerSettingsValueChangeListener(
+            arrayOf(T.Settings.PREF_OPS_ENABLED.key),
+            listener
+        )
     }
 
     private fun registerReceivers() {
@@ -111,7 +116,17 @@ class AppOpsService(s: S) : ThanoxSystemService(s), IAppOpsService {
     override fun setMode(code: Int, uid: Int, packageName: String, mode: Int) {
         enforceCallingPermissions()
         Timber.v("setMode: %s %s %s %s", code, uid, packageName, mode)
-        opSettingsRepo["$packageName-$code"] = mode.toString()
+        opModes.setMode(packageName, code, mode)
+    }
+
+    private fun loadOpModes() {
+        opModes.load()
+        // Settings of older versions are one entry per op, a restored backup may bring them back too.
+        val legacyRepo = RepoFactory.get().getOrCreateStringMapRepo(T.opSettingsFile().path)
+        if (!legacyRepo.isEmpty()) {
+            opModes.importLegacy(legacyRepo.snapshot())
+            legacyRepo.clear()
+        }
     }
 
     @Throws(RemoteException::class)
@@ -122,24 +137,10 @@ class AppOpsService(s: S) : ThanoxSystemService(s), IAppOpsService {
             return
         }
         if ("*" == reqPackageName) {
-            resetModeForAllPkgs()
+            // Keep the template.
+            opModes.resetAllExcept(ProfileManager.PROFILE_AUTO_APPLY_NEW_INSTALLED_APPS_CONFIG_PKG_NAME)
         } else {
-            val numOp = AppOpsManager._NUM_OP
-            for (i in 0 until numOp) {
-                Timber.v("Set $i to MODE_ALLOWED for pkg $reqPackageName")
-                opSettingsRepo["$reqPackageName-$i"] = AppOpsManager.MODE_ALLOWED.toString()
-            }
-        }
-    }
-
-    private fun resetModeForAllPkgs() {
-        Timber.w("resetModeForAllPkgs")
-        opSettingsRepo.keys.toTypedArray().forEach {
-            // Check if it is template.
-            if (!it.startsWith(ProfileManager.PROFILE_AUTO_APPLY_NEW_INSTALLED_APPS_CONFIG_PKG_NAME)) {
-                opSettingsRepo[it] = AppOpsManager.MODE_ALLOWED.toString()
-                Timber.v("Reset $it to MODE_ALLOWED")
-            }
+            opModes.reset(reqPackageName)
         }
     }
 
@@ -150,18 +151,11 @@ class AppOpsService(s: S) : ThanoxSystemService(s), IAppOpsService {
             return AppOpsManager.MODE_ALLOWED
         }
         // IllegalArgumentException: Bad operation #71
-        val mode = opSettingsRepo["$packageName-$code"]?.toInt() ?: AppOpsManager.MODE_ALLOWED
+        val mode = opModes.getMode(packageName, code)
         if (debugOp) Timber.v("checkOperation: $packageName $code, mode: $mode")
-        executeInternal(Runnable {
-            reportCheckResultInternal(packageName, code, mode)
-        })
         return mode
     }
 
-    private fun reportCheckResultInternal(pkg: String, code: Int, mode: Int) {
-
-    }
-
     @Throws(RemoteException::class)
     override fun isOpsEnabled(): Boolean {
         return opsEnabled
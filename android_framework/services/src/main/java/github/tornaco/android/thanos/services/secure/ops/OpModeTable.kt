@@ -0,0 +1,138 @@
+package github.tornaco.android.thanos.services.secure.ops
+
+import github.tornaco.android.thanos.core.persist.StringMapRepo
+import github.tornaco.android.thanos.core.secure.ops.AppOpsManager
+import github.tornaco.android.thanos.core.util.Timber
+import github.tornaco.android.thanos.services.pm.PkgIdTable
+
+/**
+ * Dense op modes, a byte per op for each package, rows indexed by [PkgIdTable] id,
+ * so a check is two array reads. A package without a row allows every op.
+ *
+ * Rows and the row array are copy on write, readers never lock.
+ * Persisted one repo entry per package, one mode digit per op, so resetting a package
+ * is a single remove instead of a write per op.
+ */
+class OpModeTable(private val pkgIdTable: PkgIdTable, private val repo: StringMapRepo) {
+
+    @Volatile
+    private var rows: Array<ByteArray?> = arrayOfNulls(256)
+
+    fun getMode(pkg: String, code: Int): Int {
+        return getMode(pkgIdTable.peekId(pkg), code)
+    }
+
+    fun getMode(pkgId: Int, code: Int): Int {
+        val rows = rows
+        if (pkgId < 0 || pkgId >= rows.size) return AppOpsManager.MODE_ALLOWED
+        val row = rows[pkgId] ?: return AppOpsManager.MODE_ALLOWED
+        return if (code >= 0 && code < row.size) row[code].toInt() else AppOpsManager.MODE_ALLOWED
+    }
+
+    @Synchronized
+    fun setMode(pkg: String, code: Int, mode: Int) {
+        if (code < 0) return
+        val pkgId = pkgIdTable.idOf(pkg)
+        val old = rowOf(pkgId)
+        val row = old?.copyOf(maxOf(old.size, code + 1, AppOpsManager._NUM_OP))
+            ?: ByteArray(maxOf(code + 1, AppOpsManager._NUM_OP))
+        row[code] = mode.toByte()
+        publish(pkgId, row)
+        repo[pkg] = encode(row)
+    }
+
+    /**
+     * Every op of this package back to allowed.
+     */
+    @Synchronized
+    fun reset(pkg: String) {
+        val pkgId = pkgIdTable.peekId(pkg)
+        if (rowOf(pkgId) != null) publish(pkgId, null)
+        repo.remove(pkg)
+    }
+
+    /**
+     * Every op of every package back to allowed, except the given package.
+     */
+    @Synchronized
+    fun resetAllExcept(keepPkg: String) {
+        val keepId = pkgIdTable.peekId(keepPkg)
+        val keep = rowOf(keepId)
+        val newRows = arrayOfNulls<ByteArray>(rows.size)
+        if (keep != null) newRows[keepId] = keep
+        rows = newRows
+        val kept = repo[keepPkg]
+        repo.clear()
+        if (kept != null) repo[keepPkg] = kept
+    }
+
+    @Synchronized
+    fun load() {
+        var newRows = rows.copyOf()
+        var size = 0
+        repo.snapshot().forEach { (pkg, modes) ->
+            if (pkg != null && modes != null) {
+                val pkgId = pkgIdTable.idOf(pkg)
+                if (pkgId >= newRows.size) newRows = newRows.copyOf(maxOf(newRows.size * 2, pkgId + 1))
+                newRows[pkgId] = decode(modes)
+                size++
+            }
+        }
+        rows = newRows
+        Timber.i("OpModeTable loaded, size: $size")
+    }
+
+    /**
+     * Import "pkg-code" to mode entries of the old per op store.
+     */
+    @Synchronized
+    fun importLegacy(legacy: Map<String, String?>) {
+        val imported = HashMap<String, ByteArray>()
+        legacy.forEach { (k, v) ->
+            val sep = k.lastIndexOf('-')
+            val code = if (sep > 0) k.substring(sep + 1).toIntOrNull() else null
+            val mode = v?.toIntOrNull()
+            if (code == null || code < 0 || mode == null) {
+                Timber.e("Bad op setting: $k=$v")
+                return@forEach
+            }
+            val pkg = k.substring(0, sep)
+            val row = imported[pkg] ?: rowOf(pkgIdTable.idOf(pkg))?.copyOf() ?: ByteArray(0)
+            val grown = if (code < row.size) row else row.copyOf(maxOf(code + 1, AppOpsManager._NUM_OP))
+            grown[code] = mode.toByte()
+            imported[pkg] = grown
+        }
+        imported.forEach { (pkg, row) -> publish(pkgIdTable.idOf(pkg), row) }
+        repo.putAll(imported.mapValues { encode(it.value) })
+        Timber.i("OpModeTable imported legacy, pkgs: ${imported.size}")
+    }
+
+    private fun rowOf(pkgId: Int): ByteArray? {
+        val rows = rows
+        return if (pkgId < 0 || pkgId >= rows.size) null else rows[pkgId]
+    }
+
+    // Under lock.
+    private fun publish(pkgId: Int, row: ByteArray?) {
+        val old = rows
+        val newRows = if (pkgId < old.size) old.copyOf() else old.copyOf(maxOf(old.size * 2, pkgId + 1))
+        newRows[pkgId] = row
+        rows = newRows
+    }
+
+    private fun encode(row: ByteArray): String {
+        val chars = CharArray(row.size)
+        for (i in row.indices) {
+            chars[i] = '0' + row[i].toInt()
+        }
+        return String(chars)
+    }
+
+    private fun decode(modes: String): ByteArray {
+        val row = ByteArray(maxOf(modes.length, AppOpsManager._NUM_OP))
+        for (i in modes.indices) {
+            row[i] = (modes[i] - '0').toByte()
+        }
+        return row
+    }
+}
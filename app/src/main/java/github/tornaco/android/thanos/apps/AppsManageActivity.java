@@ -14,6 +14,7 @@ import github.tornaco.android.thanos.common.AppItemViewClickListener;
 import github.tornaco.android.thanos.common.AppListModel;
 import github.tornaco.android.thanos.common.CommonAppListFilterActivity;
 import github.tornaco.android.thanos.common.CommonAppListFilterViewModel;
+import github.tornaco.android.thanos.core.app.PkgPolicySnapshot;
 import github.tornaco.android.thanos.core.app.ThanosManager;
 import github.tornaco.android.thanos.core.pm.AppInfo;
 import github.tornaco.android.thanos.util.ActivityUtils;
@@ -48,6 +49,7 @@ public class AppsManageActivity extends CommonAppListFilterActivity {
             if (!thanos.isServiceInstalled()) {
                 return Lists.newArrayList(new AppListModel(AppInfo.dummy()));
             }
+            PkgPolicySnapshot snapshot = thanos.getActivityManager().getPkgPolicySnapshot(index.flag, PkgPolicySnapshot.FLAG_IDLE);
             List<AppListModel> res = new ArrayList<>();
             CompositeDisposable disposable = new CompositeDisposable();
             disposable.add(Observable.fromArray(thanos.getPkgManager().getInstalledPkgs(index.flag))
@@ -55,8 +57,8 @@ public class AppsManageActivity extends CommonAppListFilterActivity {
                     .doOnComplete(disposable::dispose)
                     .subscribe(appInfo -> res.add(new AppListModel(
                             appInfo,
-                            thanos.getActivityManager().isPackageRunning(appInfo.getPkgName()) ? runningBadge : null,
-                            thanos.getActivityManager().isPackageIdle(appInfo.getPkgName()) ? idleBadge : null))));
+                            snapshot.isRunning(appInfo.getPkgName()) ? runningBadge : null,
+                            snapshot.isIdle(appInfo.getPkgName()) ? idleBadge : null))));
             return res;
         };
     }
@@ -18,7 +18,7 @@ import github.tornaco.android.thanos.common.AppListModel;
 import github.tornaco.android.thanos.common.CommonFuncToggleAppListFilterActivity;
 import github.tornaco.android.thanos.common.CommonFuncToggleAppListFilterViewModel;
 import github.tornaco.android.thanos.common.OnAppItemSelectStateChangeListener;
-import github.tornaco.android.thanos.core.app.ActivityManager;
+import github.tornaco.android.thanos.core.app.PkgPolicySnapshot;
 import github.tornaco.android.thanos.core.app.ThanosManager;
 import github.tornaco.android.thanos.core.pm.AppInfo;
 import github.tornaco.android.thanos.core.util.YesNoDontKnow;
@@ -77,14 +77,14 @@ public class SmartStandbyActivity extends CommonFuncToggleAppListFilterActivity
 
             String runningBadge = getApplicationContext().getString(R.string.badge_app_running);
             String idleBadge = getApplicationContext().getString(R.string.badge_app_idle);
-            ActivityManager am = thanos.getActivityManager();
             List<AppInfo> installed = Lists.newArrayList(thanos.getPkgManager().getInstalledPkgs(index.flag));
+            PkgPolicySnapshot snapshot = thanos.getActivityManager().getPkgPolicySnapshot(index.flag, PkgPolicySnapshot.FLAG_IDLE);
             List<AppListModel> res = new ArrayList<>();
             CollectionUtils.consumeRemaining(installed, appInfo -> {
-                appInfo.setSelected(am.isPkgSmartStandByEnabled(appInfo.getPkgName()));
+                appInfo.setSelected(snapshot.hasFlag(appInfo.getPkgName(), PkgPolicySnapshot.FLAG_SMART_STAND_BY));
                 res.add(new AppListModel(appInfo,
-                        thanos.getActivityManager().isPackageRunning(appInfo.getPkgName()) ? runningBadge : null,
-                        thanos.getActivityManager().isPackageIdle(appInfo.getPkgName()) ? idleBadge : null));
+                        snapshot.isRunning(appInfo.getPkgName()) ? runningBadge : null,
+                        snapshot.isIdle(appInfo.getPkgName()) ? idleBadge : null));
             });
             return res;
         };
@@ -12,9 +12,9 @@ import java.util.List;
 import github.tornaco.android.thanos.common.AppListModel;
 import github.tornaco.android.thanos.common.CategoryIndex;
 import github.tornaco.android.thanos.common.CommonFuncToggleAppListFilterViewModel;
+import github.tornaco.android.thanos.core.app.PkgPolicySnapshot;
 import github.tornaco.android.thanos.core.app.ThanosManager;
 import github.tornaco.android.thanos.core.pm.AppInfo;
-import github.tornaco.android.thanos.core.secure.PrivacyManager;
 import lombok.AllArgsConstructor;
 import util.CollectionUtils;
 
@@ -27,11 +27,11 @@ public class DataCheatAppsLoader implements CommonFuncToggleAppListFilterViewMod
     public List<AppListModel> load(@NonNull CategoryIndex index) {
         ThanosManager thanos = ThanosManager.from(context);
         if (!thanos.isServiceInstalled()) return Lists.newArrayListWithCapacity(0);
-        PrivacyManager priv = thanos.getPrivacyManager();
         List<AppInfo> installed = Lists.newArrayList(thanos.getPkgManager().getInstalledPkgs(index.flag));
+        PkgPolicySnapshot snapshot = thanos.getActivityManager().getPkgPolicySnapshot(index.flag);
         List<AppListModel> res = new ArrayList<>();
         CollectionUtils.consumeRemaining(installed, appInfo -> {
-            appInfo.setSelected(priv.isPkgPrivacyDataCheat(appInfo.getPkgName()));
+            appInfo.setSelected(snapshot.hasFlag(appInfo.getPkgName(), PkgPolicySnapshot.FLAG_PRIVACY_DATA_CHEAT));
             res.add(new AppListModel(appInfo));
         });
         return res;
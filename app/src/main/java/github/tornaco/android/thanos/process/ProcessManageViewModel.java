@@ -19,6 +19,7 @@ import java.util.Objects;
 
 import github.tornaco.android.thanos.R;
 import github.tornaco.android.thanos.common.CategoryIndex;
+import github.tornaco.android.thanos.core.app.PkgPolicySnapshot;
 import github.tornaco.android.thanos.core.app.ThanosManager;
 import github.tornaco.android.thanos.core.pm.AppInfo;
 import github.tornaco.android.thanos.core.process.ProcessRecord;
@@ -76,6 +77,8 @@ public class ProcessManageViewModel extends AndroidViewModel {
                 })
                 .map(strings -> {
                     List<ProcessModel> processModels = new ArrayList<>();
+                    PkgPolicySnapshot snapshot = thanos.getActivityManager()
+                            .getPkgPolicySnapshot(Objects.requireNonNull(categoryIndex.get()).flag, PkgPolicySnapshot.FLAG_IDLE);
                     CollectionUtils.consumeRemaining(strings, s -> {
                         try {
                             Timber.d("loadProcess, filter index: %s", categoryIndex.get());
@@ -112,7 +115,7 @@ public class ProcessManageViewModel extends AndroidViewModel {
                                     size,
                                     sizeStr,
                                     null,
-                                    (thanos.getActivityManager().isPackageIdle(appInfo.getPkgName()) ? idleBadge : null));
+                                    (snapshot.isIdle(appInfo.getPkgName()) ? idleBadge : null));
                             processModels.add(processModel);
                         } catch (RemoteException e) {
                             Timber.e(e);
@@ -13,7 +13,7 @@ import github.tornaco.android.thanos.R;
 import github.tornaco.android.thanos.common.AppListModel;
 import github.tornaco.android.thanos.common.CategoryIndex;
 import github.tornaco.android.thanos.common.CommonFuncToggleAppListFilterViewModel;
-import github.tornaco.android.thanos.core.app.ActivityManager;
+import github.tornaco.android.thanos.core.app.PkgPolicySnapshot;
 import github.tornaco.android.thanos.core.app.ThanosManager;
 import github.tornaco.android.thanos.core.pm.AppInfo;
 import lombok.AllArgsConstructor;
@@ -30,12 +30,12 @@ public class BgRestrictAppsLoader implements CommonFuncToggleAppListFilterViewMo
         if (!thanos.isServiceInstalled()) return Lists.newArrayListWithCapacity(0);
 
         String runningBadge = context.getString(R.string.badge_app_running);
-        ActivityManager am = thanos.getActivityManager();
         List<AppInfo> installed = Lists.newArrayList(thanos.getPkgManager().getInstalledPkgs(index.flag));
+        PkgPolicySnapshot snapshot = thanos.getActivityManager().getPkgPolicySnapshot(index.flag);
         List<AppListModel> res = new ArrayList<>();
         CollectionUtils.consumeRemaining(installed, appInfo -> {
-            appInfo.setSelected(!am.isPkgBgRestricted(appInfo.getPkgName()));
-            res.add(new AppListModel(appInfo, thanos.getActivityManager().isPackageRunning(appInfo.getPkgName()) ? runningBadge : null));
+            appInfo.setSelected(!snapshot.hasFlag(appInfo.getPkgName(), PkgPolicySnapshot.FLAG_BG_RESTRICTED));
+            res.add(new AppListModel(appInfo, snapshot.isRunning(appInfo.getPkgName()) ? runningBadge : null));
         });
         return res;
     }
@@ -10,6 +10,7 @@ import androidx.lifecycle.AndroidViewModel;
 
 import java.util.Objects;
 
+import github.tornaco.android.thanos.core.T;
 import github.tornaco.android.thanos.core.app.ThanosManager;
 import github.tornaco.android.thanos.core.app.activity.ActivityStackSupervisor;
 import github.tornaco.android.thanos.core.util.Timber;
@@ -105,7 +106,14 @@ public class SetupViewModel extends AndroidViewModel {
 
     private void onSetupComplete() {
         Timber.d("onSetupComplete %s %s %s", firstKey.get(), secondKey.get(), stage.get());
-        Objects.requireNonNull(lazyGetLockerManager()).setLockerKey(getLockMethod(), firstKey.get());
+        int method = getLockMethod();
+        // The method and its key in one commit, verify never sees a method without its key.
+        ThanosManager.from(getApplication().getApplicationContext())
+                .getPrefManager()
+                .edit()
+                .putInt(T.Settings.PREF_APP_LOCK_METHOD.getKey(), method)
+                .putString(T.Settings.PREF_APP_LOCK_KEY_PREFIX_.getKey() + method, firstKey.get())
+                .commit();
         setupComplete.set(true);
     }
 